@@ -2,6 +2,8 @@ package CT_Tools;
 
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.function.DoubleUnaryOperator;
+import java.util.stream.IntStream;
 
 import ij.IJ;
 import ij.ImagePlus;
@@ -31,6 +33,12 @@ public class Apply_Linearization implements PlugIn, DialogListener
 	String paramsTableChoice, fitChoice;
 	boolean useScaleFactor,createNewImage;
 	double scaleFactor = 6000;	//default scale factor
+	
+	//The 32-bit lookup table size limits and the allowed interpolation error
+	//relative to the largest linearized value
+	final int floatLutMinIntervals = 4096;
+	final int floatLutMaxIntervals = 1<<20;
+	final double floatLutTolerance = 1e-6;
 
 		
 	GenericDialogAddin gda = new GenericDialogAddin();	
@@ -102,131 +110,166 @@ public class Apply_Linearization implements PlugIn, DialogListener
 			dataImage.setTitle(dataImage.getTitle() + "-" + fitChoice.getSelectedItem());
 		}
 		
-		double myDbl;
-		int i,slice;
-		//long start = System.nanoTime();
-
 		String fitStr = fitChoice.getSelectedItem();
+		DoubleUnaryOperator fit;
 		switch(fitStr)
 		{
 		case "Inverse Rodbard":
-			if(sinoData[0] instanceof float[])
+			fit = val -> invRodbardCalc(val,coeffArr);
+			break;
+		default:
+			fit = val -> polyCalc(val,coeffArr);
+			break;
+		}
+
+		//long start = System.nanoTime();
+		if(sinoData[0] instanceof float[])
+		{
+			applyFloatFit(sinoData,nSlices,fit);
+		}
+		else if(sinoData[0] instanceof short[])
+		{
+			//Every unsigned 16-bit value is linearized once
+			final short[] lut = new short[65536];
+			for(int v=0;v<lut.length;v++)
 			{
-				for(slice=0;slice<nSlices;slice++)
-				{
-					float[] fData = (float[]) sinoData[slice];
-					for( i=0;i<fData.length;i++)
-					{
-						myDbl = fData[i]/scaleFactor;
-						myDbl = invRodbardCalc(myDbl,coeffArr);
-						fData[i] = (float)(myDbl*scaleFactor);
-					}
-				}
+				double myDbl = fit.applyAsDouble(v/scaleFactor);
+				if(myDbl<0) myDbl=0;
+				myDbl*=scaleFactor;
+				if(myDbl>65535) myDbl=65535;
+				lut[v] = (short)myDbl;
 			}
-			else if(sinoData[0] instanceof int[])
+			IntStream.range(0, nSlices).parallel().forEach(slice ->
 			{
-				for(slice=0;slice<nSlices;slice++)
+				short[] sData = (short[]) sinoData[slice];
+				for(int i=0;i<sData.length;i++)
 				{
-					int[] fData = (int[]) sinoData[slice];
-					for( i=0;i<fData.length;i++)
-					{
-						myDbl = fData[i]/scaleFactor;
-						myDbl = invRodbardCalc(myDbl,coeffArr);
-						if(myDbl<0) myDbl=0;
-						fData[i] = (int)(myDbl*scaleFactor);
-					}
+					sData[i] = lut[sData[i]&0xffff];
 				}
-			}
-			else if(sinoData[0] instanceof short[])
+			});
+		}
+		else if(sinoData[0] instanceof byte[])
+		{
+			final byte[] lut = new byte[256];
+			for(int v=0;v<lut.length;v++)
 			{
-				for(slice=0;slice<nSlices;slice++)
-				{
-					short[] fData = (short[]) sinoData[slice];
-					for( i=0;i<fData.length;i++)
-					{						
-						myDbl = fData[i]/scaleFactor;
-						myDbl = invRodbardCalc(myDbl,coeffArr);
-						if(myDbl<0) myDbl=0;
-						fData[i] = (short)(myDbl*scaleFactor);
-					}	
-				}
+				double myDbl = fit.applyAsDouble(v/scaleFactor);
+				if(myDbl<0) myDbl=0;
+				myDbl*=scaleFactor;
+				if(myDbl>255) myDbl=255;
+				lut[v] = (byte)myDbl;
 			}
-			else if(sinoData[0] instanceof byte[])
+			IntStream.range(0, nSlices).parallel().forEach(slice ->
 			{
-				for(slice=0;slice<nSlices;slice++)
+				byte[] bData = (byte[]) sinoData[slice];
+				for(int i=0;i<bData.length;i++)
 				{
-					byte[] fData = (byte[]) sinoData[slice];
-					for( i=0;i<fData.length;i++)
-					{
-						myDbl = fData[i]/scaleFactor;
-						myDbl = invRodbardCalc(myDbl,coeffArr);
-						if(myDbl<0) myDbl=0;
-						fData[i] = (byte)(myDbl*scaleFactor);
-					}
+					bData[i] = lut[bData[i]&0xff];
 				}
-			}
-			break;
-		default:
-			if(sinoData[0] instanceof float[])
+			});
+		}
+		//long end = System.nanoTime();
+		//System.out.println("Linearization = "+(end-start) + "nsec" );
+	}
+
+	//*******************************************************************************************************
+
+	/**Linearizes 32-bit data through a piecewise linear table spanning the data range.
+	 * The table is refined until the interpolation error at the interval midpoints is
+	 * below floatLutTolerance of the largest table value. If the fit is not finite over
+	 * the data range or the table cannot reach the tolerance, the fit is evaluated at every pixel.
+	 * @param sinoData The stack pixel arrays
+	 * @param nSlices The number of slices
+	 * @param fit The linearization function of the scaled data
+	 */
+	private void applyFloatFit(Object[] sinoData, int nSlices, DoubleUnaryOperator fit)
+	{
+		//The data range, NaNs are skipped by the comparisons
+		double[][] sliceRange = new double[nSlices][];
+		IntStream.range(0, nSlices).parallel().forEach(slice ->
+		{
+			float[] fData = (float[]) sinoData[slice];
+			float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+			for(float v : fData)
 			{
-				for(slice=0;slice<nSlices;slice++)
-				{
-					float[] fData = (float[]) sinoData[slice];
-					for( i=0;i<fData.length;i++)
-					{
-						myDbl = fData[i]/scaleFactor;
-						myDbl = polyCalc(myDbl,coeffArr);
-						fData[i] = (float)(myDbl*scaleFactor);
-					}
-				}
+				if(v<min) min=v;
+				if(v>max) max=v;
 			}
-			else if (sinoData[0] instanceof int[])
+			sliceRange[slice] = new double[] {min,max};
+		});
+		double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+		for(double[] range : sliceRange)
+		{
+			min = Math.min(min, range[0]);
+			max = Math.max(max, range[1]);
+		}
+
+		final double[] table = makeFloatLut(min,max,fit);
+		if(table==null)
+		{
+			IntStream.range(0, nSlices).parallel().forEach(slice ->
 			{
-				for(slice=0;slice<nSlices;slice++)
+				float[] fData = (float[]) sinoData[slice];
+				for(int i=0;i<fData.length;i++)
 				{
-					int[] iSinoData = (int[]) sinoData[slice];
-					for( i=0;i<iSinoData.length;i++)
-					{
-						myDbl = (double)iSinoData[i]/scaleFactor;
-						myDbl = polyCalc(myDbl,coeffArr);
-						if(myDbl<0) myDbl=0;
-						iSinoData[i] = (int)(myDbl*scaleFactor);				
-					}
+					fData[i] = (float)(fit.applyAsDouble(fData[i]/scaleFactor)*scaleFactor);
 				}
+			});
+			return;
+		}
+
+		final double lutMin = min;
+		final int lastInterval = table.length-2;
+		final double invStep = (table.length-1)/(max-min);
+		IntStream.range(0, nSlices).parallel().forEach(slice ->
+		{
+			float[] fData = (float[]) sinoData[slice];
+			for(int i=0;i<fData.length;i++)
+			{
+				float v = fData[i];
+				if(Float.isNaN(v)) continue;
+				double t = (v-lutMin)*invStep;
+				int k = Math.min((int)t, lastInterval);
+				double frac = t-k;
+				fData[i] = (float)(table[k] + frac*(table[k+1]-table[k]));
 			}
-			else if (sinoData[0] instanceof short[])
+		});
+	}
+
+	//*******************************************************************************************************
+
+	/**
+	 * @param min The smallest data value
+	 * @param max The largest data value
+	 * @param fit The linearization function of the scaled data
+	 * @return The linearized values at evenly spaced nodes from min to max, or null
+	 */
+	private double[] makeFloatLut(double min, double max, DoubleUnaryOperator fit)
+	{
+		if(!(min<max) || Double.isInfinite(min) || Double.isInfinite(max)) return null;
+
+		for(int nIntervals=floatLutMinIntervals; nIntervals<=floatLutMaxIntervals; nIntervals*=2)
+		{
+			double step = (max-min)/nIntervals;
+			double[] table = new double[nIntervals+1];
+			double yMax = 0;
+			for(int k=0;k<table.length;k++)
 			{
-				for(slice=0;slice<nSlices;slice++)
-				{
-					short[] iSinoData = (short[]) sinoData[slice];
-					for( i=0;i<iSinoData.length;i++)
-					{
-						myDbl = (double)iSinoData[i]/scaleFactor;
-						myDbl = polyCalc(myDbl,coeffArr);
-						if(myDbl<0) myDbl=0;
-						iSinoData[i] = (short)(myDbl*scaleFactor);				
-					}
-				}
+				table[k] = fit.applyAsDouble((min+k*step)/scaleFactor)*scaleFactor;
+				if(!Double.isFinite(table[k])) return null;
+				yMax = Math.max(yMax, Math.abs(table[k]));
 			}
-			else if (sinoData[0] instanceof byte[])
+
+			double tolerance = floatLutTolerance*Math.max(yMax,1);
+			boolean tableOK = true;
+			for(int k=0;k<nIntervals && tableOK;k++)
 			{
-				for(slice=0;slice<nSlices;slice++)
-				{
-					byte[] iSinoData = (byte[]) sinoData[slice];
-					for( i=0;i<iSinoData.length;i++)
-					{
-						myDbl = (double)iSinoData[i]/scaleFactor;
-						myDbl = polyCalc(myDbl,coeffArr);
-						if(myDbl<0) myDbl=0;
-						iSinoData[i] = (byte)(myDbl*scaleFactor);				
-					}
-				}
+				double exact = fit.applyAsDouble((min+(k+0.5)*step)/scaleFactor)*scaleFactor;
+				tableOK = Math.abs(exact-(table[k]+table[k+1])/2) <= tolerance;
 			}
-			break;
+			if(tableOK) return table;
 		}
-		//long end = System.nanoTime();
-		//Surprise! This implementation was about 10-20% faster than with local variables
-		//System.out.println("Linearization6 = "+(end-start) + "nsec" );
+		return null;
 	}
 
 	//*******************************************************************************************************
@@ -0,0 +1,170 @@
+package CT_Tools;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.GenericDialog;
+import ij.plugin.PlugIn;
+import ij.process.FloatProcessor;
+import jhd.Projection.ParallelProjectors;
+import jhd.Projection.ParallelProjectors.BremParallelParams;
+
+/**
+ * Compares the BremsDecomposedProjector tau sinogram with
+ * jhd.Projection.ParallelProjectors.imageToBremsstrahlungParallelSinogram2.<br>
+ * The phantom is a water disk with an aluminum rod, projected with the Tag
+ * Image To Parallel Brems Sinogram dialog defaults: a W target at 160 kV, 20
+ * bins from 20 keV, 0.1 cm Cu filter and 0.01 cm CsI detector. The two models
+ * differ in their bin energies and spectrum weights, the rays through the
+ * phantom show how much that changes tau. The differences are written to the
+ * Log and the decomposed - jhd difference sinogram is shown.<br>
+ * The test fails if the tau sum ratio differs from 1 by more than
+ * SUM_TOLERANCE, the rms or largest difference exceeds RMS_TOLERANCE or
+ * MAX_TOLERANCE of the largest jhd tau, or ParallelProjectors returns no
+ * sinogram.<br>
+ * Run it from the menu, a macro, run("Brems Decomposed Projector Test",
+ * "width=256 views=180 pixel=0.01"), or from the command line with main, which
+ * exits with status 1 on failure.
+ *
+ * @author LazzyIzzi
+ */
+public class BremsDecomposedProjector_Test implements PlugIn {
+
+	static final int WATER_TAG = 1, ALUMINUM_TAG = 2;
+	// the accepted |sum ratio - 1|, rms and largest difference, the last two
+	// relative to the largest jhd tau
+	static final double SUM_TOLERANCE = 0.01, RMS_TOLERANCE = 0.01, MAX_TOLERANCE = 0.03;
+
+	@Override
+	public void run(String arg) {
+		GenericDialog gd = new GenericDialog("Brems Decomposed Projector Test");
+		gd.addNumericField("Width", 256, 0);
+		gd.addNumericField("Views", 180, 0);
+		gd.addNumericField("Pixel size(cm)", 0.01, 4);
+		gd.showDialog();
+		if (gd.wasCanceled()) return;
+		int width = (int) gd.getNextNumber();
+		int numAng = (int) gd.getNextNumber();
+		double pixSizeCM = gd.getNextNumber();
+		if (width < 16 || numAng < 1 || !(pixSizeCM > 0)) {
+			IJ.error("Brems Decomposed Projector Test",
+					"The width must be at least 16, the views at least 1 and the pixel size above 0");
+			return;
+		}
+		if (!compare(width, numAng, pixSizeCM, true)) {
+			IJ.error("Brems Decomposed Projector Test", "The projectors differ, see the Log");
+		}
+	}
+
+	/**
+	 * Runs the comparison without ImageJ's user interface, the Log is written to
+	 * the console
+	 *
+	 * @param args optional width, view count and pixel size, 256, 180 and 0.01
+	 *             by default
+	 */
+	public static void main(String[] args) {
+		int width = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		int numAng = args.length > 1 ? Integer.parseInt(args[1]) : 180;
+		double pixSizeCM = args.length > 2 ? Double.parseDouble(args[2]) : 0.01;
+		if (!new BremsDecomposedProjector_Test().compare(width, numAng, pixSizeCM, false)) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @param width     The phantom width and height
+	 * @param numAng    The number of views
+	 * @param pixSizeCM The pixel size in cm
+	 * @param show      true to show the difference sinogram
+	 * @return true if the difference is within the tolerances
+	 */
+	public boolean compare(int width, int numAng, double pixSizeCM, boolean show) {
+		BremParallelParams bpp = getParams(width, numAng, pixSizeCM);
+		float[] phantom = makePhantom(width);
+
+		IJ.log("Brems Decomposed Projector Test, " + width + " pixels of " + pixSizeCM + " cm, " + numAng
+				+ " views, tolerances: sum ratio " + SUM_TOLERANCE + ", rms " + RMS_TOLERANCE + ", max "
+				+ MAX_TOLERANCE);
+		float[] jhdTau = new ParallelProjectors().imageToBremsstrahlungParallelSinogram2(bpp, phantom.clone(),
+				width, width);
+		if (jhdTau == null || jhdTau.length != width * numAng) {
+			IJ.log("  FAIL ParallelProjectors did not return a " + width + "x" + numAng + " sinogram");
+			IJ.log("Brems Decomposed Projector Test FAILED");
+			return false;
+		}
+		float[] decTau = new BremsDecomposedProjector().imageToBremsstrahlungParallelSinogram(bpp, phantom, width,
+				width);
+
+		// the rays through the phantom
+		double sum = 0, refSum = 0, maxDiff = 0, sqDiff = 0, refMax = 0;
+		int n = 0;
+		for (int i = 0; i < jhdTau.length; i++) {
+			refMax = Math.max(refMax, Math.abs(jhdTau[i]));
+		}
+		for (int i = 0; i < jhdTau.length; i++) {
+			if (!(jhdTau[i] > 0.01 * refMax)) continue;
+			double d = decTau[i] - jhdTau[i];
+			sum += decTau[i];
+			refSum += jhdTau[i];
+			maxDiff = Math.max(maxDiff, Math.abs(d));
+			sqDiff += d * d;
+			n++;
+		}
+		double sumRatio = sum / refSum, relMax = maxDiff / refMax, relRms = Math.sqrt(sqDiff / n) / refMax;
+		boolean pass = n > 0 && Math.abs(sumRatio - 1) <= SUM_TOLERANCE && relRms <= RMS_TOLERANCE
+				&& relMax <= MAX_TOLERANCE;
+		IJ.log((pass ? "  pass " : "  FAIL ") + "decomposed - jhd tau, " + n + " rays: sum ratio "
+				+ IJ.d2s(sumRatio, 5) + ", max |diff| " + IJ.d2s(relMax, 5) + ", rms diff " + IJ.d2s(relRms, 5)
+				+ " of the largest jhd tau " + IJ.d2s(refMax, 4));
+		IJ.log("Brems Decomposed Projector Test " + (pass ? "passed" : "FAILED"));
+
+		if (show) {
+			float[] diff = new float[decTau.length];
+			for (int i = 0; i < diff.length; i++) {
+				diff[i] = decTau[i] - jhdTau[i];
+			}
+			new ImagePlus("Decomposed - jhd tau", new FloatProcessor(width, numAng, diff)).show();
+		}
+		return pass;
+	}
+
+	// the Tag Image To Parallel Brems Sinogram dialog defaults
+	private BremParallelParams getParams(int width, int numAng, double pixSizeCM) {
+		BremParallelParams bpp = new BremParallelParams();
+		bpp.target = "W";
+		bpp.kv = 160;
+		bpp.ma = 100;
+		bpp.nBins = 20;
+		bpp.minKV = 20;
+		bpp.filter = "Cu";
+		bpp.filterCM = 0.1f;
+		bpp.filterGmPerCC = 8.41;
+		bpp.detFormula = "Cs:1:I:1";
+		bpp.detCM = .01;
+		bpp.detGmPerCC = 8.41;
+		bpp.pixSizeCM = pixSizeCM;
+		bpp.numAng = numAng;
+		bpp.matlTag = new int[] { 0, WATER_TAG, ALUMINUM_TAG };
+		bpp.matlName = new String[] { "EmptySpace", "Water", "Aluminum" };
+		bpp.matlFormula = new String[] { "H", "H:2:O:1", "AL" };
+		bpp.matlGmPerCC = new double[] { 0, 1, 2.7 };
+		return bpp;
+	}
+
+	// a water disk at the center with an off-center aluminum rod
+	private float[] makePhantom(int width) {
+		float[] img = new float[width * width];
+		double c = width / 2, r = 0.35 * width;
+		double rodX = c + 0.15 * width, rodY = c - 0.1 * width, rodR = 0.06 * width;
+		for (int y = 0; y < width; y++) {
+			for (int x = 0; x < width; x++) {
+				if ((x - rodX) * (x - rodX) + (y - rodY) * (y - rodY) < rodR * rodR) {
+					img[y * width + x] = ALUMINUM_TAG;
+				} else if ((x - c) * (x - c) + (y - c) * (y - c) < r * r) {
+					img[y * width + x] = WATER_TAG;
+				}
+			}
+		}
+		return img;
+	}
+}
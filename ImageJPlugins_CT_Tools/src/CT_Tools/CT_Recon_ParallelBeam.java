@@ -4,6 +4,7 @@ package CT_Tools;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.util.*;
 
 import ij.IJ;
@@ -14,9 +15,7 @@ import ij.ImageListener;
 
 import ij.gui.*;
 import ij.io.FileInfo;
-import ij.io.FileOpener;
 import ij.measure.Calibration;
-import ij.plugin.ImageCalculator;
 import ij.plugin.PlugIn;
 import ij.process.ImageProcessor;
 import ij.process.ImageStatistics;
@@ -38,8 +37,8 @@ public class CT_Recon_ParallelBeam implements ActionListener, DialogListener, Im
 	//fixRays and sumRule options are set to "None" because they don't work properly.
 	private class DialogSettings
 	{
-		String sumRuleChoice,extShapeChoice,extWidthChoice,cartFilterChoice,fixRingsChoice,fixRaysChoice,axisShiftChoice;
-		int sumRuleIndex,extShapeIndex,extWidthIndex,cartFilterIndex,fixRingsIndex,fixRaysIndex,axisShiftIndex;
+		String sumRuleChoice,extShapeChoice,extWidthChoice,cartFilterChoice,fixRingsChoice,fixRaysChoice,axisShiftChoice,reconstructorChoice;
+		int sumRuleIndex,extShapeIndex,extWidthIndex,cartFilterIndex,fixRingsIndex,fixRaysIndex,axisShiftIndex,reconstructorIndex;
 		double beamHardenWeight,cartCutoff,scaleFactor;
 		int rotationAxis;
 		boolean useScaleFactor;
@@ -125,6 +124,9 @@ public class CT_Recon_ParallelBeam implements ActionListener, DialogListener, Im
 	String specFileLocation,reconFileLocation,timeFileLocation;
 	String statusFileLocation,exeFileLocation;
 	
+	//The plugins subfolder holding the renamed .rcon stacks, see readRecon
+	static final String RECON_TEMP_DIR = "Recon_Temp";
+	
 	//The command issued to Base_Recon.exe.
 	//Since the filenames are reused probaply shoule be final String ...
 	String reconCommand;
@@ -137,7 +139,7 @@ public class CT_Recon_ParallelBeam implements ActionListener, DialogListener, Im
 	//Makes event handlers much easier to write
 	ButtonField reconStackBF,reconSliceBF,refreshBF;	
 	NumericField rotAxisNF,cartCutNF,scaleFactorNF;	
-	ChoiceField sinoCF,axisShiftCF, cartFilterCF,extWidthCF,extShapeCF, fixRingsCF,fixRaysCF,sumRuleCF;		
+	ChoiceField sinoCF,axisShiftCF, cartFilterCF,extWidthCF,extShapeCF, fixRingsCF,fixRaysCF,sumRuleCF,reconstructorCF;		
 	SliderField cartCutSF,beamHardenSF;
 	CheckboxField useScaleFactorCBF;
 	double scaleFactor = 6000;
@@ -148,7 +150,19 @@ public class CT_Recon_ParallelBeam implements ActionListener, DialogListener, Im
 	final Color myColor = new Color(240,230,190);//slightly darker than buff
 	final Color errColor = new Color(255,100,0);
 	final Color white = new Color(255,255,255);
-	private boolean littleEndian = false;
+	final ReconFileUtils rfu = new ReconFileUtils();
+	final DFIutils dfiu = new DFIutils();
+	final SinogramUtils su = new SinogramUtils();
+	
+	//The reconstructor choices, IN_PROCESS runs DFIutils in ImageJ, BASE_RECON calls Base_Recon.exe
+	static final int IN_PROCESS = 0, BASE_RECON = 1;
+	final String[] reconstructors = {"In-process DFI","Base_Recon.exe"};
+	//The Shift_Axis choices in pixels
+	final float[] axisShiftPixels = {-1/2f,-1/4f,-1/8f,-1/16f,-1/32f,0,1/32f,1/16f,1/8f,1/4f,1/2f};
+	//The Extension_Width choices as fractions of the sinogram width
+	final int[] extWidthDivisors = {0,2,4,8,16};
+	//The Fix_severe_rings thresholds, -1 Don't Fix, 0 1x3 median
+	final double[] fixRingsThresholds = {-1,0,2,4,6,8,10};
 
 	//*********************************************************************************************
 	
@@ -184,7 +198,8 @@ public class CT_Recon_ParallelBeam implements ActionListener, DialogListener, Im
 			imageImp=WindowManager.getImage(item);
 			double maxVal = imageImp.getStatistics().max;
 			//scaleFactor = scaleFactorNF.getNumber();
-			switch (imageImp.getBitDepth())
+			//The in-process reconstructor has no dynamic range limit
+			switch (ds.reconstructorIndex==BASE_RECON ? imageImp.getBitDepth() : 0)
 			{
 			case 32:
 				if( maxVal > 5.46)
@@ -207,6 +222,7 @@ public class CT_Recon_ParallelBeam implements ActionListener, DialogListener, Im
 			IJ.showStatus("Reconstructing");
 			ImagePlus sliceImp = imageImp.crop("whole-slice");
 			ImagePlus reconImp = reconstruct(sliceImp,ds);
+			if(reconImp==null) return;
 					
 			//if the image "TestImage.rcon" does not exist
 			//Copy Properties and Calibration and convert from 1/pixel to 1/cm
@@ -243,20 +259,6 @@ public class CT_Recon_ParallelBeam implements ActionListener, DialogListener, Im
 		
 	//*********************************************************************************************
 
-	private byte [] bytesForShorts(short [] value)  // J. Anderson 1999
-	{
-		byte Array [] = new byte [value.length *2];
-
-		for (int Index = 0; Index < value.length; Index++)
-		{
-			Array [(Index * 2) + 1] = (byte) ((value[Index] >> 8) & 0xff);
-			Array [Index * 2] = (byte) (value[Index] & 0xff);
-		}
-		return Array;
-	}
-	
-	//*********************************************************************************************
-
 	private boolean callBaseRecon() // adapted from J. Anderson 1999
 	{
 		boolean ok = true;
@@ -279,24 +281,6 @@ public class CT_Recon_ParallelBeam implements ActionListener, DialogListener, Im
 
 	//*********************************************************************************************
 
-	/**Creates a scaled 16-bit copy of a 32-bit image. Image properties are not copied.
-	 * @param destDir an existing directory to save the 16-bit copy
-	 * @param srcTitle the title of the source 32-bit image
-	 * @param destTitle the title of the destination 16-bit image
-	 * @return an ImagePlus reference to the copied image.
-	 */
-	private ImagePlus convertTo16bitTifFile(String destDir, ImagePlus sinoImp, String destTitle)
-	{		
-		ImagePlus copy16bitImp = IJ.createImage(destTitle, sinoImp.getWidth(), sinoImp.getHeight(), sinoImp.getNSlices(), 16);
-		IJ.run(copy16bitImp, "Set...", "value=6000 stack");
-		ImageCalculator.run(copy16bitImp, sinoImp, "Multiply stack");
-		copy16bitImp.setCalibration(sinoImp.getCalibration());
-		IJ.saveAs(copy16bitImp, "Tiff", destDir+destTitle);
-		return copy16bitImp;
-	}
-
-	//*********************************************************************************************
-
 	@SuppressWarnings("unused")
 	private void deleteTempFiles()
 	{
@@ -400,10 +384,21 @@ public class CT_Recon_ParallelBeam implements ActionListener, DialogListener, Im
 		
 		//Rescale from per pixel to per cm
 		ImageProcessor reconIp = reconImp.getProcessor();
-		for(int i=1;i<=reconImp.getNSlices();i++) 
+		ImageStack reconStk = reconImp.getStack();
+		if(reconStk instanceof ReconFileUtils.MappedVirtualStack)
+		{
+			//The slices are scaled as they are read from the file
+			((ReconFileUtils.MappedVirtualStack)reconStk).setScale(1/reconCal.pixelWidth);
+			reconImp.setStack(reconStk);
+			reconIp = reconImp.getProcessor();
+		}
+		else
 		{
-			reconImp.setSlice(i);
-			reconIp.multiply(1/reconCal.pixelWidth);
+			for(int i=1;i<=reconImp.getNSlices();i++) 
+			{
+				reconImp.setSlice(i);
+				reconIp.multiply(1/reconCal.pixelWidth);
+			}
 		}
 
         ImageStatistics stats = reconImp.getStatistics();
@@ -465,6 +460,8 @@ public class CT_Recon_ParallelBeam implements ActionListener, DialogListener, Im
 		ds.beamHardenWeight = Double.parseDouble(text);
 		ds.useScaleFactor = useScaleFactorCBF.getCheckBox().getState();
 		ds.scaleFactor = scaleFactorNF.getNumber();
+		ds.reconstructorChoice = reconstructorCF.getChoice().getSelectedItem();
+		ds.reconstructorIndex = reconstructorCF.getChoice().getSelectedIndex();
 
 		return ds;
 	}
@@ -484,6 +481,7 @@ public class CT_Recon_ParallelBeam implements ActionListener, DialogListener, Im
 		ds.extWidthChoice = gd.getNextChoice();
 		ds.extShapeChoice = gd.getNextChoice();
 		ds.fixRingsChoice =gd.getNextChoice();
+		ds.reconstructorChoice = gd.getNextChoice();
 		ds.fixRaysChoice = "Don't Fix";	
 		ds.sumRuleChoice = "None";
 		ds.cartCutoff = gd.getNextNumber();
@@ -499,6 +497,7 @@ public class CT_Recon_ParallelBeam implements ActionListener, DialogListener, Im
 		ds.extWidthIndex = gd.getNextChoiceIndex();
 		ds.extShapeIndex = gd.getNextChoiceIndex();
 		ds.fixRingsIndex = gd.getNextChoiceIndex();
+		ds.reconstructorIndex = gd.getNextChoiceIndex();
 		ds.fixRaysIndex = 0;
 		ds.sumRuleIndex = 0;
 
@@ -580,119 +579,68 @@ public class CT_Recon_ParallelBeam implements ActionListener, DialogListener, Im
 	
 	//*********************************************************************************************
 
-	private ImagePlus load(String directory, String name) 
+	/**Opens the Base_Recon.exe .rcon output.<br>
+	 * A stack is opened as a virtual stack from the file, moved to a temporary
+	 * Recon_*.rcon in the plugins/Recon_Temp folder so the next reconstruction
+	 * can write its own output. The file is deleted when ImageJ exits.
+	 * A single test slice is read into memory.
+	 * @param directory the folder holding the .rcon file
+	 * @param name the .rcon file name
+	 * @return the reconstruction titled name, null if it could not be read
+	 */
+	private ImagePlus readRecon(String directory, String name) 
 	{
-		ImagePlus imp;
-
-		FileInfo fi = new FileInfo(); 
-		try 
+		if ((name == null) || (name.equals(""))) return null;
+		
+		File tempDir = new File(directory, RECON_TEMP_DIR);
+		deleteStaleReconFiles(tempDir);
+		String reconPath = directory + name;
+		try
 		{
-			fi = readHeader( directory+name);
+			if(tempDir.isDirectory() || tempDir.mkdir())
+			{
+				File tempFile = File.createTempFile("Recon_", ".rcon", tempDir);
+				tempFile.delete();
+				if(new File(reconPath).renameTo(tempFile))
+				{
+					tempFile.deleteOnExit();
+					reconPath = tempFile.getPath();
+				}
+			}
 		}
 		catch (IOException e)
 		{
-			IJ.log("Recon Reader: Header: "+ e.getMessage());
-		}
-		fi.fileName = name;
-		fi.directory = directory;
-		fi.fileFormat = FileInfo.RAW;
-		FileOpener fo = new FileOpener(fi);  
-		imp = fo.openImage();
-		return imp; 
-	}
-	
-	//*********************************************************************************************
-
-	private float readFloat(DataInputStream input) throws IOException 
-	{
-		if (!littleEndian) return input.readFloat();  
-		int orig = readInt(input);
-		return (Float.intBitsToFloat(orig));
-	}
-
-	//*********************************************************************************************
-	
-	private FileInfo readHeader( String hdrfile ) throws IOException 
-	{
-		FileInputStream filein = new FileInputStream (hdrfile);
-		DataInputStream input = new DataInputStream (filein);
-		FileInfo fi = new FileInfo();
-
-		this.littleEndian = true;     
-		
-		int	key = readInt (input);				// key: 'RECO'
-		if (key != 1380270927)
-		{
-			this.littleEndian = false;
+			IJ.log("Recon Reader: "+ e.getMessage());
 		}
-		float	pixSize = readFloat(input);			// Size of pixels in microns 
-		int		nviews = readInt (input);			// Number of Slices
-		char 	dataFormat = (char) input.readByte();			// data format, Byte, Short, Float
-		@SuppressWarnings("unused")
-		char	pad1 = (char) input.readByte();			// reserved alignment bytes
-		@SuppressWarnings("unused")
-		char	pad2 = (char) input.readByte();			// reserved alignment bytes
-		@SuppressWarnings("unused")
-		char	pad3 = (char) input.readByte();			// reserved alignment bytes
-		int		xsize = readInt (input);
-		int		ysize = readInt (input);		// Dimensions of image 
-		
-		fi.intelByteOrder = this.littleEndian;   
-		fi.width = ysize;
-		fi.height = xsize;
-		fi.nImages = nviews;
-
-		fi.unit = new String ("cm"); 
-		fi.pixelWidth = (double) pixSize;
-		fi.pixelHeight = (double) pixSize;
-		fi.pixelDepth = (double) pixSize;
-		fi.offset = 184;
-
-		input.close();
-		filein.close();
-    
-		if (dataFormat == 'B')
-			fi.fileType = FileInfo.GRAY8; 			// DT_UNSIGNED_CHAR 
-		if (dataFormat == 'F')
-			fi.fileType = FileInfo.GRAY32_FLOAT; 		// DT_FLOAT 
-		
-		return (fi);
-	}
-
-	//*********************************************************************************************
-
-	private int readInt(DataInputStream input) throws IOException 
-	{
-		if (!littleEndian) return input.readInt(); 
-		byte b1 = input.readByte();
-		byte b2 = input.readByte();
-		byte b3 = input.readByte();
-		byte b4 = input.readByte();
-		return ( (((b4 & 0xff) << 24) | ((b3 & 0xff) << 16) | ((b2 & 0xff) << 8) | (b1 & 0xff)) );
-	}
 
-	//*********************************************************************************************
-	//readRecon Adapted from a Plugin by Guy Williams, gbw1000@wbic.cam.ac.uk 23/9/99**************
-	//*********************************************************************************************
-	private ImagePlus readRecon(String directory, String name) 
-	{
-		if ((name == null) || (name == "")) return null;
-		else
+		ImagePlus imp = rfu.openRecon(reconPath);
+		if(imp == null) return null;
+		if(imp.getStackSize()==1)
 		{
-			ImagePlus imp = load(directory, name);
-			return imp;
+			ImagePlus sliceImp = new ImagePlus(name, imp.getProcessor());
+			sliceImp.setCalibration(imp.getCalibration());
+			imp = sliceImp;
 		}
+		imp.setTitle(name);
+		return imp;
 	} 
  
 	//*********************************************************************************************
 
-	@SuppressWarnings("unused")
-private short readShort(DataInputStream input) throws IOException
+	//Deletes the reconstruction files left in the temp folder by earlier ImageJ
+	//sessions, the files of this session may still be open as virtual stacks
+	private void deleteStaleReconFiles(File tempDir)
 	{
-		if (!littleEndian) return input.readShort(); 
-		byte b1 = input.readByte();
-		byte b2 = input.readByte();
-		return ( (short) (((b2 & 0xff) << 8) | (b1 & 0xff)) );
+		long sessionStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+		File[] files = tempDir.listFiles();
+		if(files == null) return;
+		for(File file : files)
+		{
+			if(file.getName().endsWith(".rcon") && file.lastModified() < sessionStart)
+			{
+				file.delete();
+			}
+		}
 	}
 
 	//*********************************************************************************************
@@ -704,9 +652,20 @@ private short readShort(DataInputStream input) throws IOException
 	 */
 	private ImagePlus reconstruct(ImagePlus sinoImp, DialogSettings ds)
 	{
+		imageImp = WindowManager.getImage(sinoCF.getChoice().getSelectedItem());
+		if(ds.reconstructorIndex==IN_PROCESS)
+		{
+			return reconstructInProcess(sinoImp,ds);
+		}
+
 		//Base_Recon.exe is a version of the BNL NSLS X2B reconstruction kit.
 		//designed for batch reconstruction using file driven IO.
-		imageImp = WindowManager.getImage(sinoCF.getChoice().getSelectedItem());
+		if(!new File(IJ.getDirectory("plugins") + "Base_Recon.exe").exists())
+		{
+			IJ.showMessage("Reconstruction executable \"Base_Recon.exe\" not found\n"
+					+ "in the ImageJ plugins folder");
+			return null;
+		}
 
 		String imgTitle = imageImp.getTitle();
 
@@ -722,29 +681,8 @@ private short readShort(DataInputStream input) throws IOException
 
 		reconCommand = "\"" + exeFileLocation+"\" " + "\"" + specFileLocation + "\" \"" + timeFileLocation + "\"";
 
-		//Convert the 32bit sinogram to 16bit unsigned
-		//We used 16-bit unsigned at X2B to save disk space.
-		//The detectors never had more than 16-bit output.
-		ImagePlus copyImp;
-		if(sinoImp.getBitDepth()==32)
-		{
-			IJ.showStatus("Converting "+imgTitle+" to 16-bit");
-			copyImp = convertTo16bitTifFile(pluginDir, sinoImp, "copySino.tif");
-			if(copyImp == null)
-			{
-				IJ.showMessage("Copying to 16-bits");
-				//deleteTempFiles();
-				return null;
-			}
-		}
-		else
-		{
-			copyImp=sinoImp.duplicate();
-			IJ.saveAs(copyImp, "Tiff", pluginDir + "copySino.tif");
-		}
-
 		//IJ.showStatus("Writing Spec File");
-		boolean ok = writeSpecFile(copyImp,ds);
+		boolean ok = writeSpecFile(sinoImp,ds);
 		if(!ok)
 		{
 			IJ.showMessage("Error Writing Spec File");
@@ -752,8 +690,11 @@ private short readShort(DataInputStream input) throws IOException
 			return null;
 		}
 
-		IJ.showStatus("Writing Sinogram File");
-		if(!writeSinoFile(copyImp))
+		//The 32bit sinogram is converted to 16bit unsigned as it is written.
+		//We used 16-bit unsigned at X2B to save disk space.
+		//The detectors never had more than 16-bit output.
+		IJ.showStatus("Writing "+imgTitle+" to Sinogram File");
+		if(!writeSinoFile(sinoImp,ds))
 		{
 			IJ.showMessage("Error Writing Sinogram File");
 			//deleteTempFiles();
@@ -774,6 +715,127 @@ private short readShort(DataInputStream input) throws IOException
 		//deleteTempFiles();
 	}
 
+	//*********************************************************************************************
+
+	/**Reconstructs an ImagePlus sinogram or sinogram stack in ImageJ using DFIutils.<br>
+	 * The dialog settings are approximated in-process, without temporary files. The extension,
+	 * ring fix and Cartesian filter formulas are independent implementations of the dialog's options
+	 * and have not been validated against Base_Recon.exe output.
+	 * The sum rule and ray fixes are not offered by the dialog and are ignored.
+	 * @param sinoImp the imagePlus sinogram or sinogram stack
+	 * @param ds the dialog settings
+	 * @return the reconstructed slice(s) in 1/pixel titled "TestImage.rcon"
+	 */
+	private ImagePlus reconstructInProcess(ImagePlus sinoImp, DialogSettings ds)
+	{
+		int sinoWidth = sinoImp.getWidth();
+		int sinoHeight = sinoImp.getHeight();
+		int sinoSliceCnt = sinoImp.getStackSize();
+		int padFactor = 4; //Pad Factor 4 and SemiBiCubic interpolation for optimal results
+		int extWidth = extWidthDivisors[ds.extWidthIndex]==0 ? 0 : sinoWidth/extWidthDivisors[ds.extWidthIndex];
+		float axisShift = sinoWidth/2 - ds.rotationAxis + axisShiftPixels[ds.axisShiftIndex];
+		double fixRingsThreshold = fixRingsThresholds[ds.fixRingsIndex];
+		//16-bit sinograms are divided by the scale factor
+		double divisor = ds.useScaleFactor ? ds.scaleFactor : 6000;
+		//DFI needs an even width, odd sinograms get a copy of the first column on the left
+		//so the rotation axis stays at the center, the extra row and column are cropped
+		int lead = (sinoWidth + 2*extWidth)%2;
+		int dfiSinoWidth = sinoWidth + lead;
+
+		SinogramUtils.SinoPreconditioner sinoPreconditioner = su.new SinoPreconditioner(dfiSinoWidth,
+				su.getExtension(extWidth, ds.extShapeChoice), axisShift, (float)ds.beamHardenWeight, padFactor);
+		DFIutils.DFIparams dfiParams = dfiu.new DFIparams();
+		dfiParams.paddedSinoWidth = sinoPreconditioner.getPaddedWidth();
+		dfiParams.padFactor = padFactor;
+		dfiParams.sinoPreconditioner = sinoPreconditioner;
+		dfiParams.semiBicubicLUT = DFIlutCache.getSemiBicubicLUT(dfiParams.paddedSinoWidth, sinoHeight, padFactor);
+		int extendedWidth = dfiSinoWidth + 2*extWidth;
+		dfiParams.cartFilter = dfiu.makeCartesianFilter(extendedWidth, ds.cartFilterChoice, ds.cartCutoff);
+
+		//The reconstruction is cropped to the sinogram width, the size of the Base_Recon.exe output
+		ImageStack sinoStk = sinoImp.getStack();
+		ImageStack reconStk = new ImageStack(sinoWidth, sinoWidth);
+		for (int slice = 1; slice <= sinoSliceCnt; slice += 2)
+		{
+			IJ.showStatus("Reconstructing " + slice + " of " + sinoSliceCnt);
+			IJ.showProgress(slice, sinoSliceCnt);
+			boolean single = slice == sinoSliceCnt;
+			dfiParams.paddedSino1 = getSinoSlice(sinoStk, slice, divisor, fixRingsThreshold, lead);
+			float[] dfiData;
+			if(single)
+			{
+				dfiData = dfiu.dfiReconSingle(dfiParams);
+			}
+			else
+			{
+				dfiParams.paddedSino2 = getSinoSlice(sinoStk, slice+1, divisor, fixRingsThreshold, lead);
+				dfiData = dfiu.dfiRecon(dfiParams);
+			}
+			float[] recon1 = new float[sinoWidth*sinoWidth];
+			float[] recon2 = new float[sinoWidth*sinoWidth];
+			for(int row = 0; row < sinoWidth; row++)
+			{
+				int src = 2*((row + extWidth + lead)*extendedWidth + extWidth + lead);
+				int dest = row*sinoWidth;
+				for(int col = 0; col < sinoWidth; col++, src += 2, dest++)
+				{
+					recon1[dest] = dfiData[src];
+					recon2[dest] = dfiData[src + 1];
+				}
+			}
+			reconStk.addSlice(null, recon1);
+			if(!single) reconStk.addSlice(null, recon2);
+		}
+		IJ.showProgress(1.0);
+		IJ.showStatus("Done");
+
+		ImagePlus reconImp = new ImagePlus("TestImage.rcon", reconStk);
+		reconImp.getCalibration().setUnit("cm");
+		reconImp.getCalibration().pixelWidth = sinoImp.getCalibration().pixelWidth;
+		reconImp.getCalibration().pixelHeight = sinoImp.getCalibration().pixelWidth;
+		return reconImp;
+	}
+
+	//*********************************************************************************************
+
+	//Returns the 32-bit pixels of a sinogram slice, 16-bit data is divided by the scale factor
+	//lead=1 adds a copy of the first column on the left
+	private float[] getSinoSlice(ImageStack sinoStk, int slice, double divisor, double fixRingsThreshold, int lead)
+	{
+		ImageProcessor ip = sinoStk.getProcessor(slice);
+		float[] sino;
+		if(ip.getBitDepth()==32)
+		{
+			//only copied if the rings are fixed, the sinogram itself is never changed
+			sino = (float[])ip.getPixels();
+			if(fixRingsThreshold >= 0) sino = sino.clone();
+		}
+		else
+		{
+			sino = new float[ip.getPixelCount()];
+			for(int i = 0; i < sino.length; i++)
+			{
+				sino[i] = (float)(ip.get(i)/divisor);
+			}
+		}
+		if(fixRingsThreshold >= 0)
+		{
+			su.fixRings(sino, ip.getWidth(), ip.getHeight(), fixRingsThreshold);
+		}
+		if(lead > 0)
+		{
+			int width = ip.getWidth();
+			float[] leadSino = new float[(width + lead)*ip.getHeight()];
+			for(int row = 0; row < ip.getHeight(); row++)
+			{
+				leadSino[row*(width + lead)] = sino[row*width];
+				System.arraycopy(sino, row*width, leadSino, row*(width + lead) + lead, width);
+			}
+			sino = leadSino;
+		}
+		return sino;
+	}
+
 	//*********************************************************************************************
 	@Override
 	public void run(String arg)
@@ -783,15 +845,9 @@ private short readShort(DataInputStream input) throws IOException
 			IJ.showMessage("ImageJ version 1.53u or better required.");
 			return;
 		}
-		//Check that Base_Recon.exe is in the plugins directory
+		//Use Base_Recon.exe by default where it is installed
 		String exeFilePath = IJ.getDirectory("plugins") + "Base_Recon.exe";
-		File exeFile = new File(exeFilePath);
-		if(!exeFile.exists())
-		{
-			IJ.showMessage("Reconstruction executable \"Base_Recon.exe\" not found\n"
-					+ "in the ImageJ plugins folder");
-			return;
-		}
+		boolean haveBaseRecon = IJ.isWindows() && new File(exeFilePath).exists();
 
 		//get a lit of open 32bit or 16bit images
 		winTitles =getImages();
@@ -870,6 +926,9 @@ private short readShort(DataInputStream input) throws IOException
 		gd.addNumericField("Scale_factor", scaleFactor);
 		scaleFactorNF = gda.getNumericField (gd, null, "scaleFactor");
 		
+		gd.addChoice("Reconstructor:", reconstructors, reconstructors[haveBaseRecon ? BASE_RECON : IN_PROCESS]);
+		reconstructorCF = gda.getChoiceField(gd, null, "reconstructor");
+		
 
 		gd.setInsets(5, 187, 0);
 		gd.addButton("Reconstruct Test Slice", this);
@@ -901,7 +960,8 @@ private short readShort(DataInputStream input) throws IOException
 				imageImp=WindowManager.getImage(item);								
 				double maxVal = imageImp.getStatistics().max;
 				DialogSettings ds = getDialogSettings();
-				switch (imageImp.getBitDepth())
+				//The in-process reconstructor has no dynamic range limit
+				switch (ds.reconstructorIndex==BASE_RECON ? imageImp.getBitDepth() : 0)
 				{
 				case 32:
 					if( maxVal > 5.46)
@@ -920,8 +980,9 @@ private short readShort(DataInputStream input) throws IOException
 				}
 				
 				ImagePlus reconImp = reconstruct(imageImp,ds);				
-				displayReconImage(reconImp);
 				ImagePlus.removeImageListener(this);
+				if(reconImp==null) return;
+				displayReconImage(reconImp);
 			}
 		}
 		return;
@@ -946,6 +1007,8 @@ private short readShort(DataInputStream input) throws IOException
 		}
 		//Add the Reconstruction Properties
 		DialogSettings ds = getDialogSettings();
+		destProps.add("Reconstructor");
+		destProps.add(ds.reconstructorChoice);
 		destProps.add("Rotation Axis");
 		destProps.add(String.valueOf(ds.rotationAxis));   
 		destProps.add("Axis Shift");
@@ -974,56 +1037,27 @@ private short readShort(DataInputStream input) throws IOException
   
 	//*********************************************************************************************
 	//Write temporary sinogram file in CT_Recon .sino format, J. Anderson 1999
-	private boolean writeSinoFile(ImagePlus copyImp)	
+	//32bit sinograms are multiplied by 6000 and rounded to 16bit unsigned in a single pass,
+	//no 16bit copy is made.
+	private boolean writeSinoFile(ImagePlus sinoImp, DialogSettings ds)	
 	{
-		boolean ok = true;
-		try
-		{
-			FileOutputStream sinoFileStream = new FileOutputStream(sinoFileLocation);
-			
-			int sinoWidth = copyImp.getWidth();
-			int sinoHeight = copyImp.getHeight();
-			ImageStack sinoStack = copyImp.getStack();
-			int sinoSliceCnt = sinoStack.getSize();
-
-			int headerOffset = 100;
-			byte sinoHdrArray [] = new byte [headerOffset];
-			intToArray(sinoHdrArray, 0, sinoSliceCnt);									// overwrite as needed
-			intToArray(sinoHdrArray, 4, sinoWidth);										// overwrite as needed
-			intToArray(sinoHdrArray, 8, 1);												// overwrite as needed
-			intToArray(sinoHdrArray, 12, sinoHeight);									// overwrite as needed
-			floatToArray(sinoHdrArray, 20, (float)copyImp.getCalibration().pixelWidth);	// overwrite as needed
-			sinoFileStream.write(sinoHdrArray, 0,  sinoHdrArray.length);
-			for (int slice = 1; slice <= sinoSliceCnt; slice++)
-			{
-				sinoFileStream.write(bytesForShorts((short [])sinoStack.getProcessor(slice).getPixels()), 0,sinoWidth * sinoHeight * 2);
-				IJ.showProgress((double)slice/(double)sinoSliceCnt);
-			}
-			sinoFileStream.close();
-
-		}
-		catch (IOException e) 
-		{
-			IJ.error("An error occured while writing the file. " + sinoFileLocation);
-			return false;
-		}
-		return ok;
+		double scale = sinoImp.getBitDepth()==32 ? 6000 : (ds.useScaleFactor ? ds.scaleFactor : 6000);
+		return rfu.writeSino(sinoImp.getStack(), scale, sinoImp.getCalibration().pixelWidth, sinoFileLocation);
 	}
   
 	//*********************************************************************************************
 
-	private boolean writeSpecFile(ImagePlus copyImp, DialogSettings ds)
+	private boolean writeSpecFile(ImagePlus sinoImp, DialogSettings ds)
 	{
 		boolean ok = true;
 		
 		//Setup some values
 		boolean sinoByteOrder = true;
-		int sinoHeight = copyImp.getHeight();
-		int sinoWidth = copyImp.getWidth();
-		int sinoCount = copyImp.getStack().getSize();
+		int sinoHeight = sinoImp.getHeight();
+		int sinoWidth = sinoImp.getWidth();
+		int sinoCount = sinoImp.getStack().getSize();
 		
-		Calibration sinoCal = copyImp.getCalibration();
-		FileInfo sinoInfo = copyImp.getOriginalFileInfo();
+		Calibration sinoCal = sinoImp.getCalibration();
 		try
 		{
 			FileWriter specWriter = new FileWriter(specFileLocation);
@@ -1042,8 +1076,9 @@ private short readShort(DataInputStream input) throws IOException
 			specWriter.write("pixelWidth: " + sinoCal.pixelWidth + "\n");
 			specWriter.write("pixelHeight: " + sinoCal.pixelHeight + "\n");
 			specWriter.write("pixelDepth: " + sinoCal.pixelDepth + "\n");
-			specWriter.write("offset: " + sinoInfo.offset + "\n");
-			specWriter.write("fileType: " + sinoInfo.fileType + "\n");
+			//The offset and type of the unsigned 16-bit copy the spec has always described
+			specWriter.write("offset: " + 0 + "\n");
+			specWriter.write("fileType: " + FileInfo.GRAY16_UNSIGNED + "\n");
 
 			//The user's reconstruction selections
 			specWriter.write("Recon Method: 0'Direct Fourier\n");
@@ -1068,7 +1103,7 @@ private short readShort(DataInputStream input) throws IOException
 			specWriter.write("Threshold Sino:" + " 0'false\n");			
 			specWriter.write("Cartesian Cutoff:" + " " + ds.cartCutoff+ "\n");
 			specWriter.write("Extension Width:" + " " + ds.extWidthIndex  + "'" + ds.extWidthChoice + "\n");
-			if(ds.useScaleFactor) specWriter.write("Divide Sino by:" + scaleFactorNF.getNumber() + "\n");
+			if(ds.useScaleFactor) specWriter.write("Divide Sino by:" + ds.scaleFactor + "\n");
 			else specWriter.write("Divide Sino by: 6000" + "\n");
 			specWriter.write("Shift Axis:" + " " + ds.axisShiftIndex + "'" + ds.axisShiftChoice + "\n");
 			
@@ -5,6 +5,11 @@ import java.awt.event.*;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ij.IJ;
 import ij.ImagePlus;
@@ -14,6 +19,8 @@ import ij.gui.GUI;
 import ij.gui.GenericDialog;
 import ij.gui.NewImage;
 import ij.gui.OvalRoi;
+import ij.io.FileSaver;
+import ij.io.SaveDialog;
 import ij.plugin.ContrastEnhancer;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.ImageProcessor;
@@ -42,12 +49,12 @@ public class DFI_JTransforms implements ActionListener, PlugInFilter {
 	SinogramUtils su = new SinogramUtils();// Uses ImageJ methods to prepare the sinograms for reconstruction.
 	
 	class DialogParams {
-		int padFactor, interpMethod, extensionWidth;
+		int padFactor, interpMethod, extensionWidth, threadCount;
 		String interpChoice, padChoice;
 		float beamHardening;
 		float axisShift;
 		ImagePlus sinoImp;
-		boolean showTime, showLUT, showPolarFT, showCartFT, showReconROI;
+		boolean showTime, showLUT, showPolarFT, showCartFT, showReconROI, streamToDisk;
 	}
 
 	ButtonField reconSliceBF;
@@ -80,7 +87,18 @@ public class DFI_JTransforms implements ActionListener, PlugInFilter {
 				testImp.close();
 			}
 
-			ImagePlus reconImp = DoDFIrecon(dlp);
+			ImagePlus reconImp;
+			if (dlp.streamToDisk) {
+				reconImp = DoDFIstream(dlp);
+				if (reconImp == null) {
+					return;
+				}
+			} else {
+				reconImp = DoDFIrecon(dlp);
+				if (reconImp == null) {
+					return;
+				}
+			}
 			reconImp.show();
 			if (dlp.showReconROI == true) {
 				int sinoW = dlp.sinoImp.getWidth();
@@ -106,8 +124,10 @@ public class DFI_JTransforms implements ActionListener, PlugInFilter {
 		gd.addSlider("Beam_Hardening:", 0, 1, 0, .01);
 		gd.addSlider("Extension Width:", 0, 100, 0, 0);
 		gd.addSlider("Axis Shift:", -5, 5, 0, .1);
+		gd.addNumericField("Threads:", Runtime.getRuntime().availableProcessors(), 0);
 		gd.addCheckbox("Show_run_time", false);
 		gd.addCheckbox("Show_ROI", false);
+		gd.addCheckbox("Stream_to_disk", false);
 		gd.addButton("Reconstruct Test Slice", this);
 		reconSliceBF = gda.getButtonField(gd, "reconSliceBtn");
 		gd.setBackground(myColor);
@@ -134,11 +154,13 @@ public class DFI_JTransforms implements ActionListener, PlugInFilter {
 			dlp.beamHardening = (float) gd.getNextNumber();
 			dlp.extensionWidth = (int) gd.getNextNumber();
 			dlp.axisShift = (float) gd.getNextNumber();
+			dlp.threadCount = Math.max(1, (int) gd.getNextNumber());
 			dlp.showTime = gd.getNextBoolean();
 			dlp.showLUT = false;
 			dlp.showPolarFT = false;
 			dlp.showCartFT = false;
 			dlp.showReconROI = gd.getNextBoolean();
+			dlp.streamToDisk = gd.getNextBoolean();
 			dlp.sinoImp = sinoImp;
 			dlp.padFactor = 4;
 		} catch (Exception e) {
@@ -151,6 +173,8 @@ public class DFI_JTransforms implements ActionListener, PlugInFilter {
 
 	private ImagePlus DoDFIrecon(DialogParams dlp) {
 
+		long totStart = System.nanoTime();
+
 		// Prepare a copy of the sinogram Image(Stack)
 		int sinoSliceCnt = dlp.sinoImp.getNSlices();
 		// if extensionWidth = 0 then the sinoCols is unchanged
@@ -158,43 +182,24 @@ public class DFI_JTransforms implements ActionListener, PlugInFilter {
 		double pixelWidth = dlp.sinoImp.getCalibration().pixelWidth;
 		String unit = dlp.sinoImp.getCalibration().getUnit();
 
-		// Avoid the ImageJ built-in duplicate methods posting to the Macro Recorder
-		ImagePlus paddedImp = su.duplicate(dlp.sinoImp);
+		// The profile extension, axis shift, beam hardening correction and padding
+		// are applied to each row as it is loaded into the FFT buffer
+		CT_Tools.SinogramUtils.SinoPreconditioner sinoPreconditioner = su.new SinoPreconditioner(
+				dlp.sinoImp.getWidth(), dlp.extensionWidth, dlp.axisShift, dlp.beamHardening, dlp.padFactor);
+		ImageStack sinoStk = dlp.sinoImp.getStack();
 
-		// Apply the sinogram adjustments in this order
-		double extTime = 0;
-		if (dlp.extensionWidth > 0) {
-			extTime = su.profileExtend(paddedImp, dlp.extensionWidth);
-		}
-		// paddedImp.updateAndDraw();
-		double axisTime = 0;
-		if (dlp.axisShift != 0) {
-			axisTime = su.axisShift(paddedImp, dlp.axisShift);
-		}
-		// paddedImp.updateAndDraw();
-		double bhTime = 0;
-		if (dlp.beamHardening > 0) {
-			bhTime = su.applyBeamHardeningCorrection(paddedImp, dlp.beamHardening);
-		}
-		// paddedImp.updateAndDraw();
-		double padTime = su.padSinogram(paddedImp, dlp.padFactor);
-
-		// if the number of slices is odd then add another zero slice to the bottom of
-		// the stack
-		boolean sliceAdded = false;
-		if (Math.floorMod(sinoSliceCnt, 2) > 0) {
-			paddedImp.getStack().addSlice("TempSlice", paddedImp.getProcessor(), sinoSliceCnt);
-			sinoSliceCnt++;
-			sliceAdded = true;
-		}
-		int sinoPairs = sinoSliceCnt / 2;
+		// if the number of slices is odd the last slice is reconstructed by itself
+		int sinoPairs = (sinoSliceCnt + 1) / 2;
 
-		// Create the polar To Cartesian Lookup table
+		// Fetch the polar To Cartesian Lookup table, DFIlutCache only builds it
+		// the first time a geometry is used
 		// If dfp.semiBicubicLUT = null, DFIrecon will build the LUT each time it is
 		// called
 		CT_Tools.DFIutils.DFIparams dfiParams = dfiu.new DFIparams();
-		dfiParams.paddedSinoWidth = paddedImp.getWidth();
-		dfiParams.semiBicubicLUT = dfiu.makeSemiBicubicLUT(dfiParams.paddedSinoWidth, paddedImp.getHeight(), dlp.padFactor);
+		dfiParams.paddedSinoWidth = sinoPreconditioner.getPaddedWidth();
+		dfiParams.padFactor = dlp.padFactor;
+		dfiParams.sinoPreconditioner = sinoPreconditioner;
+		dfiParams.semiBicubicLUT = DFIlutCache.getSemiBicubicLUT(dfiParams.paddedSinoWidth, sinoStk.getHeight(), dlp.padFactor);
 
 		// Pass the debug options
 		dfiParams.showLUT = dlp.showLUT;
@@ -207,38 +212,21 @@ public class DFI_JTransforms implements ActionListener, PlugInFilter {
 
 		long start = System.nanoTime();
 		// reconstruct the sinogram stack two slices at a time
-		float[] dfiData;
-		for (int slice = 1; slice <= sinoPairs * 2; slice += 2) {
-			IJ.showProgress(slice, sinoPairs);
-
-			// Fetch pairs of sinograms from the padded image
-			paddedImp.setSlice(slice);
-			dfiParams.paddedSino1 = (float[]) paddedImp.getProcessor().getPixels();
-			paddedImp.setSlice(slice + 1);
-			dfiParams.paddedSino2 = (float[]) paddedImp.getProcessor().getPixels();
-			dfiParams.padFactor = dlp.padFactor;
-
-			// dfiRecon returns both slices in JTransforms sequence format
-			// because it can't return two separate arrays
-			dfiData = dfiu.dfiRecon(dfiParams);
-
-			// Convert 1/pixel to 1/cm
-			for (int i = 0; i < dfiData.length; i++) {
-				dfiData[i] /= pixelWidth;
+		double[] pairTime;
+		int threadCount = Math.min(dlp.threadCount, sinoPairs);
+		if (threadCount > 1) {
+			pairTime = reconPairsParallel(sinoStk, reconStk, dfiParams, pixelWidth, threadCount);
+			if (pairTime == null) {
+				return null;
+			}
+		} else {
+			pairTime = new double[sinoPairs];
+			for (int slice = 1; slice <= sinoSliceCnt; slice += 2) {
+				IJ.showProgress(slice, sinoSliceCnt);
+				pairTime[slice / 2] = reconSlicePair(sinoStk, reconStk, slice, dfiParams, pixelWidth);
 			}
-
-			// put the separated images into the reconstructed image stack slices
-			reconStk.setPixels(jtu.getJTransformsReal(dfiData), slice);
-			reconStk.setPixels(jtu.getJTransformsImaginary(dfiData), slice + 1);
-		}
-
-		if (sliceAdded == true) {
-			// deleteLastSlice fails when there are 2 slices in the stack
-			reconStk.deleteLastSlice();
-			// Below is the workaround for a bug in deleteLastSlice which should do what it
-			// says without further intervention
-			reconImp.setStack(reconImp.getStack());
 		}
+		IJ.showProgress(1.0);
 
 		long end = System.nanoTime();
 		double reconTime = (end - start) / 1e9;
@@ -246,38 +234,219 @@ public class DFI_JTransforms implements ActionListener, PlugInFilter {
 		reconImp.getCalibration().pixelWidth = pixelWidth;
 		reconImp.getCalibration().pixelHeight = pixelWidth;
 		reconImp.getCalibration().setUnit(unit);
-		String title = dlp.sinoImp.getTitle();
-		if (title.endsWith(".tif")) {
-			title = title.replace(".tif", "_Recon.tif");
-		}
-		else {
-			title = title + "_Recon";
-		}
-		reconImp.setTitle(title);
+		reconImp.setTitle(getReconTitle(dlp.sinoImp.getTitle()));
 
 		if (dlp.showTime) {
 			IJ.log("Sinogram width =" + dlp.sinoImp.getWidth());
 			IJ.log("Sinogram height =" + dlp.sinoImp.getHeight());
 			IJ.log("Sinogram padding =" + dlp.padFactor);
-			IJ.log("Beam Hardening =" + bhTime + "Sec");
-			IJ.log("Profile Extension =" + extTime + "Sec");
-			IJ.log("AxisShift =" + axisTime + "Sec");
-			IJ.log("Padding =" + padTime + "Sec");
 			IJ.log("Reconstruction =" + reconTime + "Sec");
 			IJ.log("Reconstruction =" + reconTime / dlp.sinoImp.getNSlices() + "Sec/Slice");
+			IJ.log("Reconstruction threads =" + threadCount);
+			for (int pair = 0; pair < pairTime.length; pair++) {
+				if (2 * pair + 2 <= sinoSliceCnt) {
+					IJ.log("Slices " + (2 * pair + 1) + "," + (2 * pair + 2) + " =" + pairTime[pair] / 2 + "Sec/Slice");
+				} else {
+					IJ.log("Slice " + (2 * pair + 1) + " =" + pairTime[pair] + "Sec/Slice");
+				}
+			}
 
-			double totTime = bhTime + padTime + reconTime + extTime + axisTime;
+			// The preconditioning is done as the rows are loaded, the total also
+			// includes the LUT setup
+			double totTime = (end - totStart) / 1e9;
 			IJ.log("Total Time =" + totTime + "Sec");
 			IJ.log("Total Time =" + totTime / dlp.sinoImp.getNSlices() + "Sec/Slice");
 		}
 		if (reconImp != null) {
 			setImageProperties(dlp.sinoImp, reconImp, dlp);
 		}
-		paddedImp.close();
-		System.gc();
 		return reconImp;
 	}
 
+	/**
+	 * Reconstructs the sinogram stack two slices at a time and writes each slice
+	 * to a TIFF file as soon as it is reconstructed. Only a few slices are held in
+	 * memory so stacks larger than the heap can be reconstructed. The sinogram
+	 * stack may be a virtual stack.
+	 * 
+	 * @param dlp The dialog parameters
+	 * @return The saved reconstruction opened as a virtual stack, null if the save
+	 *         was canceled or failed
+	 */
+	private ImagePlus DoDFIstream(DialogParams dlp) {
+		String title = getReconTitle(dlp.sinoImp.getTitle());
+		SaveDialog sd = new SaveDialog("Save Reconstruction", title, ".tif");
+		if (sd.getFileName() == null) {
+			return null;
+		}
+		String path = sd.getDirectory() + sd.getFileName();
+
+		double pixelWidth = dlp.sinoImp.getCalibration().pixelWidth;
+		String unit = dlp.sinoImp.getCalibration().getUnit();
+
+		long start = System.nanoTime();
+		DFIreconVirtualStack reconStk = new DFIreconVirtualStack(dlp.sinoImp.getStack(), dlp.extensionWidth,
+				dlp.axisShift, dlp.beamHardening, dlp.padFactor, pixelWidth, dlp.threadCount);
+		ImagePlus streamImp = new ImagePlus(title, reconStk);
+		streamImp.getCalibration().pixelWidth = pixelWidth;
+		streamImp.getCalibration().pixelHeight = pixelWidth;
+		streamImp.getCalibration().setUnit(unit);
+		setImageProperties(dlp.sinoImp, streamImp, dlp);
+
+		boolean saved;
+		try {
+			saved = new FileSaver(streamImp).saveAsTiffStack(path);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			IJ.error("DFI Recon", "The reconstruction failed:\n" + e.getMessage());
+			return null;
+		} finally {
+			reconStk.shutdown();
+		}
+		long end = System.nanoTime();
+		if (!saved) {
+			return null;
+		}
+
+		if (dlp.showTime) {
+			double totTime = (end - start) / 1e9;
+			IJ.log("Sinogram width =" + dlp.sinoImp.getWidth());
+			IJ.log("Sinogram height =" + dlp.sinoImp.getHeight());
+			IJ.log("Sinogram padding =" + dlp.padFactor);
+			IJ.log("Streamed to " + path);
+			IJ.log("Reconstruction =" + reconStk.getReconTime() + "Sec, summed over threads");
+			IJ.log("Reconstruction threads =" + dlp.threadCount);
+			IJ.log("Total Time =" + totTime + "Sec");
+			IJ.log("Total Time =" + totTime / dlp.sinoImp.getNSlices() + "Sec/Slice");
+		}
+		return IJ.openVirtual(path);
+	}
+
+	private String getReconTitle(String sinoTitle) {
+		String title = sinoTitle;
+		if (title.endsWith(".tif")) {
+			title = title.replace(".tif", "_Recon.tif");
+		}
+		else {
+			title = title + "_Recon";
+		}
+		return title;
+	}
+
+	/**
+	 * Reconstructs one pair of sinograms and puts the two results into the
+	 * reconstructed image stack. If slice is the last slice of a stack with an odd
+	 * number of slices it is reconstructed by itself.
+	 * 
+	 * @param sinoStk   The unmodified sinogram stack, dfiParams.sinoPreconditioner
+	 *                  prepares the rows
+	 * @param reconStk  The stack to receive the reconstructed slices
+	 * @param slice     The first slice of the pair, the second is slice+1
+	 * @param dfiParams The DFI parameters holding the SemiBicubicLUT and the
+	 *                  DFIcontext, not shared between threads
+	 * @param pixelWidth The sinogram pixel width used to convert 1/pixel to 1/unit
+	 * @return the execution time for the pair
+	 */
+	private double reconSlicePair(ImageStack sinoStk, ImageStack reconStk, int slice,
+			CT_Tools.DFIutils.DFIparams dfiParams, double pixelWidth) {
+		long start = System.nanoTime();
+
+		if (slice == sinoStk.getSize()) {
+			// the real to complex path, the image is the real part
+			dfiParams.paddedSino1 = (float[]) sinoStk.getPixels(slice);
+			float[] dfiData = dfiu.dfiReconSingle(dfiParams);
+			float[] recon = (float[]) reconStk.getPixels(slice);
+			for (int i = 0; i < recon.length; i++) {
+				recon[i] = (float) (dfiData[2 * i] / pixelWidth);
+			}
+			long end = System.nanoTime();
+			return (end - start) / 1e9;
+		}
+
+		// Fetch pairs of sinograms, the rows are padded as they are loaded
+		dfiParams.paddedSino1 = (float[]) sinoStk.getPixels(slice);
+		dfiParams.paddedSino2 = (float[]) sinoStk.getPixels(slice + 1);
+
+		// dfiRecon returns both slices in JTransforms sequence format
+		// because it can't return two separate arrays
+		// The array is reused by the next call with the same dfiParams
+		float[] dfiData = dfiu.dfiRecon(dfiParams);
+
+		// Convert 1/pixel to 1/cm and put the separated images into the
+		// reconstructed image stack slices
+		float[] recon1 = (float[]) reconStk.getPixels(slice);
+		float[] recon2 = (float[]) reconStk.getPixels(slice + 1);
+		for (int i = 0; i < recon1.length; i++) {
+			recon1[i] = (float) (dfiData[2 * i] / pixelWidth);
+			recon2[i] = (float) (dfiData[2 * i + 1] / pixelWidth);
+		}
+
+		long end = System.nanoTime();
+		return (end - start) / 1e9;
+	}
+
+	/**
+	 * Reconstructs the sinogram pairs using a pool of worker threads. The pairs
+	 * are independent so the result is identical to reconstructing them one after
+	 * the other. Each worker thread gets its own DFIparams and DFIcontext, all of
+	 * them share the SemiBicubicLUT and SinoPreconditioner in dfiParams.
+	 * 
+	 * @param sinoStk     The unmodified sinogram stack
+	 * @param reconStk    The stack to receive the reconstructed slices
+	 * @param dfiParams   The DFI parameters and the shared SemiBicubicLUT
+	 * @param pixelWidth  The sinogram pixel width
+	 * @param threadCount The number of worker threads
+	 * @return the execution time of each slice pair, null if a pair failed or the
+	 *         reconstruction was interrupted, the error has been reported
+	 */
+	private double[] reconPairsParallel(ImageStack sinoStk, ImageStack reconStk,
+			CT_Tools.DFIutils.DFIparams dfiParams, double pixelWidth, int threadCount) {
+		int sinoPairs = (sinoStk.getSize() + 1) / 2;
+		double[] pairTime = new double[sinoPairs];
+		AtomicInteger pairsDone = new AtomicInteger();
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+		ThreadLocal<CT_Tools.DFIutils.DFIparams> threadParams = ThreadLocal.withInitial(() -> {
+			CT_Tools.DFIutils.DFIparams workerParams = dfiu.new DFIparams();
+			workerParams.paddedSinoWidth = dfiParams.paddedSinoWidth;
+			workerParams.padFactor = dfiParams.padFactor;
+			workerParams.semiBicubicLUT = dfiParams.semiBicubicLUT;
+			workerParams.sinoPreconditioner = dfiParams.sinoPreconditioner;
+			workerParams.cartFilter = dfiParams.cartFilter;
+			workerParams.showLUT = dfiParams.showLUT;
+			workerParams.showPolarFT = dfiParams.showPolarFT;
+			workerParams.showCartFT = dfiParams.showCartFT;
+			return workerParams;
+		});
+
+		for (int pair = 0; pair < sinoPairs; pair++) {
+			final int slice = 2 * pair + 1;
+			futures.add(pool.submit(() -> {
+				pairTime[slice / 2] = reconSlicePair(sinoStk, reconStk, slice, threadParams.get(), pixelWidth);
+				IJ.showProgress(pairsDone.incrementAndGet(), sinoPairs);
+			}));
+		}
+		pool.shutdown();
+
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			pool.shutdownNow();
+			Thread.currentThread().interrupt();
+			IJ.error("DFI Recon", "The reconstruction was interrupted.");
+			return null;
+		} catch (ExecutionException e) {
+			pool.shutdownNow();
+			Throwable cause = e.getCause() != null ? e.getCause() : e;
+			cause.printStackTrace();
+			IJ.error("DFI Recon", "The reconstruction failed:\n" + cause);
+			return null;
+		}
+		return pairTime;
+	}
+
 	private void setImageProperties(ImagePlus srcImp, ImagePlus destImp, DialogParams dlp) {
 		Properties srcProps = srcImp.getImageProperties();
 		ArrayList<String> destProps = new ArrayList<String>();
@@ -333,6 +502,9 @@ public class DFI_JTransforms implements ActionListener, PlugInFilter {
 					DialogParams dlp = getSelections(gd);
 					dlp.sinoImp = dlp.sinoImp.crop("whole-slice");
 					ImagePlus reconImp = DoDFIrecon(dlp);
+					if (reconImp == null) {
+						break;
+					}
 					ImagePlus testImp;
 					reconImp.setTitle("TestSlice");
 					testImp = WindowManager.getImage("TestSlice");
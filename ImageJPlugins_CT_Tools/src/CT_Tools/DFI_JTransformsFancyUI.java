@@ -209,12 +209,13 @@ public class DFI_JTransformsFancyUI implements ActionListener, PlugInFilter, Ima
 		}
 		int sinoPairs = sinoSliceCnt / 2;
 
-		// Create the polar To Cartesian Lookup table
+		// Fetch the polar To Cartesian Lookup table, DFIlutCache only builds it
+		// the first time a geometry is used
 		// If dfp.semiBicubicLUT = null, DFIrecon will build the LUT each time it is
 		// called
 		DFIparams dfp = dfiu.new DFIparams();
 		dfp.paddedSinoWidth = paddedImp.getWidth();
-		dfp.semiBicubicLUT = dfiu.makeSemiBicubicLUT(dfp.paddedSinoWidth, paddedImp.getHeight(), dlp.padFactor);
+		dfp.semiBicubicLUT = DFIlutCache.getSemiBicubicLUT(dfp.paddedSinoWidth, paddedImp.getHeight(), dlp.padFactor);
 
 		// Pass the debug options
 		dfp.showLUT = dlp.showLUT;
@@ -0,0 +1,227 @@
+package CT_Tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import CT_Tools.DFIutils.SemiBicubicLUT;
+import ij.IJ;
+
+/**
+ * A cache of the DFI SemiBicubic lookup tables.<br>
+ * The table depends only on the padded sinogram width, the sinogram height and
+ * the pad factor. Recently used tables are kept in memory up to a byte budget,
+ * every table is also saved to a memory-mapped file in the
+ * plugins/DFI_LUT_Cache folder so it survives ImageJ restarts.<br>
+ * Macro access:<br>
+ * call("CT_Tools.DFIlutCache.clear");<br>
+ * call("CT_Tools.DFIlutCache.prewarm", sinoWidth, sinoHeight, padFactor);<br>
+ * where sinoWidth is the unpadded sinogram width including any profile
+ * extension.
+ *
+ * @author LazzyIzzi
+ */
+public class DFIlutCache {
+
+	private static final int FILE_KEY = 0x4C555431; // "LUT1"
+	private static final int HEADER_BYTES = 20;
+	private static final int BYTES_PER_ENTRY = 9 * 4; // base + 8 weights
+	private static final String CACHE_FOLDER = "DFI_LUT_Cache";
+
+	private static final DFIutils dfiu = new DFIutils();
+	private static final long byteBudget = Math.min(256L << 20, Runtime.getRuntime().maxMemory() / 8);
+	private static long cachedBytes = 0;
+	private static final LinkedHashMap<String, SemiBicubicLUT> lutMap = new LinkedHashMap<String, SemiBicubicLUT>(
+			16, 0.75f, true);
+
+	/**
+	 * Returns the SemiBicubic lookup table for the geometry from memory, from the
+	 * cache folder or by building it.
+	 *
+	 * @param polarWidth  The width of the padded polar image
+	 * @param polarHeight The height of the padded polar image
+	 * @param padFactor   The factor used to pad the width of the original polar
+	 *                    image with zeros
+	 * @return The SemiBicubic lookup table, shared between callers, do not modify
+	 */
+	public static synchronized SemiBicubicLUT getSemiBicubicLUT(int polarWidth, int polarHeight, int padFactor) {
+		String key = polarWidth + "_" + polarHeight + "_" + padFactor;
+		SemiBicubicLUT sbc = lutMap.get(key);
+		if (sbc == null) {
+			File lutFile = getLutFile(key);
+			sbc = readLUT(lutFile, polarWidth, polarHeight, padFactor);
+			if (sbc == null) {
+				sbc = dfiu.makeSemiBicubicLUT(polarWidth, polarHeight, padFactor);
+				writeLUT(lutFile, sbc, polarHeight, padFactor);
+			}
+			put(key, sbc);
+		}
+		return sbc;
+	}
+
+	/**
+	 * Macro callable, empties the memory cache and deletes the cache files. A file
+	 * that is still memory mapped, e.g. on Windows until the mapping is garbage
+	 * collected, cannot be deleted and is listed in the Log window.
+	 *
+	 * @return A message with the number of files deleted and not deleted
+	 */
+	public static synchronized String clear() {
+		lutMap.clear();
+		cachedBytes = 0;
+		int deleted = 0, failed = 0;
+		File folder = getCacheFolder();
+		if (folder != null) {
+			File[] files = folder.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					if (!file.getName().endsWith(".lut")) {
+						continue;
+					}
+					if (file.delete()) {
+						deleted++;
+					} else {
+						failed++;
+						IJ.log("DFI LUT Cache: could not delete " + file.getPath());
+					}
+				}
+			}
+		}
+		String msg = "Deleted " + deleted + " LUT files";
+		if (failed > 0) {
+			msg += ", " + failed + " could not be deleted, see the Log window";
+		}
+		return msg;
+	}
+
+	/**
+	 * Macro callable, builds or loads the lookup table for a sinogram geometry
+	 *
+	 * @param sinoWidth  The unpadded sinogram width including any extension
+	 * @param sinoHeight The sinogram height
+	 * @param padFactor  The pad factor, DFI_JTransforms uses 4
+	 * @return A message describing the cached table
+	 */
+	public static String prewarm(String sinoWidth, String sinoHeight, String padFactor) {
+		int pad = Integer.parseInt(padFactor.trim());
+		int polarWidth = Integer.parseInt(sinoWidth.trim()) * pad;
+		int polarHeight = Integer.parseInt(sinoHeight.trim());
+		getSemiBicubicLUT(polarWidth, polarHeight, pad);
+		return "Cached LUT " + polarWidth + "x" + polarHeight + " pad " + pad;
+	}
+
+	private static void put(String key, SemiBicubicLUT sbc) {
+		lutMap.put(key, sbc);
+		cachedBytes += (long) sbc.base.length * BYTES_PER_ENTRY;
+		// evict the least recently used tables, always keep the newest one
+		Iterator<Map.Entry<String, SemiBicubicLUT>> it = lutMap.entrySet().iterator();
+		while (cachedBytes > byteBudget && lutMap.size() > 1) {
+			SemiBicubicLUT eldest = it.next().getValue();
+			cachedBytes -= (long) eldest.base.length * BYTES_PER_ENTRY;
+			it.remove();
+		}
+	}
+
+	private static File getCacheFolder() {
+		String pluginsDir = IJ.getDirectory("plugins");
+		if (pluginsDir == null) {
+			return null;
+		}
+		File folder = new File(pluginsDir, CACHE_FOLDER);
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			return null;
+		}
+		return folder;
+	}
+
+	private static File getLutFile(String key) {
+		File folder = getCacheFolder();
+		if (folder == null) {
+			return null;
+		}
+		return new File(folder, "SemiBicubicLUT_" + key + ".lut");
+	}
+
+	private static SemiBicubicLUT readLUT(File lutFile, int polarWidth, int polarHeight, int padFactor) {
+		if (lutFile == null || !lutFile.isFile()) {
+			return null;
+		}
+		int cartWidth = polarWidth / padFactor;
+		int lutSize = cartWidth * cartWidth;
+		long fileBytes = HEADER_BYTES + (long) lutSize * BYTES_PER_ENTRY;
+
+		try (RandomAccessFile raf = new RandomAccessFile(lutFile, "r"); FileChannel fc = raf.getChannel()) {
+			if (fc.size() != fileBytes) {
+				return null;
+			}
+			MappedByteBuffer mbb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fileBytes);
+			mbb.order(ByteOrder.LITTLE_ENDIAN);
+			if (mbb.getInt() != FILE_KEY || mbb.getInt() != polarWidth || mbb.getInt() != polarHeight
+					|| mbb.getInt() != padFactor || mbb.getInt() != lutSize) {
+				return null;
+			}
+			SemiBicubicLUT sbc = dfiu.new SemiBicubicLUT();
+			sbc.polarWidth = polarWidth;
+			sbc.base = new int[lutSize];
+			mbb.asIntBuffer().get(sbc.base);
+			mbb.position(mbb.position() + lutSize * 4);
+			sbc.w0 = readPlane(mbb, lutSize);
+			sbc.w1 = readPlane(mbb, lutSize);
+			sbc.w2 = readPlane(mbb, lutSize);
+			sbc.w3 = readPlane(mbb, lutSize);
+			sbc.w4 = readPlane(mbb, lutSize);
+			sbc.w5 = readPlane(mbb, lutSize);
+			sbc.w6 = readPlane(mbb, lutSize);
+			sbc.w7 = readPlane(mbb, lutSize);
+			return sbc;
+		} catch (IOException e) {
+			IJ.log("DFI LUT Cache: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private static float[] readPlane(MappedByteBuffer mbb, int lutSize) {
+		float[] plane = new float[lutSize];
+		mbb.asFloatBuffer().get(plane);
+		mbb.position(mbb.position() + lutSize * 4);
+		return plane;
+	}
+
+	private static void writeLUT(File lutFile, SemiBicubicLUT sbc, int polarHeight, int padFactor) {
+		if (lutFile == null) {
+			return;
+		}
+		int lutSize = sbc.base.length;
+		long fileBytes = HEADER_BYTES + (long) lutSize * BYTES_PER_ENTRY;
+
+		try (RandomAccessFile raf = new RandomAccessFile(lutFile, "rw"); FileChannel fc = raf.getChannel()) {
+			// a stale file may be longer, readLUT only accepts the exact length
+			raf.setLength(fileBytes);
+			MappedByteBuffer mbb = fc.map(FileChannel.MapMode.READ_WRITE, 0, fileBytes);
+			mbb.order(ByteOrder.LITTLE_ENDIAN);
+			// clear a stale key and write the header last so an interrupted write is
+			// not mistaken for a LUT
+			mbb.putInt(0, 0);
+			mbb.position(HEADER_BYTES);
+			mbb.asIntBuffer().put(sbc.base);
+			mbb.position(mbb.position() + lutSize * 4);
+			float[][] planes = { sbc.w0, sbc.w1, sbc.w2, sbc.w3, sbc.w4, sbc.w5, sbc.w6, sbc.w7 };
+			for (float[] plane : planes) {
+				mbb.asFloatBuffer().put(plane);
+				mbb.position(mbb.position() + lutSize * 4);
+			}
+			mbb.position(0);
+			mbb.putInt(FILE_KEY).putInt(sbc.polarWidth).putInt(polarHeight).putInt(padFactor).putInt(lutSize);
+			mbb.force();
+		} catch (IOException e) {
+			IJ.log("DFI LUT Cache: " + e.getMessage());
+			lutFile.delete();
+		}
+	}
+}
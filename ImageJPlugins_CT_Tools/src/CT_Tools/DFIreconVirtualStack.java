@@ -0,0 +1,242 @@
+package CT_Tools;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * A VirtualStack of DFI reconstructed slices that are computed on demand from a
+ * sinogram stack.<br>
+ * Sinograms are read, adjusted and reconstructed two at a time by a pool of
+ * worker threads. While the slices are read in order, the pairs ahead of the
+ * current one are reconstructed in parallel, at most 2 per thread are in
+ * flight, so the memory used does not depend on the number of slices. The
+ * sinograms are read on the calling thread, as virtual stack readers are not
+ * thread safe. The sinogram stack may itself
+ * be virtual, e.g. opened with File&gt;Import&gt;TIFF Virtual Stack or
+ * File&gt;Import&gt;Raw with "Virtual stack" checked. Saving an ImagePlus of this
+ * stack with FileSaver.saveAsTiffStack streams the reconstruction to disk.
+ *
+ * @author LazzyIzzi
+ */
+public class DFIreconVirtualStack extends VirtualStack {
+
+	private final ImageStack sinoStk;
+	private final double pixelWidth;
+
+	private final DFIutils dfiu = new DFIutils();
+	private final SinogramUtils su = new SinogramUtils();
+	private final DFIutils.DFIparams dfiParams;
+	private final int maxInFlight;
+	private final ExecutorService pool;
+	// each worker thread has its own DFIparams and DFIcontext
+	private final ThreadLocal<DFIutils.DFIparams> threadParams;
+
+	// the submitted pairs by first slice and the first slice of the next pair to submit
+	private final HashMap<Integer, Future<float[][]>> pending = new HashMap<Integer, Future<float[][]>>();
+	private int nextSubmit = 1;
+
+	// the most recently reconstructed pair of slices
+	private int cachedSlice = -1;
+	private float[] cachedRecon1, cachedRecon2;
+	// the reconstruction time summed over the workers, atomic as the workers
+	// must not wait for the stack's lock
+	private final AtomicLong reconNanos = new AtomicLong();
+
+	/**
+	 * @param sinoStk        The unmodified 32-bit sinogram stack, not changed
+	 * @param extensionWidth The profile extension width, 0 for none
+	 * @param axisShift      The rotation axis shift in pixels
+	 * @param beamHardening  The beam hardening correction factor, 0 for none
+	 * @param padFactor      The sinogram width pad factor
+	 * @param pixelWidth     The sinogram pixel width used to convert 1/pixel to
+	 *                       1/unit
+	 * @param threadCount    The number of worker threads, call shutdown when done
+	 */
+	public DFIreconVirtualStack(ImageStack sinoStk, int extensionWidth, float axisShift, float beamHardening,
+			int padFactor, double pixelWidth, int threadCount) {
+		super(sinoStk.getWidth() + 2 * extensionWidth, sinoStk.getWidth() + 2 * extensionWidth, null, null);
+		setBitDepth(32);
+		this.sinoStk = sinoStk;
+		this.pixelWidth = pixelWidth;
+
+		SinogramUtils.SinoPreconditioner sinoPreconditioner = su.new SinoPreconditioner(sinoStk.getWidth(),
+				extensionWidth, axisShift, beamHardening, padFactor);
+		int paddedSinoWidth = sinoPreconditioner.getPaddedWidth();
+		dfiParams = dfiu.new DFIparams();
+		dfiParams.paddedSinoWidth = paddedSinoWidth;
+		dfiParams.padFactor = padFactor;
+		dfiParams.sinoPreconditioner = sinoPreconditioner;
+		dfiParams.semiBicubicLUT = DFIlutCache.getSemiBicubicLUT(paddedSinoWidth, sinoStk.getHeight(), padFactor);
+
+		int nThreads = Math.max(1, threadCount);
+		maxInFlight = 2 * nThreads;
+		pool = Executors.newFixedThreadPool(nThreads, r -> {
+			Thread t = new Thread(r, "DFI stream");
+			t.setDaemon(true);
+			return t;
+		});
+		threadParams = ThreadLocal.withInitial(() -> {
+			DFIutils.DFIparams workerParams = dfiu.new DFIparams();
+			workerParams.paddedSinoWidth = dfiParams.paddedSinoWidth;
+			workerParams.padFactor = dfiParams.padFactor;
+			workerParams.sinoPreconditioner = dfiParams.sinoPreconditioner;
+			workerParams.semiBicubicLUT = dfiParams.semiBicubicLUT;
+			return workerParams;
+		});
+	}
+
+	/**
+	 * Stops the worker threads, pairs still being reconstructed are abandoned.
+	 * Later slices are reconstructed on the calling thread.
+	 */
+	public synchronized void shutdown() {
+		cancelPending();
+		pool.shutdownNow();
+	}
+
+	/**
+	 * @throws RuntimeException if the reconstruction of the slice failed or was
+	 *                          interrupted
+	 */
+	@Override
+	public synchronized ImageProcessor getProcessor(int n) {
+		int firstSlice = n - (n - 1) % 2;
+		if (firstSlice != cachedSlice) {
+			loadPair(firstSlice);
+		}
+		float[] pixels = n == firstSlice ? cachedRecon1 : cachedRecon2;
+		return new FloatProcessor(getWidth(), getHeight(), pixels.clone());
+	}
+
+	@Override
+	public Object getPixels(int n) {
+		return getProcessor(n).getPixels();
+	}
+
+	@Override
+	public int getSize() {
+		return sinoStk.getSize();
+	}
+
+	@Override
+	public int size() {
+		return getSize();
+	}
+
+	@Override
+	public String getSliceLabel(int n) {
+		return "Recon" + n;
+	}
+
+	/**
+	 * @return The time in seconds spent reconstructing so far, summed over the
+	 *         worker threads
+	 */
+	public double getReconTime() {
+		return reconNanos.get() / 1e9;
+	}
+
+	// waits for the pair starting at firstSlice and submits the pairs after it
+	private void loadPair(int firstSlice) {
+		if (!pending.containsKey(firstSlice)) {
+			// a jump, e.g. when browsing, restarts the read ahead at this pair
+			cancelPending();
+			nextSubmit = firstSlice;
+		}
+		// pairs that were skipped are no longer needed
+		Iterator<Map.Entry<Integer, Future<float[][]>>> it = pending.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Integer, Future<float[][]>> entry = it.next();
+			if (entry.getKey() < firstSlice) {
+				entry.getValue().cancel(true);
+				it.remove();
+			}
+		}
+		int ahead = pool.isShutdown() ? 1 : maxInFlight;
+		while (nextSubmit <= getSize() && (nextSubmit - firstSlice) / 2 < ahead) {
+			submitPair(nextSubmit);
+			nextSubmit += 2;
+		}
+
+		Future<float[][]> future = pending.remove(firstSlice);
+		try {
+			float[][] recon = future.get();
+			cachedRecon1 = recon[0];
+			cachedRecon2 = recon[1];
+			cachedSlice = firstSlice;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("DFI Recon: interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause() != null ? e.getCause() : e;
+			throw new RuntimeException("DFI Recon: " + cause, cause);
+		}
+	}
+
+	private void cancelPending() {
+		for (Future<float[][]> future : pending.values()) {
+			future.cancel(true);
+		}
+		pending.clear();
+	}
+
+	private void submitPair(int firstSlice) {
+		boolean single = firstSlice == sinoStk.getSize();
+		// the sinogram rows are extended, shifted, corrected and padded as they
+		// are loaded, the source stack is never modified
+		float[] sino1 = (float[]) sinoStk.getProcessor(firstSlice).convertToFloat().getPixels();
+		float[] sino2 = single ? null : (float[]) sinoStk.getProcessor(firstSlice + 1).convertToFloat().getPixels();
+		Callable<float[][]> task = () -> reconPair(sino1, sino2);
+		if (pool.isShutdown()) {
+			FutureTask<float[][]> inline = new FutureTask<float[][]>(task);
+			inline.run();
+			pending.put(firstSlice, inline);
+		} else {
+			pending.put(firstSlice, pool.submit(task));
+		}
+	}
+
+	// runs on a worker thread, returns the one or two reconstructed slices
+	private float[][] reconPair(float[] sino1, float[] sino2) {
+		long start = System.nanoTime();
+		boolean single = sino2 == null;
+		DFIutils.DFIparams workerParams = threadParams.get();
+
+		int pixCnt = getWidth() * getHeight();
+		float[] recon1 = new float[pixCnt];
+		float[] recon2 = single ? null : new float[pixCnt];
+		float[] dfiData;
+		workerParams.paddedSino1 = sino1;
+		if (single) {
+			dfiData = dfiu.dfiReconSingle(workerParams);
+		} else {
+			workerParams.paddedSino2 = sino2;
+			dfiData = dfiu.dfiRecon(workerParams);
+		}
+
+		// Convert 1/pixel to 1/cm
+		for (int i = 0; i < pixCnt; i++) {
+			recon1[i] = (float) (dfiData[2 * i] / pixelWidth);
+			if (!single) {
+				recon2[i] = (float) (dfiData[2 * i + 1] / pixelWidth);
+			}
+		}
+		workerParams.paddedSino1 = null;
+		workerParams.paddedSino2 = null;
+		reconNanos.addAndGet(System.nanoTime() - start);
+		return new float[][] { recon1, recon2 };
+	}
+}
@@ -1,5 +1,7 @@
 package CT_Tools;
 
+import java.util.Arrays;
+
 import org.jtransforms.fft.FloatFFT_1D;
 import org.jtransforms.fft.FloatFFT_2D;
 
@@ -15,13 +17,17 @@ import org.jtransforms.fft.FloatFFT_2D;
  */
 public class DFIutils {
 
-	protected class RowColLUT {
-		float row, col;
-	}
-
+	/**
+	 * A packed SemiBicubic lookup table with one entry per Cartesian pixel.<br>
+	 * base is the index of the left-most of the four polar pixels in the lower
+	 * polar row, the upper row starts at base+polarWidth. Cartesian pixels that
+	 * fall outside the polar data are marked with -1.<br>
+	 * w0-w3 weight the lower row and w4-w7 the upper row.
+	 */
 	protected class SemiBicubicLUT {
-		float row, col;
-		float w0, w1, w2, w3, w4, w5, w6, w7;
+		int polarWidth;
+		int[] base;
+		float[] w0, w1, w2, w3, w4, w5, w6, w7;
 	}
 
 	class DFIparams {
@@ -29,14 +35,53 @@ public class DFIutils {
 		// padding is done using ImageJ methods
 		// before calling DFIrecon
 		int paddedSinoWidth, padFactor;
+		// if sinoPreconditioner is set, paddedSino1 and paddedSino2 hold the
+		// unmodified sinograms and each row is extended, shifted, corrected
+		// and padded as it is loaded into the FFT buffer
+		SinogramUtils.SinoPreconditioner sinoPreconditioner;
+		// optional Cartesian FT weights from makeCartesianFilter, null for none
+		float[] cartFilter;
 		// SemiBicubicLUT should be created
 		// before calling DFIrecon on a stack
-		SemiBicubicLUT[] semiBicubicLUT;
+		SemiBicubicLUT semiBicubicLUT;
+		// dfiRecon creates the DFIcontext on the first call and reuses it
+		// while the geometry is unchanged, use one DFIparams per thread
+		DFIcontext dfiContext;
 		boolean showLUT, showPolarFT, showCartFT;
 	}
 
-	private class SemiBicubicWeights {
-		float w0, w1, w2, w3, w4, w5, w6, w7;
+	/**
+	 * The FFT plans and scratch buffers used by dfiRecon for one padded sinogram
+	 * geometry. Reusing a DFIcontext for every slice pair of a stack avoids
+	 * allocating plans and buffers for each pair. A DFIcontext must not be shared
+	 * between threads.
+	 */
+	class DFIcontext {
+		final int padSinoWidth, padSinoHeight, padFactor, cartWidth;
+		final FloatFFT_1D fftDo;
+		final FloatFFT_2D fft2dDo;
+		final float[] rowReIm, padSinoFTre, padSinoFTim;
+		final float[] cartReData, cartImData, cartReIm;
+
+		DFIcontext(int padSinoWidth, int padSinoHeight, int padFactor) {
+			this.padSinoWidth = padSinoWidth;
+			this.padSinoHeight = padSinoHeight;
+			this.padFactor = padFactor;
+			cartWidth = padSinoWidth / padFactor;
+			fftDo = new FloatFFT_1D(padSinoWidth);
+			fft2dDo = new FloatFFT_2D(cartWidth, cartWidth);
+			rowReIm = new float[2 * padSinoWidth];
+			padSinoFTre = new float[padSinoWidth * padSinoHeight];
+			padSinoFTim = new float[padSinoWidth * padSinoHeight];
+			cartReData = new float[cartWidth * cartWidth];
+			cartImData = new float[cartWidth * cartWidth];
+			cartReIm = new float[2 * cartWidth * cartWidth];
+		}
+
+		boolean fits(int padSinoWidth, int padSinoHeight, int padFactor) {
+			return this.padSinoWidth == padSinoWidth && this.padSinoHeight == padSinoHeight
+					&& this.padFactor == padFactor;
+		}
 	}
 
 	//static final int COL = 0, ROW = 1;
@@ -48,97 +93,242 @@ public class DFIutils {
 	 * Tomographic reconstruction of two same-size pre-processed (e.g. padded etc.) x-ray parallel
 	 * projection data.
 	 * 
-	 * @param dp A DFIparamsSimplified nested class containing the required DFI
+	 * @param dp A DFIparams nested class containing the required DFI
 	 *           parameters
 	 * @return Two reconstructed images in JTransforms sequenced format. Use
 	 *         JTransformsUtils.fftRealToFloat and fftImaginaryToFloat to separate the images.
+	 *         The array belongs to dp.dfiContext and is overwritten by the next call.
 	 */
 	public float[] dfiRecon(DFIparams dp) {
-		float[] jtReIm = dfiRecon(dp.paddedSino1, dp.paddedSino2, dp.paddedSinoWidth, dp.padFactor, dp.semiBicubicLUT,
-				dp.showLUT, dp.showPolarFT, dp.showCartFT);
+		DFIcontext ctx = getContext(dp);
+		float[] jtReIm = dfiRecon(dp.paddedSino1, dp.paddedSino2, dp.sinoPreconditioner, dp.semiBicubicLUT,
+				dp.cartFilter, ctx, dp.showLUT, dp.showPolarFT, dp.showCartFT);
 		return jtReIm;
 	}
 
+	/**
+	 * Tomographic reconstruction of a single pre-processed (e.g. padded etc.) x-ray
+	 * parallel projection. Uses a real forward transform of the sinogram rows and
+	 * interpolates only half of the Cartesian FT, the other half follows from
+	 * Hermitian symmetry.
+	 * 
+	 * @param dp A DFIparams nested class containing the required DFI parameters,
+	 *           paddedSino2 is ignored
+	 * @return The reconstructed image in JTransforms sequenced format. The image is
+	 *         the real part, use JTransformsUtils.getJTransformsReal to extract it.
+	 *         The array belongs to dp.dfiContext and is overwritten by the next call.
+	 */
+	public float[] dfiReconSingle(DFIparams dp) {
+		DFIcontext ctx = getContext(dp);
+		float[] jtReIm = dfiReconSingle(dp.paddedSino1, dp.sinoPreconditioner, dp.semiBicubicLUT, dp.cartFilter,
+				ctx, dp.showLUT, dp.showPolarFT, dp.showCartFT);
+		return jtReIm;
+	}
+
+	// create the DFIcontext or reuse it if the geometry is unchanged
+	private DFIcontext getContext(DFIparams dp) {
+		int padSinoHeight;
+		if (dp.sinoPreconditioner == null) {
+			padSinoHeight = dp.paddedSino1.length / dp.paddedSinoWidth;
+		} else {
+			padSinoHeight = dp.paddedSino1.length / dp.sinoPreconditioner.getSinoWidth();
+		}
+		if (dp.dfiContext == null || !dp.dfiContext.fits(dp.paddedSinoWidth, padSinoHeight, dp.padFactor)) {
+			dp.dfiContext = new DFIcontext(dp.paddedSinoWidth, padSinoHeight, dp.padFactor);
+		}
+		return dp.dfiContext;
+	}
+
 	/**
 	 * Tomographic reconstruction of x-ray parallel projection data
 	 * 
 	 * @param padSino1       A 1D array of a 2D padded 0 to 180 degree axis-centered
 	 *                       parallel projection sinogram
 	 * @param padSino2       A 1D array of a second similar sinogram
-	 * @param padSinoWidth   The width in pixels of the padded sinogram
-	 * @param padFactor      The factor used to pad both sinograms with zeros
-	 * @param interpMethod   Use "BiLinear" or "BiCubic" to obtain the Cartesian
-	 *                       values from the polar data
+	 * @param sp             Preconditions and pads each sinogram row as it is
+	 *                       loaded, null if the sinograms are already padded
 	 * @param semiBicubicLut A pre-computed lookup table of Cartesian(x,y) for each
 	 *                       polar(r,theta). Call DFIutil makeSemiBicubicLUT
 	 *                       method to create the LUT before calling dfiRecon when
 	 *                       reconstructing stacks of sinograms. Pass null to have
 	 *                       dfiRecon create the LUT each time dfiRecon is called.
+	 * @param cartFilter     Weights applied to the Cartesian FT, null for none
+	 * @param ctx            The FFT plans and scratch buffers for the padded
+	 *                       sinogram geometry
 	 * @return Two reconstructed images in JTransforms sequenced format. Use
 	 *         JTransformsUtils fftRealToFloat and fftImaginaryToFloat to separate the images.
 	 */
-	private float[] dfiRecon(float[] padSino1, float[] padSino2, int padSinoWidth, int padFactor,
-			SemiBicubicLUT[] semiBicubicLut, boolean showLUT, boolean showPolarFT, boolean showCartFT) {
-		int padSinoHeight = padSino1.length / padSinoWidth;
-		int cartWidth = padSinoWidth / padFactor;
+	private float[] dfiRecon(float[] padSino1, float[] padSino2, SinogramUtils.SinoPreconditioner sp,
+			SemiBicubicLUT semiBicubicLut, float[] cartFilter, DFIcontext ctx, boolean showLUT, boolean showPolarFT,
+			boolean showCartFT) {
+		int padSinoWidth = ctx.padSinoWidth;
+		int padSinoHeight = ctx.padSinoHeight;
+		int cartWidth = ctx.cartWidth;
 		int cartHeight = cartWidth;
-		FloatFFT_1D fftDo = new FloatFFT_1D(padSinoWidth);
-		FloatFFT_2D fft2dDo = new FloatFFT_2D(cartWidth, cartHeight);
-		float[] jtReIm, rowData1, rowData2;
-		// create the rowColLUT if not supplied by user
+		float[] rowReIm = ctx.rowReIm;
+		float[] padSinoFTre = ctx.padSinoFTre;
+		float[] padSinoFTim = ctx.padSinoFTim;
+		// create the semiBicubicLut if not supplied by user
 		if (semiBicubicLut == null) {
-			semiBicubicLut = makeSemiBicubicLUT(padSinoWidth, padSinoHeight, padFactor);
+			semiBicubicLut = makeSemiBicubicLUT(padSinoWidth, padSinoHeight, ctx.padFactor);
 		}
 		if (showLUT == true) {
 			dbu.showDebugImage("SemiBicubicLUT", (Object) semiBicubicLut, cartWidth, cartHeight);
 		}
 
-		float[] padSinoFTre = new float[padSinoWidth * padSinoHeight];
-		float[] padSinoFTim = new float[padSinoWidth * padSinoHeight];
-
 		for (int row = 0; row < padSinoHeight; row++) {
-			rowData1 = getRow(padSino1, padSinoWidth, row);
-			rowData2 = getRow(padSino2, padSinoWidth, row);
-			jtReIm = ftu.reimToJTransformsComplex(rowData1, rowData2);
+			int rowStart = row * padSinoWidth;
+			if (sp == null) {
+				for (int i = 0; i < padSinoWidth; i++) {
+					rowReIm[2 * i] = padSino1[rowStart + i];
+					rowReIm[2 * i + 1] = padSino2[rowStart + i];
+				}
+			} else {
+				sp.conditionRow(padSino1, row, rowReIm, 0, 2);
+				sp.conditionRow(padSino2, row, rowReIm, 1, 2);
+			}
 
 //			Computes 2D forward DFT of complex data leaving the result in a.
 //			The data is stored in 1D array in row-major order. Complex numbers are stored
 //			as two float values in sequence: the real and imaginary part,
 //			i.e. the input array must be of size rows*2*columns.
-			fftDo.complexForward(jtReIm);
+			ctx.fftDo.complexForward(rowReIm);
 
-			putRow(ftu.getJTransformsReal(jtReIm), padSinoFTre, padSinoWidth, row);
-			putRow(ftu.getJTransformsImaginary(jtReIm), padSinoFTim, padSinoWidth, row);
+			for (int i = 0; i < padSinoWidth; i++) {
+				padSinoFTre[rowStart + i] = rowReIm[2 * i];
+				padSinoFTim[rowStart + i] = rowReIm[2 * i + 1];
+			}
 		}
 
 		if (showPolarFT == true) {
-			dbu.showDebugImage("PadSinoFTre", (Object) padSinoFTre, padSinoWidth, padSinoHeight);
-			dbu.showDebugImage("PadSinoFTim", (Object) padSinoFTim, padSinoWidth, padSinoHeight);
+			dbu.showDebugImage("PadSinoFTre", (Object) padSinoFTre.clone(), padSinoWidth, padSinoHeight);
+			dbu.showDebugImage("PadSinoFTim", (Object) padSinoFTim.clone(), padSinoWidth, padSinoHeight);
 		}
 		ftu.phaseShiftRows1D(padSinoFTre, padSinoWidth);
 		ftu.phaseShiftRows1D(padSinoFTim, padSinoWidth);
 
-		float[] cartReData = polarToCartesianSemiBicubic(padSinoFTre, padSinoWidth, padFactor, semiBicubicLut);
-		float[] cartImData = polarToCartesianSemiBicubic(padSinoFTim, padSinoWidth, padFactor, semiBicubicLut);
+		float[] cartReData = ctx.cartReData;
+		float[] cartImData = ctx.cartImData;
+		polarToCartesianSemiBicubic(padSinoFTre, padSinoFTim, cartReData, cartImData, semiBicubicLut,
+				cartReData.length);
 		if (showCartFT == true) {
-			dbu.showDebugImage("cartReData", (Object) cartReData, cartWidth, cartHeight);
-			dbu.showDebugImage("cartImData", (Object) cartImData, cartWidth, cartHeight);
+			dbu.showDebugImage("cartReData", (Object) cartReData.clone(), cartWidth, cartHeight);
+			dbu.showDebugImage("cartImData", (Object) cartImData.clone(), cartWidth, cartHeight);
 		}
 		// Phase Shift
 //		ftu.phaseShift2D(cartReData, cartWidth);
 //		ftu.phaseShift2D(cartImData, cartWidth);
+		applyCartesianFilter(cartReData, cartImData, cartFilter);
 		ftu.phaseShift(cartReData, cartWidth,cartHeight,1);
 		ftu.phaseShift(cartImData, cartWidth,cartHeight,1);
 
 		// Inverse Transform
-		jtReIm = ftu.reimToJTransformsComplex(cartReData, cartImData);
+		float[] jtReIm = ctx.cartReIm;
+		for (int i = 0; i < cartReData.length; i++) {
+			jtReIm[2 * i] = cartReData[i];
+			jtReIm[2 * i + 1] = cartImData[i];
+		}
 
-		fft2dDo.complexInverse(jtReIm, true);
+		ctx.fft2dDo.complexInverse(jtReIm, true);
 
 		return jtReIm;
 
 	}
 
+	/**
+	 * Tomographic reconstruction of one x-ray parallel projection
+	 * 
+	 * @param padSino        A 1D array of a 2D padded 0 to 180 degree axis-centered
+	 *                       parallel projection sinogram
+	 * @param sp             Preconditions and pads each sinogram row as it is
+	 *                       loaded, null if the sinogram is already padded
+	 * @param semiBicubicLut A pre-computed lookup table of Cartesian(x,y) for each
+	 *                       polar(r,theta), pass null to have it created.
+	 * @param cartFilter     Weights applied to the Cartesian FT, null for none
+	 * @param ctx            The FFT plans and scratch buffers for the padded
+	 *                       sinogram geometry
+	 * @return The reconstructed image as the real part of JTransforms sequenced
+	 *         data.
+	 */
+	private float[] dfiReconSingle(float[] padSino, SinogramUtils.SinoPreconditioner sp,
+			SemiBicubicLUT semiBicubicLut, float[] cartFilter, DFIcontext ctx, boolean showLUT, boolean showPolarFT,
+			boolean showCartFT) {
+		int padSinoWidth = ctx.padSinoWidth;
+		int padSinoHeight = ctx.padSinoHeight;
+		int cartWidth = ctx.cartWidth;
+		int cartHeight = cartWidth;
+		float[] rowReIm = ctx.rowReIm;
+		float[] padSinoFTre = ctx.padSinoFTre;
+		float[] padSinoFTim = ctx.padSinoFTim;
+		if (semiBicubicLut == null) {
+			semiBicubicLut = makeSemiBicubicLUT(padSinoWidth, padSinoHeight, ctx.padFactor);
+		}
+		if (showLUT == true) {
+			dbu.showDebugImage("SemiBicubicLUT", (Object) semiBicubicLut, cartWidth, cartHeight);
+		}
+
+		for (int row = 0; row < padSinoHeight; row++) {
+			int rowStart = row * padSinoWidth;
+			if (sp == null) {
+				System.arraycopy(padSino, rowStart, rowReIm, 0, padSinoWidth);
+			} else {
+				sp.conditionRow(padSino, row, rowReIm, 0, 1);
+			}
+			// clear the previous spectrum, realForwardFull may read the upper half
+			Arrays.fill(rowReIm, padSinoWidth, 2 * padSinoWidth, 0f);
+
+			// The real transform returns the full Hermitian spectrum in the same
+			// sequenced format as complexForward
+			ctx.fftDo.realForwardFull(rowReIm);
+
+			for (int i = 0; i < padSinoWidth; i++) {
+				padSinoFTre[rowStart + i] = rowReIm[2 * i];
+				padSinoFTim[rowStart + i] = rowReIm[2 * i + 1];
+			}
+		}
+
+		if (showPolarFT == true) {
+			dbu.showDebugImage("PadSinoFTre", (Object) padSinoFTre.clone(), padSinoWidth, padSinoHeight);
+			dbu.showDebugImage("PadSinoFTim", (Object) padSinoFTim.clone(), padSinoWidth, padSinoHeight);
+		}
+		ftu.phaseShiftRows1D(padSinoFTre, padSinoWidth);
+		ftu.phaseShiftRows1D(padSinoFTim, padSinoWidth);
+
+		// Interpolate rows 0 to cartHeight/2, the FT of a real image is Hermitian
+		// so the remaining rows are the complex conjugates of the mirrored pixels
+		float[] cartReData = ctx.cartReData;
+		float[] cartImData = ctx.cartImData;
+		int halfRows = cartHeight / 2 + 1;
+		polarToCartesianSemiBicubic(padSinoFTre, padSinoFTim, cartReData, cartImData, semiBicubicLut,
+				halfRows * cartWidth);
+		for (int j = halfRows; j < cartHeight; j++) {
+			int mirrorRow = (cartHeight - j) * cartWidth;
+			for (int i = 0; i < cartWidth; i++) {
+				int mirror = mirrorRow + (cartWidth - i) % cartWidth;
+				cartReData[i + j * cartWidth] = cartReData[mirror];
+				cartImData[i + j * cartWidth] = -cartImData[mirror];
+			}
+		}
+		if (showCartFT == true) {
+			dbu.showDebugImage("cartReData", (Object) cartReData.clone(), cartWidth, cartHeight);
+			dbu.showDebugImage("cartImData", (Object) cartImData.clone(), cartWidth, cartHeight);
+		}
+		applyCartesianFilter(cartReData, cartImData, cartFilter);
+		ftu.phaseShift(cartReData, cartWidth, cartHeight, 1);
+		ftu.phaseShift(cartImData, cartWidth, cartHeight, 1);
+
+		// Inverse Transform
+		float[] jtReIm = ctx.cartReIm;
+		for (int i = 0; i < cartReData.length; i++) {
+			jtReIm[2 * i] = cartReData[i];
+			jtReIm[2 * i + 1] = cartImData[i];
+		}
+
+		ctx.fft2dDo.complexInverse(jtReIm, true);
+
+		return jtReIm;
+	}
+
 	/**
 	 * @return The text of the JTransforms License
 	 */
@@ -177,6 +367,74 @@ public class DFIutils {
 		return dfiTxt + txt;
 	}
 	
+	/**
+	 * Builds radially symmetric weights for the Cartesian FT, DC at index 0 as
+	 * produced by polarToCartesianSemiBicubic. The radius r runs from 0 at DC to 1
+	 * at the Nyquist frequency, weights are 0 beyond the cutoff.<br>
+	 * With x = r/cutoff the filters are Rectangular 1, Hanning 0.5(1+cos(&pi;x)),
+	 * Welch 1-x<sup>2</sup> and Parzen 1-6x<sup>2</sup>+6x<sup>3</sup> for x&le;0.5,
+	 * 2(1-x)<sup>3</sup> above.<br>
+	 * These are textbook window forms for CT_Recon_ParallelBeam's
+	 * Cartesian_Filter choices. Base_Recon.exe may define the filters or the
+	 * cutoff differently, the two have not been checked against each other.
+	 * 
+	 * @param cartWidth  The width and height of the Cartesian FT
+	 * @param filterName "None","Rectangular","Hanning","Welch" or "Parzen"
+	 * @param cutoff     The cutoff radius, 0 to 1
+	 * @return The weights, null for "None" or an unknown filter
+	 */
+	public float[] makeCartesianFilter(int cartWidth, String filterName, double cutoff) {
+		switch (filterName) {
+		case "Rectangular":
+		case "Hanning":
+		case "Welch":
+		case "Parzen":
+			break;
+		default:
+			return null;
+		}
+		float[] filter = new float[cartWidth * cartWidth];
+		double nyquist = cartWidth / 2.0;
+		for (int j = 0; j < cartWidth; j++) {
+			int fy = j <= cartWidth / 2 ? j : j - cartWidth;
+			for (int i = 0; i < cartWidth; i++) {
+				int fx = i <= cartWidth / 2 ? i : i - cartWidth;
+				double r = Math.sqrt(fx * fx + fy * fy) / nyquist;
+				if (r > cutoff) {
+					continue;
+				}
+				double x = cutoff > 0 ? r / cutoff : 0;
+				double w;
+				switch (filterName) {
+				case "Hanning":
+					w = 0.5 * (1 + Math.cos(Math.PI * x));
+					break;
+				case "Welch":
+					w = 1 - x * x;
+					break;
+				case "Parzen":
+					w = x <= 0.5 ? 1 - 6 * x * x + 6 * x * x * x : 2 * Math.pow(1 - x, 3);
+					break;
+				default:
+					w = 1;
+					break;
+				}
+				filter[i + j * cartWidth] = (float) w;
+			}
+		}
+		return filter;
+	}
+
+	private void applyCartesianFilter(float[] cartRe, float[] cartIm, float[] cartFilter) {
+		if (cartFilter == null) {
+			return;
+		}
+		for (int i = 0; i < cartFilter.length; i++) {
+			cartRe[i] *= cartFilter[i];
+			cartIm[i] *= cartFilter[i];
+		}
+	}
+
 	/**
 	 * SemiBicubic Lookup table maker
 	 * 
@@ -184,40 +442,41 @@ public class DFIutils {
 	 * @param polarHeight The height of the padded polar image
 	 * @param padFactor   The factor 2,4,6,8 used to pad the width of the original
 	 *                    polar image with zeros
-	 * @return A lookup table containing the polar pixel row, column in Cartesian
-	 *         coordinates, and the semiBicubic interpolation weights for each polar
-	 *         pixel
+	 * @return A lookup table containing the index of the polar pixels used by
+	 *         each Cartesian pixel and the semiBicubic interpolation weights
 	 */
-	protected SemiBicubicLUT[] makeSemiBicubicLUT(int polarWidth, int polarHeight, int padFactor) {
-		RowColLUT[] rowColLUT = makeRowColLUT(polarWidth, polarHeight, padFactor);
-		SemiBicubicWeights[] SemiBicubicWeights = makeSemiBicubicWeightsLUT(rowColLUT);
-		SemiBicubicLUT[] SemiBicubicLUT = new SemiBicubicLUT[rowColLUT.length];
-
-		for (int i = 0; i < rowColLUT.length; i++) {
-			SemiBicubicLUT[i] = new SemiBicubicLUT();
-			SemiBicubicLUT[i].col = rowColLUT[i].col;
-			SemiBicubicLUT[i].row = rowColLUT[i].row;
-			SemiBicubicLUT[i].w0 = SemiBicubicWeights[i].w0;
-			SemiBicubicLUT[i].w1 = SemiBicubicWeights[i].w1;
-			SemiBicubicLUT[i].w2 = SemiBicubicWeights[i].w2;
-			SemiBicubicLUT[i].w3 = SemiBicubicWeights[i].w3;
-			SemiBicubicLUT[i].w4 = SemiBicubicWeights[i].w4;
-			SemiBicubicLUT[i].w5 = SemiBicubicWeights[i].w5;
-			SemiBicubicLUT[i].w6 = SemiBicubicWeights[i].w6;
-			SemiBicubicLUT[i].w7 = SemiBicubicWeights[i].w7;
+	protected SemiBicubicLUT makeSemiBicubicLUT(int polarWidth, int polarHeight, int padFactor) {
+		int cartWidth = polarWidth / padFactor;
+		int lutSize = cartWidth * cartWidth;
+		float[] lutRow = new float[lutSize];
+		float[] lutCol = new float[lutSize];
+		makeRowColLUT(polarWidth, polarHeight, padFactor, lutRow, lutCol);
+
+		SemiBicubicLUT sbc = new SemiBicubicLUT();
+		sbc.polarWidth = polarWidth;
+		sbc.base = new int[lutSize];
+		sbc.w0 = new float[lutSize];
+		sbc.w1 = new float[lutSize];
+		sbc.w2 = new float[lutSize];
+		sbc.w3 = new float[lutSize];
+		sbc.w4 = new float[lutSize];
+		sbc.w5 = new float[lutSize];
+		sbc.w6 = new float[lutSize];
+		sbc.w7 = new float[lutSize];
+		makeSemiBicubicWeightsLUT(lutRow, lutCol, sbc);
+
+		for (int i = 0; i < lutSize; i++) {
+			// out of range polar addresses are marked with -1
+			if (lutCol[i] > -1) {
+				sbc.base[i] = (int) lutCol[i] - 1 + (int) lutRow[i] * polarWidth;
+			} else {
+				sbc.base[i] = -1;
+			}
 		}
-		return SemiBicubicLUT;
+		return sbc;
 	}
 
 
-	private float[] getRow(float[] data2D, int dataWidth, int row) {
-		float[] rowData = new float[dataWidth];
-		for (int i = 0; i < dataWidth; i++) {
-			rowData[i] = data2D[i + row * dataWidth];
-		}
-		return rowData;
-	}
-
 	/**
 	 * Creates a table of the column and row locations that map a polar FT to a
 	 * Cartesian FT<br>
@@ -230,10 +489,11 @@ public class DFIutils {
 	 *                    zero padded parallel-beam sinogram.
 	 * @param padFactor   The factor used to pad the original sinogram, use 1 for no
 	 *                    padding.
-	 * @return A RowColLUT[] with column and row locations that map a polar FT to a
-	 *         Cartesian FT.
+	 * @param lutRow      Receives the polar row of each Cartesian pixel
+	 * @param lutCol      Receives the polar column of each Cartesian pixel, -1
+	 *                    marks pixels outside the polar FT
 	 */
-	private RowColLUT[] makeRowColLUT(int polarWidth, int polarHeight, int padFactor) {
+	private void makeRowColLUT(int polarWidth, int polarHeight, int padFactor, float[] lutRow, float[] lutCol) {
 		int ii, jj;
 		int halfPolarWidth = polarWidth / 2;
 
@@ -243,11 +503,9 @@ public class DFIutils {
 		int cartHalfHeight = cartHeight / 2;
 
 		// Initialize the LUT with a negative number
-		RowColLUT[] rowColLUT = new RowColLUT[cartWidth * cartHeight];
-		for (int i = 0; i < rowColLUT.length; i++) {
-			rowColLUT[i] = new RowColLUT();
-			rowColLUT[i].row = -1;
-			rowColLUT[i].col = -1;
+		for (int i = 0; i < lutCol.length; i++) {
+			lutRow[i] = -1;
+			lutCol[i] = -1;
 		}
 
 		float column, row;
@@ -266,26 +524,26 @@ public class DFIutils {
 
 				if (column < halfPolarWidth) {
 					// upper left quadrant
-					rowColLUT[i + j * cartWidth].col = column;
-					rowColLUT[i + j * cartWidth].row = row;
+					lutCol[i + j * cartWidth] = column;
+					lutRow[i + j * cartWidth] = row;
 
 					// generate the lower left quadrant by symmetry
 					ii = j;
 					jj = cartHeight - i;
-					rowColLUT[ii + jj * cartWidth].col = polarWidth - column;
-					rowColLUT[ii + jj * cartWidth].row = polarHeight / 2 + row;
+					lutCol[ii + jj * cartWidth] = polarWidth - column;
+					lutRow[ii + jj * cartWidth] = polarHeight / 2 + row;
 
 					// generate the upper right quadrant by symmetry
 					ii = cartWidth - j;
 					jj = i;
-					rowColLUT[ii + jj * cartWidth].col = column;
-					rowColLUT[ii + jj * cartWidth].row = polarHeight / 2 + row;
+					lutCol[ii + jj * cartWidth] = column;
+					lutRow[ii + jj * cartWidth] = polarHeight / 2 + row;
 
 					// generate the lower right quadrant by symmetry
 					ii = cartWidth - i;
 					jj = cartHeight - j;
-					rowColLUT[ii + jj * cartWidth].col = polarWidth - column;
-					rowColLUT[ii + jj * cartWidth].row = row;
+					lutCol[ii + jj * cartWidth] = polarWidth - column;
+					lutRow[ii + jj * cartWidth] = row;
 				}
 			}
 		}
@@ -294,30 +552,28 @@ public class DFIutils {
 		for (int j = 0, i = 0; i < cartWidth; i++) // the horizontal direction
 		{
 			// the Cartesian points fall directly on the polar points
-			rowColLUT[i + j * cartWidth].col = i * padFactor;
-			rowColLUT[i + j * cartWidth].row = 0;
+			lutCol[i + j * cartWidth] = i * padFactor;
+			lutRow[i + j * cartWidth] = 0;
 		}
 
 		// copy the 90 degree data
 		for (int i = 0, j = 1; j < cartHeight; j++) // the vertical direction
 		{
 			// again the Cartesian points fall directly on the polar points
-			rowColLUT[i + j * cartWidth].col = j * padFactor;
-			rowColLUT[i + j * cartWidth].row = polarHeight / 2;
+			lutCol[i + j * cartWidth] = j * padFactor;
+			lutRow[i + j * cartWidth] = polarHeight / 2;
 		}
-		return rowColLUT;
 	}
 
 	// This method rotates the reconstructed image about -0.1 degrees!!
-	private SemiBicubicWeights[] makeSemiBicubicWeightsLUT(RowColLUT[] rowColLUT) {
-		SemiBicubicWeights[] sbc = new SemiBicubicWeights[rowColLUT.length];
+	private void makeSemiBicubicWeightsLUT(float[] lutRow, float[] lutCol, SemiBicubicLUT sbc) {
 		float column, row;
 		float x, A, B, C, D, B1, C1, w0, w1;
 		int iCol, iRow;
 
-		for (int i = 0; i < rowColLUT.length; i++) {
-			column = rowColLUT[i].col;
-			row = rowColLUT[i].row;
+		for (int i = 0; i < lutCol.length; i++) {
+			column = lutCol[i];
+			row = lutRow[i];
 			iCol = (int) column;
 			iRow = (int) row;
 			x = column - iCol;
@@ -337,73 +593,74 @@ public class DFIutils {
 			C = -C * C1;
 			D = C1 * D * .16666667f;
 
-			sbc[i] = new SemiBicubicWeights();
-			sbc[i].w0 = w0 * A;
-			sbc[i].w1 = w0 * B;
-			sbc[i].w2 = w0 * C;
-			sbc[i].w3 = w0 * D;
+			sbc.w0[i] = w0 * A;
+			sbc.w1[i] = w0 * B;
+			sbc.w2[i] = w0 * C;
+			sbc.w3[i] = w0 * D;
 
-			sbc[i].w4 = w1 * A;
-			sbc[i].w5 = w1 * B;
-			sbc[i].w6 = w1 * C;
-			sbc[i].w7 = w1 * D;
+			sbc.w4[i] = w1 * A;
+			sbc.w5[i] = w1 * B;
+			sbc.w6[i] = w1 * C;
+			sbc.w7[i] = w1 * D;
 		}
-		return sbc;
 	}
 
 	/**
-	 * @param polarWidth  The width of the padded polar image
-	 * @param polarHeight The height of the padded polar image
-	 * @param padFactor   The factor 2,4,6,8 used to expand the width of the
-	 *                    original polar image with zeros
-	 * @return A Cartesian version of the polar FT
+	 * Interpolates the real and imaginary polar FTs to Cartesian FTs in one pass
+	 * through the lookup table. Does not allocate, the first cartPixels of the
+	 * Cartesian arrays are overwritten.
+	 * 
+	 * @param polarRe The real part of the polar FT
+	 * @param polarIm The imaginary part of the polar FT
+	 * @param cartRe  Receives the real part of the Cartesian FT
+	 * @param cartIm  Receives the imaginary part of the Cartesian FT
+	 * @param sbc     The SemiBicubic lookup table for the polar FT geometry
+	 * @param cartPixels The number of Cartesian pixels to interpolate, starting
+	 *                   from the first row
 	 */
-	private float[] polarToCartesianSemiBicubic(float[] polarData, int polDataWidth, int padFactor,
-			SemiBicubicLUT[] sbcw) {
-		int cartDim = polDataWidth / padFactor;
-		float[] cartData = new float[cartDim * cartDim];
-		float pixVal;
-		int iCol, jRow;
-		float col, row;
-
-		for (int i = 1; i < cartData.length; i++) {
-			col = sbcw[i].col;
+	private void polarToCartesianSemiBicubic(float[] polarRe, float[] polarIm, float[] cartRe, float[] cartIm,
+			SemiBicubicLUT sbc, int cartPixels) {
+		int polarWidth = sbc.polarWidth;
+		int[] base = sbc.base;
+		float[] w0 = sbc.w0, w1 = sbc.w1, w2 = sbc.w2, w3 = sbc.w3;
+		float[] w4 = sbc.w4, w5 = sbc.w5, w6 = sbc.w6, w7 = sbc.w7;
+		float re, im;
+		int lo, hi;
+
+		for (int i = 1; i < cartPixels; i++) {
+			lo = base[i];
 			// out of range polar addresses are marked with -1
-			if (col > -1) {
-				row = sbcw[i].row;
-				iCol = (int) col;
-				jRow = (int) row;
-
-				pixVal = polarData[iCol - 1 + jRow * polDataWidth] * sbcw[i].w0;
-				pixVal += polarData[iCol + 0 + jRow * polDataWidth] * sbcw[i].w1;
-				pixVal += polarData[iCol + 1 + jRow * polDataWidth] * sbcw[i].w2;
-				pixVal += polarData[iCol + 2 + jRow * polDataWidth] * sbcw[i].w3;
-
-				pixVal += polarData[iCol - 1 + (jRow + 1) * polDataWidth] * sbcw[i].w4;
-				pixVal += polarData[iCol + 0 + (jRow + 1) * polDataWidth] * sbcw[i].w5;
-				pixVal += polarData[iCol + 1 + (jRow + 1) * polDataWidth] * sbcw[i].w6;
-				pixVal += polarData[iCol + 2 + (jRow + 1) * polDataWidth] * sbcw[i].w7;
-
-				cartData[i] = pixVal;
+			if (lo > -1) {
+				hi = lo + polarWidth;
+
+				re = polarRe[lo] * w0[i];
+				re += polarRe[lo + 1] * w1[i];
+				re += polarRe[lo + 2] * w2[i];
+				re += polarRe[lo + 3] * w3[i];
+				re += polarRe[hi] * w4[i];
+				re += polarRe[hi + 1] * w5[i];
+				re += polarRe[hi + 2] * w6[i];
+				re += polarRe[hi + 3] * w7[i];
+
+				im = polarIm[lo] * w0[i];
+				im += polarIm[lo + 1] * w1[i];
+				im += polarIm[lo + 2] * w2[i];
+				im += polarIm[lo + 3] * w3[i];
+				im += polarIm[hi] * w4[i];
+				im += polarIm[hi + 1] * w5[i];
+				im += polarIm[hi + 2] * w6[i];
+				im += polarIm[hi + 3] * w7[i];
+
+				cartRe[i] = re;
+				cartIm[i] = im;
+			} else {
+				cartRe[i] = 0;
+				cartIm[i] = 0;
 			}
-
 		}
 		// SemiBicubic does not interpolate the DC term
-		cartData[0] = polarData[0];
-		// copy the 0 degree data gives no improvement
-//		for (int ii = 0; ii < cartDim; ii++) // the horizontal direction
-//		{
-//			// the Cartesian points fall directly on the polar points
-//			cartData[ii] = polarData[ii * padFactor];
-//		}
-
-		return cartData;
-	}
-
-	private void putRow(float[] rowData, float[] data2D, int dataWidth, int row) {
-		for (int i = 0; i < dataWidth; i++) {
-			data2D[i + row * dataWidth] = rowData[i];
-		}
+		cartRe[0] = polarRe[0];
+		cartIm[0] = polarIm[0];
 	}
 
 }
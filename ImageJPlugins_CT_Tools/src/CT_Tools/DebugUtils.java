@@ -13,44 +13,26 @@ import ij.process.ImageProcessor;
 public class DebugUtils {
 
 	public void showDebugImage(String title,Object image, int width, int height) {
-		if (image instanceof RowColLUT[]) {
-			RowColLUT[] data = (RowColLUT[]) image;
-
-			ImagePlus imp = IJ.createImage("title", width, height, 2, 32);
-			ImageStack stk = imp.getStack();
-
-			int k = 0;
-			for (int i = 0; i < width; i++) {
-				for (int j = 0; j < width; j++) {
-					stk.getProcessor(1).putPixelValue(i, j, data[k].row);
-					stk.getProcessor(2).putPixelValue(i, j, data[k].col);
-					k++;
-				}
-			}
-			stk.setSliceLabel("Row", 1);
-			stk.setSliceLabel("Column", 2);
-			imp.show();
-			IJ.run(imp, "Enhance Contrast", "saturated=0.35");
-		}
-
-		else if (image instanceof SemiBicubicLUT[]) {
-			SemiBicubicLUT[] data = (SemiBicubicLUT[]) image;
+		if (image instanceof SemiBicubicLUT) {
+			SemiBicubicLUT data = (SemiBicubicLUT) image;
+			float[][] planes = { data.w0, data.w1, data.w2, data.w3, data.w4, data.w5, data.w6, data.w7 };
 
 			ImagePlus sbcImp = IJ.createImage(title, width, height, 10, 32);
 			int k = 0;
 			ImageStack stk = sbcImp.getStack();
 			for (int i = 0; i < width; i++) {
 				for (int j = 0; j < width; j++) {
-					stk.getProcessor(1).putPixelValue(i, j, data[k].row);
-					stk.getProcessor(2).putPixelValue(i, j, data[k].col);
-					stk.getProcessor(3).putPixelValue(i, j, data[k].w0);
-					stk.getProcessor(4).putPixelValue(i, j, data[k].w1);
-					stk.getProcessor(5).putPixelValue(i, j, data[k].w2);
-					stk.getProcessor(6).putPixelValue(i, j, data[k].w3);
-					stk.getProcessor(7).putPixelValue(i, j, data[k].w4);
-					stk.getProcessor(8).putPixelValue(i, j, data[k].w5);
-					stk.getProcessor(9).putPixelValue(i, j, data[k].w6);
-					stk.getProcessor(10).putPixelValue(i, j, data[k].w7);
+					// the row and column of the lower left polar pixel, -1 if out of range
+					if (data.base[k] > -1) {
+						stk.getProcessor(1).putPixelValue(i, j, data.base[k] / data.polarWidth);
+						stk.getProcessor(2).putPixelValue(i, j, data.base[k] % data.polarWidth + 1);
+					} else {
+						stk.getProcessor(1).putPixelValue(i, j, -1);
+						stk.getProcessor(2).putPixelValue(i, j, -1);
+					}
+					for (int w = 0; w < planes.length; w++) {
+						stk.getProcessor(w + 3).putPixelValue(i, j, planes[w][k]);
+					}
 					k++;
 				}
 			}
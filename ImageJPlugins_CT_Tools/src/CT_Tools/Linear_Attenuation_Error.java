@@ -5,10 +5,12 @@ import java.awt.Font;
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.WindowManager;
 import ij.gui.GenericDialog;
 import ij.plugin.LutLoader;
 import ij.plugin.PlugIn;
+import ij.process.StackStatistics;
 import jhd.MuMassCalculator.*;
 import tagTools.TagListImageTools;
 import tagTools.TagListTools;
@@ -16,7 +18,8 @@ import tagTools.TagListTools.TagSet;
 
 /**Displays the difference of linear attenuation between<br>
  * a reconstructed slice and a model slice calculated at a <br>
- * given X-ray energy from a tag image.
+ * given X-ray energy from a tag image.<br>
+ * Stacks are processed in parallel, a single tag slice is applied to every CT slice.
  * TODO replace with simple macro.
  */
 public class Linear_Attenuation_Error implements PlugIn {
@@ -65,28 +68,27 @@ public class Linear_Attenuation_Error implements PlugIn {
 			IJ.error("Linear_Attenuation_Error Error","CT and Tag images must be 32 bit and the same size.");			
 			return;
 		}
+		if(modelImp.getStackSize()!=1 && modelImp.getStackSize()!=dataImp.getStackSize())
+		{
+			IJ.error("Linear_Attenuation_Error Error","The Tag image must be one slice or have as many slices as the CT image.");			
+			return;
+		}
 
-		//CT_Recon images are shifted -1 pixel wrt tagimage
-		IJ.run(modelImp, "Translate...", "x=1 y=0 interpolation=None");
-
-		float [] dataPix =(float[]) dataImp.getProcessor().getPixels();
-		//float [] modelPix =(float[]) modelImp.getProcessor().getPixels();
-		ImagePlus errImp = modelImp.duplicate();
-		float[] errPix = (float[]) errImp.getProcessor().getPixels();
-		boolean ok = matlImgTools.tagsToLinearAttn(errPix, myTagSet, keV);
+		//One muLin table for all of the tags in the model
+		int[] tagArr = matlImgTools.getUniqueTags(modelImp.getStack());
+		final float[] muLinArr = matlImgTools.getMuLinTable(tagArr, myTagSet, keV);
 
-		if(ok)		
+		if(muLinArr!=null)		
 		{
-			for(int i =0;i<errPix.length;i++)
-			{
-				errPix[i] = dataPix[i]-errPix[i];
-			}
-			errImp.setTitle("Attenuation error (cm-1) at "+keV+"keV");
-			//undo model x translation
-			IJ.run(modelImp, "Translate...", "x=-1 y=0 interpolation=None");
-			//suppress noise
-			IJ.run(errImp, "Median...", "radius=0.5");		
-			errImp.getProcessor().setMinAndMax(errImp.getStatistics().min, errImp.getStatistics().max);
+			final int lastTag = muLinArr.length-1;
+			//CT_Recon images are shifted -1 pixel wrt tagimage, the model is read 1 pixel to the left
+			//the error is median filtered to suppress noise in the same pass
+			ImageStack errStk = TagPixelMapper.map(dataImp.getStack(), modelImp.getStack(), 1,
+					(data,tag) -> data - (tag>=0 && tag<=lastTag ? muLinArr[tag] : 0f), true);
+			ImagePlus errImp = new ImagePlus("Attenuation error (cm-1) at "+keV+"keV", errStk);
+			errImp.setCalibration(modelImp.getCalibration());
+			StackStatistics stats = new StackStatistics(errImp);
+			errImp.setDisplayRange(stats.min, stats.max);
 			errImp.show();
 			new LutLoader().run("grays");
 		}
@@ -5,18 +5,27 @@ import java.awt.Font;
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.WindowManager;
 import ij.gui.GenericDialog;
 import ij.plugin.LutLoader;
 import ij.plugin.PlugIn;
+import ij.plugin.filter.RankFilters;
+import ij.process.FloatProcessor;
+import ij.process.StackStatistics;
 import jhd.MuMassCalculator.*;
 import tagTools.TagListImageTools;
+import tagTools.TagListImageTools.MuLinInverse;
 import tagTools.TagListTools;
 import tagTools.TagListTools.TagSet;
 
 /**Computes the effective x-ray energy at each image pixel using <br>
  * the reconstructed linear attenuation and known composition(tag image)<br>
- * Images must be the same size.
+ * Images must be the same size.<br>
+ * Stacks are processed in parallel, a single tag slice is applied to every CT slice.<br>
+ * The energies are interpolated from per tag inverse tables. The Exact option solves
+ * every pixel with MuMassCalculator.getMeVfromMuLin, one slice at a time, as earlier
+ * versions did.
  */
 public class Linear_Attenuation_To_Eeff implements PlugIn {
 
@@ -52,6 +61,7 @@ public class Linear_Attenuation_To_Eeff implements PlugIn {
 
 		dataImageName = gd.getNextChoice();
 		modelImageName   = gd.getNextChoice();
+		boolean exact = gd.getNextBoolean();
 
 		dataImp = WindowManager.getImage(dataImageName);
 		modelImp = WindowManager.getImage(modelImageName);
@@ -64,25 +74,39 @@ public class Linear_Attenuation_To_Eeff implements PlugIn {
 			return;
 		}
 
-		//CT_Recon images are shifted -1 pixel wrt tagimage
-		IJ.run(modelImp, "Translate...", "x=1 y=0 interpolation=None");
+		if(modelImp.getStackSize()!=1 && modelImp.getStackSize()!=dataImp.getStackSize())
+		{
+			IJ.error("Linear_Attenuation_To_Eeff Error","The Tag image must be one slice or have as many slices as the CT image.");			
+			return;
+		}
 
-		float [] dataPix =(float[]) dataImp.getProcessor().getPixels();
-		float [] modelPix =(float[]) modelImp.getProcessor().getPixels();
-		float[] effPix = matlImgTools.muLinandTagsToMevImage(dataPix,modelPix,myTagSet);
+		ImageStack effStk;
+		if(exact)
+		{
+			effStk = getExactMeVStack(dataImp.getStack(), modelImp.getStack(), myTagSet);
+		}
+		else
+		{
+			//One muLin to MeV inverse for each material in the model
+			int[] tagArr = matlImgTools.getUniqueTags(modelImp.getStack());
+			final MuLinInverse[] inverseLUT = matlImgTools.getMuLinInverseTable(tagArr, myTagSet);
+			final int lastTag = inverseLUT.length-1;
+
+			//CT_Recon images are shifted -1 pixel wrt tagimage, the model is read 1 pixel to the left
+			//the energies are converted from MeV to keV and median filtered to suppress noise in the same pass
+			effStk = TagPixelMapper.map(dataImp.getStack(), modelImp.getStack(), 1,
+					(data,tag) -> {
+						MuLinInverse inverse = tag>0 && tag<=lastTag ? inverseLUT[tag] : null;
+						return inverse==null ? 0f : (float)(inverse.getMeV(data)*1000);
+					}, true);
+		}
 		
-		if(effPix!=null)
+		if(effStk!=null)
 		{
-			//convert from MeV to keV
-			for(int i=0;i<effPix.length;i++) effPix[i]*=1000;
-			ImagePlus effImp = dataImp.duplicate();
-			effImp.getProcessor().setPixels(effPix);			
-			effImp.setTitle("Effective X-ray Energy (keV)");
-			//undo model x translation
-			IJ.run(modelImp, "Translate...", "x=-1 y=0 interpolation=None");
-			//suppress noise
-			IJ.run(effImp, "Median...", "radius=0.5");		
-			effImp.getProcessor().setMinAndMax(effImp.getStatistics().min, effImp.getStatistics().max);
+			ImagePlus effImp = new ImagePlus("Effective X-ray Energy (keV)", effStk);
+			effImp.setCalibration(dataImp.getCalibration());
+			StackStatistics stats = new StackStatistics(effImp);
+			effImp.setDisplayRange(stats.min, stats.max);
 			effImp.show();
 			new LutLoader().run("grays");
 		}
@@ -94,6 +118,36 @@ public class Linear_Attenuation_To_Eeff implements PlugIn {
 
 	//***************************************************************
 
+	//Solves every pixel with getMeVfromMuLin, one slice at a time
+	private ImageStack getExactMeVStack(ImageStack dataStk, ImageStack modelStk, TagSet tagSet)
+	{
+		int width = dataStk.getWidth(), height = dataStk.getHeight();
+		ImageStack effStk = new ImageStack(width, height);
+		RankFilters rf = new RankFilters();
+		for(int slice=1;slice<=dataStk.getSize();slice++)
+		{
+			IJ.showStatus("Effective energy slice " + slice + " of " + dataStk.getSize());
+			//CT_Recon images are shifted -1 pixel wrt tagimage, as Translate x=1 the model is read 1 pixel to the left
+			float[] modelPix = (float[])modelStk.getPixels(modelStk.getSize()==1 ? 1 : slice);
+			float[] shiftedPix = new float[width*height];
+			for(int y=0;y<height;y++)
+			{
+				System.arraycopy(modelPix, y*width, shiftedPix, y*width+1, width-1);
+			}
+			float[] effPix = matlImgTools.muLinandTagsToMevImage((float[])dataStk.getPixels(slice), shiftedPix, tagSet, true);
+			if(effPix==null) return null;
+			//convert from MeV to keV
+			for(int i=0;i<effPix.length;i++) effPix[i]*=1000;
+			//suppress noise
+			FloatProcessor effIp = new FloatProcessor(width, height, effPix);
+			rf.rank(effIp, 0.5, RankFilters.MEDIAN);
+			effStk.addSlice(dataStk.getSliceLabel(slice), effIp);
+		}
+		return effStk;
+	}
+
+	//***************************************************************
+
 	private void doDialog()
 	{
 		
@@ -109,6 +163,7 @@ public class Linear_Attenuation_To_Eeff implements PlugIn {
 		gd.addMessage("Convert Linear Attenuations to effective energy",myFont);
 		gd.addChoice("CT Slice:", winTitles, winTitles[0]);
 		gd.addChoice("Tag Image:", winTitles, winTitles[0]);
+		gd.addCheckbox("Exact (slow)", false);
 		gd.setBackground(myColor);
 		gd.setIconImage(new ResourceReader().readImageFile("LazzyIzzi-32.png"));
 		gd.showDialog();
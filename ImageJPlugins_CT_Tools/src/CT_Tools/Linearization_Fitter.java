@@ -2,6 +2,7 @@ package CT_Tools;
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.Prefs;
 import ij.WindowManager;
 import ij.gui.*;
 
@@ -13,6 +14,8 @@ import ij.measure.ResultsTable;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 import jhd.ImageJAddins.GenericDialogAddin;
 import jhd.ImageJAddins.GenericDialogAddin.*;
@@ -43,6 +46,8 @@ for(keV=100;keV<251;keV+=5)
 }
 run("Images to Stack", "name=BeamHardeningPlot title=BeamHardening use");
 
+The Energy sweep option does the same fits for every energy in one pass
+and lists them in the "Fit Parameters Energy Sweep" table.
  */
 
 public class Linearization_Fitter implements PlugIn , DialogListener ,ActionListener
@@ -52,7 +57,6 @@ public class Linearization_Fitter implements PlugIn , DialogListener ,ActionList
 	GenericDialog gd;
 	GenericDialogAddin gda;
 
-	CurveFitter crvfit;
 	ImagePlus dataImp,modelImp;
 	ImageProcessor ip;
 	Font myFont = new Font(Font.DIALOG, Font.BOLD, 12);
@@ -76,6 +80,28 @@ public class Linearization_Fitter implements PlugIn , DialogListener ,ActionList
 	String phiImageName;
 	
 	final int nViews = 18;
+	
+	//The fits reported for each energy, in table order
+	final int[] fitTypes = {CurveFitter.POLY6,CurveFitter.POLY5,CurveFitter.POLY4,CurveFitter.POLY3,
+			CurveFitter.POLY2,CurveFitter.INV_RODBARD,CurveFitter.STRAIGHT_LINE};
+	final String[] hdr = {"A","B","C","D","E","F","G","H"};
+	
+	//The polynomials are always fitted to all of the points. For larger projection sets
+	//CurveFitter's fits use the centroids of a binGridSize^2 2D histogram and the points
+	//are plotted as a sample of maxPlotPoints
+	final int maxFitPoints = 20000;
+	final int binGridSize = 256;
+	final int maxPlotPoints = 20000;
+	
+	boolean energySweep;
+	double sweepFromKeV,sweepToKeV,sweepIncKeV;
+	
+	private class FitResult
+	{
+		int fitType;
+		double[] params;
+		double rSqr;
+	}
 
 	//*****************************************************************
 
@@ -96,6 +122,7 @@ public class Linearization_Fitter implements PlugIn , DialogListener ,ActionList
 	NumericField kevNF;
 	NumericField kevIncNF;
 	ButtonField upBtnBF,downBtnBF;
+	NumericField sweepFromNF,sweepToNF,sweepIncNF;
 	private void DoDialog()
 	{
 		String dir = IJ.getDirectory("plugins");
@@ -149,9 +176,19 @@ public class Linearization_Fitter implements PlugIn , DialogListener ,ActionList
 			TextField tf = (TextField)gd.getNumericFields().get(0);
 			gd.addToSameRow();
 			gd.addPanel(sp.addSpinner(tf,"estKev", 5.0));
+			
+			gd.addCheckbox("Energy_sweep", false);
+			gd.addNumericField("Sweep_from_keV", 50);
+			sweepFromNF = gda.getNumericField(gd, null, "sweepFrom");
+			gd.addNumericField("Sweep_to_keV", 250);
+			sweepToNF = gda.getNumericField(gd, null, "sweepTo");
+			gd.addNumericField("Sweep_step_keV", 5);
+			sweepIncNF = gda.getNumericField(gd, null, "sweepInc");
 					
 			gd.addMessage("After clicking OK\n"
 					+ "Do not close the \"Fit Parameters\" Window.\n"
+					+ "With Energy sweep checked every energy in the\n"
+					+ "sweep range is fitted when OK is clicked.\n"
 					+ "Use the Apply Linearization plugin to select\n"
 					+ "a \"Fit Parameters\" fit to apply to the CT slice's original sinogram",myFont,Color.BLACK);
 			gd.addHelp("https://lazzyizzi.github.io/CT_ReconPages/Linearization.html");
@@ -159,7 +196,11 @@ public class Linearization_Fitter implements PlugIn , DialogListener ,ActionList
 			gd.setIconImage(new ResourceReader().readImageFile("LazzyIzzi-32.png"));
 			gd.showDialog();
 
-			if(gd.wasOKed())
+			if(gd.wasOKed() && energySweep)
+			{
+				sweepEnergies();
+			}
+			else if(gd.wasOKed())
 			{
 				fitAttenuations();
 				PlotWindow plotWin = (PlotWindow)WindowManager.getWindow("BeamHardening Plot");
@@ -189,6 +230,10 @@ public class Linearization_Fitter implements PlugIn , DialogListener ,ActionList
 			modelImageName   = gd.getNextChoice();
 			phiImageName   = gd.getNextChoice();	
 			keV=gd.getNextNumber();
+			sweepFromKeV=gd.getNextNumber();
+			sweepToKeV=gd.getNextNumber();
+			sweepIncKeV=gd.getNextNumber();
+			energySweep=gd.getNextBoolean();
 		}
 		catch (Exception e)
 		{
@@ -204,13 +249,15 @@ public class Linearization_Fitter implements PlugIn , DialogListener ,ActionList
 		}
 	}
 
-	private void fitAttenuations()
+	//*****************************************************************
+
+	/**Gets the selected images and checks their sizes and units
+	 * @return The porosity image or null if the images cannot be used
+	 */
+	private ImagePlus getCheckedImages()
 	{
 		ImagePlus phiImp;
 
-		getSelections();
-		
-		
 		//Get the CTslice  and model data
 		dataImp = WindowManager.getImage(dataImageName);
 		modelImp = WindowManager.getImage(modelImageName);
@@ -234,7 +281,7 @@ public class Linearization_Fitter implements PlugIn , DialogListener ,ActionList
 				dataImp.getWidth()	== phiImp.getHeight()))
 		{
 			IJ.error("Selected images must be square and of equal size.");			
-			return;
+			return null;
 		}
 		
 		String dataUnit = dataImp.getCalibration().getUnit().toUpperCase();
@@ -242,8 +289,18 @@ public class Linearization_Fitter implements PlugIn , DialogListener ,ActionList
 		if(!dataUnit.equals("CM") || !modelUnit.equals("CM"))
 		{
 			IJ.error("Pixel units in both images must be cm");
-			return;
+			return null;
 		}
+		return phiImp;
+	}
+
+	//*****************************************************************
+
+	private void fitAttenuations()
+	{
+		getSelections();
+		ImagePlus phiImp = getCheckedImages();
+		if(phiImp==null) return;
 		
 		//Projection comparison.
 		ParallelProjectors parPrj = new ParallelProjectors();
@@ -273,6 +330,16 @@ public class Linearization_Fitter implements PlugIn , DialogListener ,ActionList
 			modelProj[i] += (double) modelSino[i]*pixSize;
 		}
 		
+		//Plotting every point of a large image is slow, plot a sample
+		int[] plotIndex = ScatterBinner.sampleIndices(dataProj.length, maxPlotPoints, 0);
+		double[] plotData = new double[plotIndex.length];
+		double[] plotModel = new double[plotIndex.length];
+		for(int i=0;i<plotIndex.length;i++)
+		{
+			plotData[i] = dataProj[plotIndex[i]];
+			plotModel[i] = modelProj[plotIndex[i]];
+		}
+		
 		//Plot the data
 		Plot tauPlot;
 		PlotWindow plotWin = (PlotWindow)WindowManager.getWindow("BeamHardening Plot");
@@ -281,14 +348,14 @@ public class Linearization_Fitter implements PlugIn , DialogListener ,ActionList
 			tauPlot = new Plot("BeamHardening Plot", "Data Attn.","Model Attn.");		
 		   	tauPlot.setBackgroundColor(buff);
 		   	tauPlot.setFontSize(14);
-			tauPlot.addPoints(dataProj, modelProj, Plot.DOT);
+			tauPlot.addPoints(plotData, plotModel, Plot.DOT);
 			tauPlot.show();
 			plotWin = (PlotWindow)WindowManager.getWindow("BeamHardening Plot");
 		}
 		tauPlot = plotWin.getPlot();
 		tauPlot.setColor(Color.RED);
 		tauPlot.setLineWidth(1.5f);		
-		tauPlot.replace(0, "dot", dataProj, modelProj);
+		tauPlot.replace(0, "dot", plotData, plotModel);
 		tauPlot.setLimitsToFit(true);
 		
 		String str  =  "Data: " + dataImageName;
@@ -304,102 +371,280 @@ public class Linearization_Fitter implements PlugIn , DialogListener ,ActionList
 		if(fitRT==null) fitRT = new ResultsTable();
 		fitRT.setPrecision(5);
 		fitRT.deleteRows(0, fitRT.getCounter());
-		String[] hdr = {"A","B","C","D","E","F","G","H"};
-
-		double[] fitParams;
-		int i;
+		addFits(fitRT, fitProjections(dataProj, modelProj), keV);
 		
-		fitRT.incrementCounter();		
-		crvfit = new CurveFitter(dataProj,modelProj);
-		crvfit.doFit(CurveFitter.POLY6);
-		fitParams = crvfit.getParams();
-		fitRT.addValue("Fit", CurveFitter.fitList[CurveFitter.POLY6]);
-		fitRT.addValue("R^2", crvfit.getRSquared());
-		fitRT.addValue("Eeff", keV);		
-		for(i=0;i< fitParams.length-1;i++)
+		fitRT.show("Fit Parameters");
+		//TextWindow rtWin = (TextWindow)WindowManager.getWindow("Fit Parameters");
+		//int rtHeight = rtWin.getHeight();
+		//rtWin.setSize(800,rtHeight);				
+	}
+
+	//*****************************************************************
+
+	/**Fits the data and model projections for every energy in the sweep range.<br>
+	 * The data sinogram does not depend on energy and the model sinogram is the sum of the
+	 * material path length sinograms times the material linear attenuations, so every
+	 * image is projected once and the energies are fitted in parallel.
+	 */
+	private void sweepEnergies()
+	{
+		getSelections();
+		if(!(sweepFromKeV>=1 && sweepToKeV>=sweepFromKeV && sweepIncKeV>0))
 		{
-			fitRT.addValue(hdr[i], fitParams[i]);
+			IJ.error("The sweep range must start at 1keV or more and the step must be positive.");
+			return;
 		}
+		ImagePlus phiImp = getCheckedImages();
+		if(phiImp==null) return;
 		
-	
-		fitRT.incrementCounter();
-		crvfit = new CurveFitter(dataProj,modelProj);
-		crvfit.doFit(CurveFitter.POLY5);
-		fitParams = crvfit.getParams();
-		fitRT.addValue("Fit", CurveFitter.fitList[CurveFitter.POLY5]);
-		for(i=0;i< fitParams.length-1;i++)
+		ParallelProjectors parPrj = new ParallelProjectors();
+		int width = dataImp.getWidth();
+		int sinoLen = width*nViews;
+		double pixSize = dataImp.getCalibration().pixelWidth;
+
+		float[] dataImg = (float[]) dataImp.getProcessor().getPixels();
+		float[] dataSino = parPrj.imageToParallelSinogram(dataImg, width, width, nViews);
+		double[] dataProj = new double[sinoLen];
+		for(int i = 0;i< sinoLen;i++) dataProj[i] = (double) dataSino[i]*pixSize;
+
+		//The path length through the solid part of each material in the model
+		float[] tagImg = (float[])modelImp.getProcessor().getPixels();
+		float[] phiImg = (float[])phiImp.getProcessor().getPixels();
+		int[] tags = tagListImageTools.getUniqueTags(tagImg);
+		String[] formula = new String[tags.length];
+		double[] gmPerCC = new double[tags.length];
+		double[][] pathProj = new double[tags.length][];
+		float[] solidImg = new float[tagImg.length];
+		int nMatl = 0;
+		for(int tag : tags)
 		{
-			fitRT.addValue(hdr[i], fitParams[i]);
+			TagListTools.TagData tagData = null;
+			for(TagListTools.TagData td : myTagSet.tagData)
+			{
+				if(td.matlTag==tag) tagData = td;
+			}
+			if(tagData==null)
+			{
+				IJ.log("Linearization Fitter: Tag " + tag + " was not found in the materials list, it is treated as void");
+				continue;
+			}
+			for(int i=0;i<tagImg.length;i++)
+			{
+				solidImg[i] = (int)tagImg[i]==tag ? 1-phiImg[i] : 0;
+			}
+			float[] pathSino = parPrj.imageToParallelSinogram(solidImg, width, width, nViews);
+			pathProj[nMatl] = new double[sinoLen];
+			for(int i = 0;i< sinoLen;i++) pathProj[nMatl][i] = (double) pathSino[i]*pixSize;
+			formula[nMatl] = tagData.matlFormula;
+			gmPerCC[nMatl] = tagData.matlGmPerCC;
+			nMatl++;
 		}
-		fitRT.addValue("R^2", crvfit.getRSquared());
-		fitRT.addValue("Eeff", keV);		
-
-		fitRT.incrementCounter();
-		crvfit = new CurveFitter(dataProj,modelProj);
-		crvfit.doFit(CurveFitter.POLY4);
-		fitParams = crvfit.getParams();
-		fitRT.addValue("Fit", CurveFitter.fitList[CurveFitter.POLY4]);
-		for(i=0;i< fitParams.length-1;i++)
+
+		//The sweep energies and material attenuations
+		int nE = (int)Math.floor((sweepToKeV-sweepFromKeV)/sweepIncKeV + 1e-9) + 1;
+		double[] keVArr = new double[nE];
+		double[] meVArr = new double[nE];
+		for(int e=0;e<nE;e++)
 		{
-			fitRT.addValue(hdr[i], fitParams[i]);
+			keVArr[e] = sweepFromKeV + e*sweepIncKeV;
+			meVArr[e] = keVArr[e]/1000;
 		}
-		fitRT.addValue("R^2", crvfit.getRSquared());
-		fitRT.addValue("Eeff", keV);		
-
-		fitRT.incrementCounter();
-		fitRT.addValue("Eeff", keV);		
-		crvfit = new CurveFitter(dataProj,modelProj);
-		crvfit.doFit(CurveFitter.POLY3);
-		fitParams = crvfit.getParams();
-		for(i=0;i< fitParams.length-1;i++)
+		double[][] muLin = new double[nMatl][];
+		for(int m=0;m<nMatl;m++)
 		{
-			fitRT.addValue(hdr[i], fitParams[i]);
+			muLin[m] = SpectralTableCache.getMuLin(formula[m], gmPerCC[m], meVArr);
 		}
-		fitRT.addValue("R^2", crvfit.getRSquared());
-		fitRT.addValue("Fit", CurveFitter.fitList[CurveFitter.POLY3]);
-	
-		fitRT.incrementCounter();
-		crvfit = new CurveFitter(dataProj,modelProj);
-		crvfit.doFit(CurveFitter.POLY2);
-		fitParams = crvfit.getParams();
-		fitRT.addValue("Fit", CurveFitter.fitList[CurveFitter.POLY2]);
-		for(i=0;i< fitParams.length-1;i++)
+
+		final int matlCount = nMatl;
+		FitResult[][] results = new FitResult[nE][];
+		IJ.showStatus("Fitting " + nE + " energies");
+		IntStream.range(0, nE).parallel().forEach(e ->
+		{
+			double[] modelProj = new double[sinoLen];
+			for(int m=0;m<matlCount;m++)
+			{
+				double mu = muLin[m][e];
+				double[] path = pathProj[m];
+				for(int i = 0;i< sinoLen;i++) modelProj[i] += mu*path[i];
+			}
+			results[e] = fitProjections(dataProj, modelProj);
+		});
+
+		String title = "Fit Parameters Energy Sweep";
+		ResultsTable fitRT = ResultsTable.getResultsTable(title);
+		if(fitRT==null) fitRT = new ResultsTable();
+		fitRT.setPrecision(5);
+		fitRT.deleteRows(0, fitRT.getCounter());
+		for(int e=0;e<nE;e++)
 		{
-			fitRT.addValue(hdr[i], fitParams[i]);
+			addFits(fitRT, results[e], keVArr[e]);
 		}
-		fitRT.addValue("R^2", crvfit.getRSquared());
-		fitRT.addValue("Eeff", keV);		
-
-		fitRT.incrementCounter();
-		crvfit = new CurveFitter(dataProj,modelProj);
-		crvfit.doFit(CurveFitter.INV_RODBARD);
-		fitParams = crvfit.getParams();
-		fitRT.addValue("Fit", CurveFitter.fitList[CurveFitter.INV_RODBARD]);
-		for(i=0;i< fitParams.length-1;i++)
-		{				
-			fitRT.addValue(hdr[i], fitParams[i]);
+		fitRT.show(title);
+		IJ.showStatus("Energy sweep done");
+	}
+
+	//*****************************************************************
+
+	/**Fits the model vs data projections. The polynomials are solved exactly from all
+	 * of the points. Above maxFitPoints points CurveFitter's iterative fits are made to
+	 * the weighted centroids of a 2D histogram of the points, their R^2 and sum of
+	 * squared residuals are then recomputed from all of the points.
+	 */
+	private FitResult[] fitProjections(double[] dataProj, double[] modelProj)
+	{
+		if(dataProj.length<=maxFitPoints)
+		{
+			return doFits(dataProj,modelProj,dataProj,modelProj,null);
 		}
-		fitRT.addValue("R^2", crvfit.getRSquared());
-		fitRT.addValue("Eeff", keV);		
-			
-		fitRT.incrementCounter();
-		crvfit = new CurveFitter(dataProj,modelProj);
-		crvfit.doFit(CurveFitter.STRAIGHT_LINE);
-		fitParams = crvfit.getParams();	
-		fitRT.addValue("Fit", CurveFitter.fitList[CurveFitter.STRAIGHT_LINE]);
-		for(i=0;i< fitParams.length-1;i++)
-		{			
-			fitRT.addValue(hdr[i], fitParams[i]);
+		ScatterBinner binner = new ScatterBinner(dataProj,modelProj,binGridSize);
+		return doFits(dataProj,modelProj,binner.getX(),binner.getY(),binner.getWeights());
+	}
+
+	//*****************************************************************
+
+	/**The polynomial fits are solved from shared sums of all of the points by PolynomialFitter,
+	 * the inverse Rodbard fit and any polynomial it cannot solve use CurveFitter on the curve points.
+	 * @param dataProj all of the data projections
+	 * @param modelProj all of the model projections
+	 * @param crvData the data points for CurveFitter, dataProj or a reduced set
+	 * @param crvModel the model points for CurveFitter
+	 * @param crvWeights the weights of the CurveFitter points, null for none
+	 */
+	private FitResult[] doFits(double[] dataProj, double[] modelProj, double[] crvData, double[] crvModel,
+			double[] crvWeights)
+	{
+		FitResult[] results = new FitResult[fitTypes.length];
+		PolynomialFitter polyFitter = new PolynomialFitter(dataProj,modelProj);
+		double[][] polyCoefs = new double[fitTypes.length][];
+		int[] polyIndex = new int[fitTypes.length];
+		int nPoly = 0;
+		boolean[] reducedFit = new boolean[fitTypes.length];
+		boolean reduced = crvData!=dataProj;
+		for(int f=0;f<fitTypes.length;f++)
+		{
+			results[f] = new FitResult();
+			results[f].fitType = fitTypes[f];
+			int degree = getPolyDegree(fitTypes[f]);
+			double[] coef = degree>0 ? polyFitter.fit(degree) : null;
+			if(coef!=null)
+			{
+				polyCoefs[nPoly] = coef;
+				polyIndex[nPoly] = f;
+				nPoly++;
+			}
+			else
+			{
+				CurveFitter crvfit = new CurveFitter(crvData,crvModel);
+				if(crvWeights!=null) crvfit.setWeights(crvWeights);
+				crvfit.doFit(fitTypes[f]);
+				results[f].params = crvfit.getParams();
+				results[f].rSqr = crvfit.getRSquared();
+				reducedFit[f] = reduced;
+			}
 		}
-		fitRT.addValue("R^2", crvfit.getRSquared());
-		fitRT.addValue("Eeff", keV);		
 		
-		fitRT.show("Fit Parameters");
-		//TextWindow rtWin = (TextWindow)WindowManager.getWindow("Fit Parameters");
-		//int rtHeight = rtWin.getHeight();
-		//rtWin.setSize(800,rtHeight);				
+		//As CurveFitter, the last param is the sum of squared residuals
+		double[] sse = polyFitter.getSumSqResiduals(Arrays.copyOf(polyCoefs, nPoly));
+		for(int p=0;p<nPoly;p++)
+		{
+			FitResult fr = results[polyIndex[p]];
+			fr.params = Arrays.copyOf(polyCoefs[p], polyCoefs[p].length+1);
+			fr.params[polyCoefs[p].length] = sse[p];
+			fr.rSqr = polyFitter.getRSquared(sse[p]);
+		}
+		if(reduced) setFullDataStats(results,reducedFit,dataProj,modelProj);
+		return results;
+	}
+
+	//*****************************************************************
+
+	/**Replaces the sum of squared residuals and R^2 of fits to reduced data
+	 * by those of all of the points, found in one pass for all of the fits.
+	 * @param update true for the fits to replace
+	 */
+	private void setFullDataStats(FitResult[] results, boolean[] update, double[] dataProj, double[] modelProj)
+	{
+		final int n = dataProj.length;
+		final int nFits = results.length;
+		final int nTasks = Math.max(1, Prefs.getThreads());
+		final double yShift = modelProj[0];
+		
+		//[task][the sum of squared residuals of each fit, sum of y, sum of y^2]
+		double[][] partial = new double[nTasks][];
+		IntStream.range(0, nTasks).parallel().forEach(t ->
+		{
+			double[] sums = new double[nFits+2];
+			int end = (int)((long)n*(t+1)/nTasks);
+			for(int i=(int)((long)n*t/nTasks);i<end;i++)
+			{
+				for(int f=0;f<nFits;f++)
+				{
+					if(!update[f]) continue;
+					double r = modelProj[i] - CurveFitter.f(results[f].fitType, results[f].params, dataProj[i]);
+					sums[f] += r*r;
+				}
+				double yd = modelProj[i] - yShift;
+				sums[nFits] += yd;
+				sums[nFits+1] += yd*yd;
+			}
+			partial[t] = sums;
+		});
+		
+		double[] sums = new double[nFits+2];
+		for(double[] p : partial)
+		{
+			for(int k=0;k<sums.length;k++) sums[k] += p[k];
+		}
+		double sumSqMeanDiff = sums[nFits+1] - sums[nFits]*sums[nFits]/n;
+		for(int f=0;f<nFits;f++)
+		{
+			if(!update[f]) continue;
+			double[] params = results[f].params;
+			params[params.length-1] = sums[f];
+			results[f].rSqr = 1 - sums[f]/sumSqMeanDiff;
+		}
 	}
 
+	//*****************************************************************
+
+	/**
+	 * @param fitType A CurveFitter fit type
+	 * @return The polynomial degree or 0 if the fit is not a polynomial
+	 */
+	private int getPolyDegree(int fitType)
+	{
+		switch(fitType)
+		{
+		case CurveFitter.STRAIGHT_LINE: return 1;
+		case CurveFitter.POLY2: return 2;
+		case CurveFitter.POLY3: return 3;
+		case CurveFitter.POLY4: return 4;
+		case CurveFitter.POLY5: return 5;
+		case CurveFitter.POLY6: return 6;
+		default: return 0;
+		}
+	}
+
+	//*****************************************************************
+
+	private void addFits(ResultsTable fitRT, FitResult[] results, double fitKeV)
+	{
+		for(FitResult fr : results)
+		{
+			fitRT.incrementCounter();
+			fitRT.addValue("Fit", CurveFitter.fitList[fr.fitType]);
+			fitRT.addValue("R^2", fr.rSqr);
+			fitRT.addValue("Eeff", fitKeV);
+			//the last param is the sum of squared residuals
+			for(int i=0;i< fr.params.length-1;i++)
+			{
+				fitRT.addValue(hdr[i], fr.params[i]);
+			}
+		}
+	}
+
+	//*****************************************************************
+
 	@Override
 	public boolean dialogItemChanged(GenericDialog gd, AWTEvent e)
 	{
@@ -412,6 +657,11 @@ public class Linearization_Fitter implements PlugIn , DialogListener ,ActionList
 			if(src instanceof TextField)
 			{
 				TextField tf = (TextField)src;
+				if(tf==sweepFromNF.getTextField() || tf==sweepToNF.getTextField() || tf==sweepIncNF.getTextField())
+				{
+					//The sweep runs when OK is clicked
+					return sweepFromKeV>=1 && sweepToKeV>=sweepFromKeV && sweepIncKeV>0;
+				}
 				String name = tf.getName();
 				switch(name)
 				{
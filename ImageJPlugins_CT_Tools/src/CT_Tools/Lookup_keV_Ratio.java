@@ -377,11 +377,14 @@ public class Lookup_keV_Ratio implements PlugIn, ActionListener, DialogListener
 			eHi =(1+energyWindow)*meV;
 			eLo =(1-energyWindow)*meV;
 
-			muLin1Hi = mmc.getMuMass(formula1, eHi, "TotAttn")*gmPerCC1;
-			muLin1Lo = mmc.getMuMass(formula1, eLo, "TotAttn")*gmPerCC1;
-
-			muLin2Hi = mmc.getMuMass(formula2, eHi, "TotAttn")*gmPerCC2;
-			muLin2Lo = mmc.getMuMass(formula2, eLo, "TotAttn")*gmPerCC2;
+			double[] meVPair = {eHi,eLo};
+			double[] muLin1 = SpectralTableCache.getMuLin(formula1, gmPerCC1, meVPair);
+			double[] muLin2 = SpectralTableCache.getMuLin(formula2, gmPerCC2, meVPair);
+			muLin1Hi = muLin1[0];
+			muLin1Lo = muLin1[1];
+
+			muLin2Hi = muLin2[0];
+			muLin2Lo = muLin2[1];
 
 			muLinRatioHi = muLin1Hi/muLin2Hi;
 			muLinRatioLo = muLin1Lo/muLin2Lo;
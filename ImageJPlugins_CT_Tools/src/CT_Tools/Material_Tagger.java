@@ -7,7 +7,6 @@ import ij.gui.GenericDialog;
 import ij.measure.Calibration;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.ImageProcessor;
-import ij.process.ImageStatistics;
 import jhd.ImageJAddins.GenericDialogAddin;
 import jhd.ImageJAddins.GenericDialogAddin.*;
 
@@ -21,6 +20,8 @@ import tagTools.TagListTools.TagSet;
  * The viewer cannot be accessed by the user because of the parent genericDialog
  * The integer tag values are the indices of a  list of material names, formulas and densities.
  * A tag's formula and density is used to compute linear attenuation at a single photon energy.	
+ * The gray voxels are indexed by value once, see VoxelIndex, so each threshold preview and
+ * "Add Material" touches only the voxels near and within the threshold range.
  * JHD 12/4/2021
 */
 
@@ -39,6 +40,7 @@ public class Material_Tagger implements PlugInFilter, DialogListener, ActionList
 	StringField filterSF;
 	SliderField lowerSF,upperSF;
 	ButtonField addMaterialBF;
+	MessageField candidateMF;
 	
 	int		matlIndex;	// the position of the material in the list
 	String	path;		// a file path for saving the dialog box values
@@ -49,6 +51,9 @@ public class Material_Tagger implements PlugInFilter, DialogListener, ActionList
 	ImagePlus grayImp;
 	ImagePlus tagImp;
 	ImageProcessor ip;
+	VoxelIndex grayIndex;		// the gray voxels by value, built once
+	float tagMin,tagMax;		// the tag image display range
+	double voxelCC;				// the volume of one voxel
 	
 	Font myFont = new Font(Font.DIALOG, Font.BOLD, 12);	
 	final Color myColor = new Color(240,230,190);//slightly darker than buff
@@ -109,7 +114,15 @@ public class Material_Tagger implements PlugInFilter, DialogListener, ActionList
 			//create a blank Tag Image image next to the dialog box
 			tagImp = IJ.createImage("TagImage", width, height,  depth, grayImp.getBitDepth());
 			tagImp.setCalibration(cal);
+			//the LUT is set once, the tags only change the display range
+			IJ.run(tagImp, "3-3-2 RGB", "");
 			tagImp.show();
+			tagMin=tagMax=0;
+			voxelCC = cal.pixelWidth*cal.pixelHeight*cal.pixelDepth;
+			
+			IJ.showStatus("Indexing gray values...");
+			grayIndex = new VoxelIndex(grayImp.getStack(), VoxelIndex.DEFAULT_BUCKETS);
+			IJ.showStatus("");
 			int left = grayImp.getWindow().getX();
 			int top = grayImp.getWindow().getY();
 			tagImp.getWindow().setLocation(left+grayImp.getWidth() + 20, top);
@@ -130,11 +143,13 @@ public class Material_Tagger implements PlugInFilter, DialogListener, ActionList
 			gd.addChoice("Material: ",filteredMatlNames,filteredMatlNames[0]);
 			materialCF = gda.getChoiceField(gd, null, "materialChoice");
 			
-			ImageStatistics stats = grayImp.getStatistics();
-			gd.addSlider("Lower", stats.min, stats.max, stats.min);
+			//the sliders span the whole volume
+			gd.addSlider("Lower", grayIndex.getMin(), grayIndex.getMax(), grayIndex.getMin());
 			lowerSF = gda.getSliderField(gd, null, null, "lowerSlider");
-			gd.addSlider("Upper", stats.min, stats.max, stats.max);
+			gd.addSlider("Upper", grayIndex.getMin(), grayIndex.getMax(), grayIndex.getMax());
 			upperSF = gda.getSliderField(gd, null, null, "upperSlider");
+			gd.addMessage(getCandidateMessage(grayIndex.getMin(), grayIndex.getMax()));
+			candidateMF = gda.getMessageField(gd, "candidate");
 
 			gd.addButton("Add Material to Tag Image", this);
 			addMaterialBF = gda.getButtonField(gd, "addMatlBtn");
@@ -193,6 +208,7 @@ public class Material_Tagger implements PlugInFilter, DialogListener, ActionList
 					case "upperSlider":
 						ip.setThreshold(low, high, ImageProcessor.RED_LUT);
 						grayImp.updateAndDraw();
+						candidateMF.getLabel().setText(getCandidateMessage(low, high));
 						break;
 					case "filterString":
 						String filterStr = tf.getText();
@@ -225,6 +241,14 @@ public class Material_Tagger implements PlugInFilter, DialogListener, ActionList
 	}
 	
 
+	//*****************************************************************
+
+	private String getCandidateMessage(double low, double high)
+	{
+		long count = grayIndex.count(low, high);
+		return "In range: " + count + " voxels, " + IJ.d2s(count*voxelCC,4,9) + " cc";
+	}
+
 	//*****************************************************************
 
 	@Override
@@ -238,21 +262,12 @@ public class Material_Tagger implements PlugInFilter, DialogListener, ActionList
 			getSelections();
 			if(matlIndex>=0)
 			{		
-				float[] tagPix = (float[])tagImp.getStack().getVoxels(0, 0, 0, width, height, depth, null);
-				float[] grayPix = (float[])grayImp.getStack().getVoxels(0, 0, 0, width, height, depth, null);
-				int size = width*height*depth;	
-				for(int i=0;i<size;i++)
-				{
-					if(grayPix[i]<=high && grayPix[i] >= low)
-					{
-							tagPix[i] =filteredMatlTags[matlIndex];
-					}
-				}
+				float tag = filteredMatlTags[matlIndex];
+				grayIndex.fill(low, high, tagImp.getStack(), tag);
 				grayImp.getProcessor().resetThreshold();
-				tagImp.getStack().setVoxels(0, 0, 0, width, height, depth, tagPix);
-				ImageStatistics stats = tagImp.getStatistics();
-				tagImp.getProcessor().setMinAndMax(stats.min, stats.max);
-				IJ.run(tagImp, "3-3-2 RGB", "");
+				tagMin = Math.min(tagMin, tag);
+				tagMax = Math.max(tagMax, tag);
+				tagImp.setDisplayRange(tagMin, tagMax);
 				tagImp.updateAndDraw();
 			break;
 			}
@@ -0,0 +1,123 @@
+package CT_Tools;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import ij.IJ;
+import ij.plugin.PlugIn;
+import jhd.MuMassCalculator.MuMassCalculator;
+import tagTools.TagListImageTools;
+import tagTools.TagListImageTools.MuLinInverse;
+import tagTools.TagListTools;
+import tagTools.TagListTools.TagSet;
+
+/**
+ * Measures the error of the TagListImageTools muLin to MeV inverse tables
+ * against MuMassCalculator.getMeVfromMuLin for the materials in the shipped
+ * DefaultMaterials.csv.<br>
+ * For each material the muLin at log spaced energies from MIN_MEV to MAX_MEV
+ * is converted back to MeV by both and the largest relative difference is
+ * written to the Log. The test fails if a difference exceeds TOLERANCE or
+ * getMeVfromMuLin finds no solution.<br>
+ * Run it from the menu, a macro, or from the command line with main, which
+ * exits with status 1 on failure.
+ *
+ * @author LazzyIzzi
+ */
+public class MuLinInverse_Test implements PlugIn {
+
+	static final double MIN_MEV = 0.01, MAX_MEV = 1.0;
+	static final int ENERGY_COUNT = 200;
+	// the largest accepted |table - getMeVfromMuLin| / getMeVfromMuLin
+	static final double TOLERANCE = 1e-3;
+
+	@Override
+	public void run(String arg) {
+		if (!compare()) {
+			IJ.error("MuLinInverse Test", "The inverse tables differ from getMeVfromMuLin, see the Log");
+		}
+	}
+
+	/**
+	 * Runs the comparison without ImageJ's user interface, the Log is written to
+	 * the console
+	 *
+	 * @param args not used
+	 */
+	public static void main(String[] args) {
+		if (!new MuLinInverse_Test().compare()) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return true if every material is within TOLERANCE
+	 */
+	public boolean compare() {
+		TagSet tagSet = readDefaultMaterials();
+		if (tagSet == null) {
+			IJ.log("MuLinInverse Test: DefaultMaterials.csv could not be read");
+			return false;
+		}
+		TagListTools tlt = new TagListTools();
+		TagListImageTools tlit = new TagListImageTools();
+		MuMassCalculator mmc = new MuMassCalculator();
+		String[] names = tlt.getTagSetMatlNamesAsArray(tagSet);
+		String[] formulas = tlt.getTagSetMatlFormulasAsArray(tagSet);
+		double[] gmPerCC = tlt.getTagSetMatlGmPerccAsArray(tagSet);
+		int[] tags = tlt.getTagSetMatlTagAsArray(tagSet);
+		MuLinInverse[] inverseLUT = tlit.getMuLinInverseTable(tags, tagSet);
+
+		IJ.log("MuLinInverse Test, " + ENERGY_COUNT + " energies from " + MIN_MEV + " to " + MAX_MEV
+				+ " MeV, tolerance " + TOLERANCE);
+		boolean pass = true;
+		double worst = 0;
+		for (int m = 0; m < tags.length; m++) {
+			// tag 0 is empty space
+			if (tags[m] <= 0 || !(gmPerCC[m] > 0)) continue;
+			MuLinInverse inverse = inverseLUT[tags[m]];
+			double maxErr = 0, maxErrMeV = 0;
+			int unsolved = 0;
+			for (int k = 0; k < ENERGY_COUNT; k++) {
+				double meV = MIN_MEV * Math.pow(MAX_MEV / MIN_MEV, k / (ENERGY_COUNT - 1.0));
+				double muLin = mmc.getMuMass(formulas[m], meV, "TotAttn") * gmPerCC[m];
+				double[] solutions = mmc.getMeVfromMuLin(formulas[m], muLin, gmPerCC[m], "TotAttn");
+				if (solutions == null || solutions.length == 0) {
+					unsolved++;
+					continue;
+				}
+				double err = Math.abs(inverse.getMeV(muLin) - solutions[0]) / solutions[0];
+				if (!(err <= maxErr)) {
+					maxErr = err;
+					maxErrMeV = meV;
+				}
+			}
+			boolean ok = unsolved == 0 && maxErr <= TOLERANCE;
+			pass &= ok;
+			worst = Double.isNaN(maxErr) ? maxErr : Math.max(worst, maxErr);
+			IJ.log((ok ? "  pass " : "  FAIL ") + tags[m] + " " + names[m] + " " + formulas[m] + ": max error "
+					+ IJ.d2s(maxErr, 3, 9) + " at " + IJ.d2s(maxErrMeV, 4) + " MeV"
+					+ (unsolved > 0 ? ", " + unsolved + " unsolved" : ""));
+		}
+		IJ.log("MuLinInverse Test " + (pass ? "passed" : "FAILED") + ", largest error " + IJ.d2s(worst, 3, 9));
+		return pass;
+	}
+
+	// the DefaultMaterials.csv in the jar resources, through TagListTools' reader
+	private TagSet readDefaultMaterials() {
+		String csv = new ResourceReader().readTextFile("DefaultMaterials.csv");
+		if (csv == null) return null;
+		try {
+			File tmp = File.createTempFile("DefaultMaterials", ".csv");
+			tmp.deleteOnExit();
+			try (FileWriter fw = new FileWriter(tmp)) {
+				fw.write(csv);
+			}
+			return new TagListTools().readTagSetFile(tmp.getPath());
+		} catch (IOException e) {
+			IJ.log("MuLinInverse Test: " + e.getMessage());
+			return null;
+		}
+	}
+}
@@ -15,13 +15,12 @@ package CT_Tools;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.WindowManager;
-import ij.plugin.CanvasResizer;
+import ij.io.SaveDialog;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.*;
 import ij.gui.*;
 import ij.measure.*;
 import java.awt.*;
-import java.util.*;
 
 import jhd.ImageJAddins.GenericDialogAddin;
 import jhd.ImageJAddins.GenericDialogAddin.*;
@@ -37,8 +36,6 @@ public class MuLin_Image_To_Fan_Sinogram implements PlugInFilter, DialogListener
 	final Color white = new Color(255,255,255);
 	final Font myFont = new Font(Font.DIALOG, Font.BOLD, 12);
 	
-	//The class that does fan projection
-	FanProjectors fanPrj = new FanProjectors();	
 	//The nested class containing the simulator's user supplied parameters
 	FanParams fpSet =  new FanParams();
 		
@@ -46,7 +43,7 @@ public class MuLin_Image_To_Fan_Sinogram implements PlugInFilter, DialogListener
 	ImagePlus imageImp;
 	int originalWidth,originalHeight; //the width and height of the current image
 	String padOption;
-	boolean scale16;
+	boolean scale16,streamToDisk;
 	int paddedWidth,paddedHeight; //the width and height of the current image after padding with zeros
 	double pixelSize,scaleFactor=6000;
 	String unit;
@@ -180,6 +177,7 @@ public class MuLin_Image_To_Fan_Sinogram implements PlugInFilter, DialogListener
 
 		gd.addCheckbox("Scale to 16-bit proj", false);
 		gd.addNumericField("Scale Factor", scaleFactor);
+		gd.addCheckbox("Stream_to_disk", false);
 
 		gd.addHelp("https://lazzyizzi.github.io/CT_ReconPages/CTsimulator.html");	
 		gd.setBackground(myColor);
@@ -208,34 +206,8 @@ public class MuLin_Image_To_Fan_Sinogram implements PlugInFilter, DialogListener
 
 	private void doRoutine()
 	{		
-		Object image;
-		int nslices = imageImp.getNSlices();
-		float[] sinogram = null;
-		ArrayList<float[]> sinograms = new ArrayList<float[]>();
 		ImagePlus sinoImp;				
 
-		for(int i=1;i<=nslices;i++)
-		{
-			IJ.showProgress((double)i/(double)nslices);
-			imageImp.setSlice(i);
-
-			if(paddedWidth>originalWidth || paddedWidth>originalHeight)
-			{ //to conserve memory the stack slices are individually copied, padded, projected and disposed
-				CanvasResizer resizer= new CanvasResizer();
-				ImagePlus sliceImp = imageImp.crop();
-				ImageProcessor padIp = resizer.expandImage(sliceImp.getProcessor(), paddedWidth, paddedWidth,(paddedWidth-originalWidth)/2, (paddedWidth-originalHeight)/2);
-				image = padIp.getPixels();				
-				sinogram = fanPrj.imageToFanBeamSinogram((float[])image,paddedWidth, paddedWidth, fpSet,true);
-				sinograms.add(sinogram);
-			}
-			else
-			{
-				image = imageImp.getProcessor().getPixels();
-				sinogram = fanPrj.imageToFanBeamSinogram((float[])image,originalWidth, originalHeight, fpSet,true);
-				sinograms.add(sinogram);
-			}
-		}
-
 		String title;
 		String name = imageImp.getTitle();
 		int dotIndex = name.lastIndexOf(".");
@@ -244,35 +216,38 @@ public class MuLin_Image_To_Fan_Sinogram implements PlugInFilter, DialogListener
 		title += "_FanMuLinSino";
 		title = WindowManager.getUniqueName(title);
 
-		int length = sinogram.length;
-		int width = length/fpSet.numAng;   //numAngles;
-		int height = fpSet.numAng;   //numAngles;;
-		if(scale16)
+		//Each sinogram is stored as soon as it is projected, in memory or appended to a raw file
+		String rawPath = null;
+		if(streamToDisk)
 		{
-			sinoImp = IJ.createImage(title, width, height, nslices, 16);
-			short[] pixels = (short[])sinoImp.getProcessor().getPixels();
-			for(int i=1;i<= nslices;i++)
-			{
-				float[] temp = sinograms.get(i-1);
-				for(int j=0;j<pixels.length;j++)
-				{
-					if(temp[j]<0) temp[j]=0;
-					pixels[j]= (short) (temp[j]*scaleFactor*fpSet.pixSizeCM);
-					//pixels[j]= (short) (temp[j]*scaleFactor);
-				}
-				sinoImp.getProcessor().setPixels(pixels);
-			}
+			SaveDialog sd = new SaveDialog("Save Sinogram", title, ".raw");
+			if(sd.getFileName() == null) return;
+			rawPath = sd.getDirectory() + sd.getFileName();
 		}
-		else
+		SinogramSink sink = new SinogramSink(fpSet.numAng, scale16, scaleFactor, fpSet.pixSizeCM, rawPath);
+
+		//to conserve memory the stack slices are individually copied, padded, projected and disposed
+		//by the slice projector's worker threads
+		int prjWidth = originalWidth, prjHeight = originalHeight;
+		if(paddedWidth>originalWidth || paddedWidth>originalHeight)
 		{
-			sinoImp = IJ.createImage(title, width, height, nslices, 32);
-			for(int i=1;i<=nslices;i++)
-			{
-				sinoImp.setSlice(i);
-				sinoImp.getProcessor().setPixels(sinograms.get(i-1));
-				sinoImp.getProcessor().multiply(fpSet.pixSizeCM);
-			}
+			prjWidth = paddedWidth;
+			prjHeight = paddedWidth;
+		}
+		//each worker passes its own copy of the parameters to its projector
+		ThreadLocal<FanParams> workerParams = ThreadLocal.withInitial(() -> copySettings(fpSet));
+		SliceProjector<FanProjectors> slicePrj = new SliceProjector<FanProjectors>(prjWidth, prjHeight, (long)(prjWidth*fpSet.magnification)*fpSet.numAng);
+		boolean ok = slicePrj.projectStack(imageImp.getStack(), FanProjectors::new,
+				(prj, image, width, height) -> prj.imageToFanBeamSinogram(image,width, height, workerParams.get(),true),
+				sink);
+		//keep the slices projected before a failure or cancel
+		sinoImp = sink.finish(title);
+		if(sinoImp == null)
+		{
+			IJ.error(myDialogTitle, "The projection failed, see the Log window.");
+			return;
 		}
+		if(!ok) IJ.log(title + ": " + sink.getSlicesDone() + " of " + imageImp.getNSlices() + " slices projected");
 
 		String[] props = new String[8];
 		props[0]="Geometry"; 
@@ -330,6 +305,20 @@ public class MuLin_Image_To_Fan_Sinogram implements PlugInFilter, DialogListener
 	
 	//*******************************************************************************
 
+	//A copy of the settings for one projector worker, the jhd projectors are not
+	//known to leave their parameter object unchanged
+	private static FanParams copySettings(FanParams src)
+	{
+		FanParams dest = new FanParams();
+		dest.numAng = src.numAng;
+		dest.pixSizeCM = src.pixSizeCM;
+		dest.srcToDetCM = src.srcToDetCM;
+		dest.magnification = src.magnification;
+		return dest;
+	}
+	
+	//*******************************************************************************
+
 	private int getMinDetCnt(int imageWidth, double mag, String padType)
 	{
 		int detMinCnt=0;
@@ -383,6 +372,7 @@ public class MuLin_Image_To_Fan_Sinogram implements PlugInFilter, DialogListener
 		fpSet.magnification=(float)gd.getNextNumber();
 		scale16 = gd.getNextBoolean();
 		scaleFactor = gd.getNextNumber();
+		streamToDisk = gd.getNextBoolean();
 	}
 	
 	//*******************************************************************************
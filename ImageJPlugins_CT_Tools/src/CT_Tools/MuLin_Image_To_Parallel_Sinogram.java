@@ -10,8 +10,9 @@ package CT_Tools;
 import ij.IJ;
 
 import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
 import ij.WindowManager;
-import ij.plugin.CanvasResizer;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.*;
 import ij.gui.*;
@@ -26,18 +27,18 @@ public class MuLin_Image_To_Parallel_Sinogram implements PlugInFilter, DialogLis
 {
 	final String myDialogTitle = "Parallel Beam CTscan";
 	final String[] padOptions = {"None","Circumscribed", "Next Power of 2"};
+	//ParallelProjector is experimental until its output has been compared with ParallelProjectors,
+	//see ParallelProjector_Test
+	final String[] projectors = {"ParallelProjectors","ParallelProjector (experimental)"};
 	final Color myColor = new Color(240,230,190);//slightly darker than buff
 	final Color errColor = new Color(255,100,0);
 	final Color white = new Color(255,255,255);
 	final Font myFont = new Font(Font.DIALOG, Font.BOLD, 12);
 
-	//The class that does the projection
-	ParallelProjectors parPrj = new ParallelProjectors();
-	
 	ImagePlus imageImp;
 	int originalWidth,originalHeight;
 	
-	String padOption;
+	String padOption,projectorChoice;
 	boolean scale16;
 	int numAng;
 	int detPixCnt;
@@ -152,6 +153,7 @@ public class MuLin_Image_To_Parallel_Sinogram implements PlugInFilter, DialogLis
 		gd.addCheckbox("Scale_to_16-bit", false);
 		scale16CBF = gda.getCheckboxField(gd, "scale16");
 		gd.addNumericField("Scale Factor", scaleFactor);
+		gd.addChoice("Projector", projectors, projectors[0]);
 
 		gd.addHelp("https://lazzyizzi.github.io/CT_ReconPages/CTsimulator.html");
 		gd.setBackground(myColor);
@@ -183,11 +185,8 @@ public class MuLin_Image_To_Parallel_Sinogram implements PlugInFilter, DialogLis
 	
 	private void DoRoutine()
 	{
-		float[] sinogram;
 		ImagePlus sinoImp;
-		ImageProcessor sinoIp;
-		Object image;
-		CanvasResizer resizer= new CanvasResizer();
+		ImageStack sinoStk;
 
 		int nslices = imageImp.getNSlices();
 
@@ -203,50 +202,56 @@ public class MuLin_Image_To_Parallel_Sinogram implements PlugInFilter, DialogLis
 		if(scale16) sinoImp = IJ.createImage(title, detPixCnt, numAng, nslices, 16);
 		else sinoImp = IJ.createImage(title, detPixCnt, numAng, nslices, 32);
 
-		sinoIp = sinoImp.getProcessor();
-
-		for(int i=1;i<=nslices;i++)
-		{
-			IJ.showProgress((double)i/(double)nslices);				
-			sinoImp.setSlice(i);
-			imageImp.setSlice(i);
-
-			if(detPixCnt>originalWidth)
-			{ //to conserve memory the stack slices are individually padded projected and disposed
-				ImagePlus sliceImp = imageImp.crop();
-				ImageProcessor padIp = resizer.expandImage(sliceImp.getProcessor(), detPixCnt, detPixCnt,(detPixCnt-originalWidth)/2, (detPixCnt-originalHeight)/2);
-				sliceImp.setProcessor(padIp);
-				image = sliceImp.getProcessor().getPixels();
-				sinogram = parPrj.imageToParallelSinogram((float[])image,detPixCnt,detPixCnt,numAng);
-				sliceImp.close();
-			}
-			else
-			{
-				image = imageImp.getProcessor().getPixels();
-				sinogram = parPrj.imageToParallelSinogram((float[])image,detPixCnt,detPixCnt,numAng);					
-			}
+		sinoStk = sinoImp.getStack();
 
-			if(scale16)
+		//to conserve memory the stack slices are individually padded, projected and disposed
+		//by the slice projector's worker threads
+		SliceProjector.SinogramConsumer consumer = (slice, sinogram) ->
 			{
-				short[] sino16 = new short[sinogram.length];
-				for(int j = 0; j<sinogram.length;j++)
+				if(scale16)
 				{
-					sino16[j] = (short) (sinogram[j]*scaleFactor*pixelSize);
+					short[] sino16 = (short[])sinoStk.getPixels(slice);
+					for(int j = 0; j<sinogram.length;j++)
+					{
+						sino16[j] = (short) (sinogram[j]*scaleFactor*pixelSize);
+					}
 				}
-				sinoIp.setPixels(sino16);
-			}
-			else
-			{
-				sinoIp.setPixels(sinogram);
-				sinoIp.multiply(pixelSize);
-			}
+				else
+				{
+					for(int j = 0; j<sinogram.length;j++) sinogram[j]*=pixelSize;
+					sinoStk.setPixels(sinogram, slice);
+				}
+			};
+		boolean ok;
+		if(projectorChoice.equals(projectors[1]))
+		{
+			//A single slice is projected using all of the threads
+			int prjThreads = nslices > 1 ? 1 : Prefs.getThreads();
+			SliceProjector<ParallelProjector> slicePrj = new SliceProjector<ParallelProjector>(detPixCnt, detPixCnt, (long)detPixCnt*numAng);
+			ok = slicePrj.projectStack(imageImp.getStack(), () -> new ParallelProjector(prjThreads),
+					(prj, image, width, height) -> prj.imageToParallelSinogram(image,width,height,numAng),
+					consumer);
+		}
+		else
+		{
+			SliceProjector<ParallelProjectors> slicePrj = new SliceProjector<ParallelProjectors>(detPixCnt, detPixCnt, (long)detPixCnt*numAng);
+			ok = slicePrj.projectStack(imageImp.getStack(), ParallelProjectors::new,
+					(prj, image, width, height) -> prj.imageToParallelSinogram(image,width,height,numAng),
+					consumer);
+		}
+		if(!ok)
+		{
+			IJ.error(myDialogTitle, "The projection failed, see the Log window.");
+			return;
 		}
 
-		String[] props = new String[4];
+		String[] props = new String[6];
 		props[0]="Geometry"; 
 		props[1]="Parallel";
 		props[2]="Source";
 		props[3]="Tau Values";			
+		props[4]="Projector";
+		props[5]=projectorChoice;
 		sinoImp.setProperties(props);
 
 		// Set the sinogram X,Y units
@@ -270,6 +275,7 @@ public class MuLin_Image_To_Parallel_Sinogram implements PlugInFilter, DialogLis
 	{
 		gd.resetCounters();
 		padOption = gd.getNextChoice();
+		projectorChoice = gd.getNextChoice();
 		numAng = (int)gd.getNextNumber();
 		detPixCnt = (int)gd.getNextNumber();
 		scale16 = gd.getNextBoolean();
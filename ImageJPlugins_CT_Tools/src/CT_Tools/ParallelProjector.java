@@ -0,0 +1,228 @@
+package CT_Tools;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import ij.Prefs;
+
+/**
+ * A multi-threaded parallel beam forward projector.<br>
+ * It takes the same arguments as
+ * jhd.Projection.ParallelProjectors.imageToParallelSinogram. The sinogram rows
+ * are the view angles from 0 to 180 degrees in steps of 180/numAng, the columns
+ * are the detector pixels, one per image column, with the rotation axis at
+ * width/2. Values are line integrals in per pixel units, multiply by the pixel
+ * size for tau.<br>
+ * Each ray is integrated using Joseph's method, one step per image row or
+ * column, whichever the ray crosses more of, with linear interpolation between
+ * the two nearest pixels. The per-angle step tables are computed once per image
+ * size and angle count and the angles are split between threads. The threads
+ * come from one pool shared by all projectors, idle threads end after a
+ * minute.<br>
+ * This projector has not yet been compared with the jhd projector, so it is not
+ * a replacement for it. The plugins use it only when it is chosen, see
+ * ParallelProjector_Test.
+ *
+ * @author LazzyIzzi
+ */
+public class ParallelProjector {
+
+	// shared by all projectors, each call submits at most threadCount tasks
+	private static ExecutorService pool;
+
+	private final int threadCount;
+
+	// the ray tables for the current geometry
+	private int tblWidth, tblHeight, tblNumAng;
+	private boolean[] alongColumns;
+	private float[][] stepBase;
+	private float[] detStep, rayWeight;
+
+	// the image transposed for the angles stepped along the columns
+	private float[] transposed;
+
+	/**
+	 * Creates a projector that uses the ImageJ thread count
+	 */
+	public ParallelProjector() {
+		this(Prefs.getThreads());
+	}
+
+	/**
+	 * @param threadCount The number of threads used to project one image, use 1
+	 *                    when several images are projected at once
+	 */
+	public ParallelProjector(int threadCount) {
+		this.threadCount = Math.max(1, threadCount);
+	}
+
+	/**
+	 * @param image  The linear attenuation image, per pixel units
+	 * @param width  The image width, also the number of detector pixels
+	 * @param height The image height
+	 * @param numAng The number of view angles from 0 to 180 degrees
+	 * @return The width*numAng sinogram in per pixel units
+	 */
+	public float[] imageToParallelSinogram(float[] image, int width, int height, int numAng) {
+		makeRayTables(width, height, numAng);
+		float[] sinogram = new float[width * numAng];
+
+		boolean needTranspose = false;
+		for (boolean b : alongColumns) {
+			needTranspose |= b;
+		}
+		if (needTranspose) {
+			if (transposed == null || transposed.length != width * height) {
+				transposed = new float[width * height];
+			}
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					transposed[x * height + y] = image[y * width + x];
+				}
+			}
+		}
+
+		int threads = Math.min(threadCount, numAng);
+		if (threads == 1) {
+			projectAngles(image, sinogram, 0, numAng, 1);
+			return sinogram;
+		}
+
+		ExecutorService pool = getPool();
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int t = 0; t < threads; t++) {
+			final int first = t;
+			// interleave the angles so each thread gets a mix of row and column steps
+			futures.add(pool.submit(() -> projectAngles(image, sinogram, first, numAng, threads)));
+		}
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			for (Future<?> future : futures) {
+				future.cancel(true);
+			}
+			if (e instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+			}
+			throw new RuntimeException("Parallel Projector: " + e.getMessage(), e);
+		}
+		return sinogram;
+	}
+
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			ThreadFactory daemonFactory = r -> {
+				Thread t = Executors.defaultThreadFactory().newThread(r);
+				t.setName("ParallelProjector-" + t.getName());
+				t.setDaemon(true);
+				return t;
+			};
+			pool = Executors.newCachedThreadPool(daemonFactory);
+		}
+		return pool;
+	}
+
+	private void projectAngles(float[] image, float[] sinogram, int first, int numAng, int stride) {
+		for (int ang = first; ang < numAng; ang += stride) {
+			if (alongColumns[ang]) {
+				projectAngle(transposed, tblWidth, tblHeight, ang, sinogram);
+			} else {
+				projectAngle(image, tblHeight, tblWidth, ang, sinogram);
+			}
+		}
+	}
+
+	/**
+	 * Sums one view. The ray steps along the rows of img, at each step the ray
+	 * position in the row is stepBase + detStep*(detector pixel - center).
+	 */
+	private void projectAngle(float[] img, int nSteps, int rowLen, int ang, float[] sinogram) {
+		int nDet = tblWidth;
+		int sinoStart = ang * nDet;
+		float[] base = stepBase[ang];
+		float step = detStep[ang];
+		float weight = rayWeight[ang];
+		float detCenter = nDet / 2;
+
+		for (int k = 0; k < nSteps; k++) {
+			int rowStart = k * rowLen;
+			// the detector pixels whose rays cross this row, pos in (-1, rowLen)
+			float pos0 = base[k] - detCenter * step;
+			float lo = (-1 - pos0) / step;
+			float hi = (rowLen - pos0) / step;
+			if (lo > hi) {
+				float tmp = lo;
+				lo = hi;
+				hi = tmp;
+			}
+			int jStart = Math.max(0, (int) Math.floor(lo));
+			int jEnd = Math.min(nDet - 1, (int) Math.ceil(hi));
+
+			for (int j = jStart; j <= jEnd; j++) {
+				float pos = pos0 + j * step;
+				if (pos <= -1 || pos >= rowLen) {
+					continue;
+				}
+				int i0 = (int) (pos + 1) - 1;
+				float frac = pos - i0;
+				float v = 0;
+				if (i0 >= 0) {
+					v = img[rowStart + i0] * (1 - frac);
+				}
+				if (i0 + 1 < rowLen) {
+					v += img[rowStart + i0 + 1] * frac;
+				}
+				sinogram[sinoStart + j] += v * weight;
+			}
+		}
+	}
+
+	private void makeRayTables(int width, int height, int numAng) {
+		if (width == tblWidth && height == tblHeight && numAng == tblNumAng) {
+			return;
+		}
+		alongColumns = new boolean[numAng];
+		stepBase = new float[numAng][];
+		detStep = new float[numAng];
+		rayWeight = new float[numAng];
+		double cx = width / 2;
+		double cy = height / 2;
+
+		for (int ang = 0; ang < numAng; ang++) {
+			double theta = Math.PI * ang / numAng;
+			double cos = Math.cos(theta);
+			double sin = Math.sin(theta);
+			// detector axis (cos, sin), ray direction (-sin, cos)
+			if (Math.abs(cos) >= Math.abs(sin)) {
+				// step along the image rows, x = t/cos - y*tan
+				alongColumns[ang] = false;
+				float[] base = new float[height];
+				for (int y = 0; y < height; y++) {
+					base[y] = (float) (cx - (y - cy) * sin / cos);
+				}
+				stepBase[ang] = base;
+				detStep[ang] = (float) (1 / cos);
+				rayWeight[ang] = (float) (1 / Math.abs(cos));
+			} else {
+				// step along the image columns, y = t/sin - x*cot
+				alongColumns[ang] = true;
+				float[] base = new float[width];
+				for (int x = 0; x < width; x++) {
+					base[x] = (float) (cy - (x - cx) * cos / sin);
+				}
+				stepBase[ang] = base;
+				detStep[ang] = (float) (1 / sin);
+				rayWeight[ang] = (float) (1 / Math.abs(sin));
+			}
+		}
+		tblWidth = width;
+		tblHeight = height;
+		tblNumAng = numAng;
+	}
+}
@@ -0,0 +1,177 @@
+package CT_Tools;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.GenericDialog;
+import ij.plugin.PlugIn;
+import ij.process.FloatProcessor;
+import jhd.Projection.ParallelProjectors;
+
+/**
+ * Compares ParallelProjector with jhd.Projection.ParallelProjectors.<br>
+ * Two phantoms are projected by both: a uniform disk, whose exact sinogram
+ * 2&mu;&radic;(R<sup>2</sup>-t<sup>2</sup>) is also computed, and the disk
+ * with small dense inclusions. The differences are written to the Log and the
+ * ParallelProjector - ParallelProjectors difference sinogram of the second
+ * phantom is shown.<br>
+ * Each comparison fails if the sum ratio differs from 1 by more than
+ * SUM_TOLERANCE, or the rms or largest difference exceeds RMS_TOLERANCE or
+ * MAX_TOLERANCE of the reference maximum. The test fails if any comparison
+ * fails or ParallelProjectors returns no sinogram.<br>
+ * Run it from the menu, a macro, run("Parallel Projector Test", "width=256
+ * views=403"), or from the command line with main, which exits with status 1
+ * on failure.
+ *
+ * @author LazzyIzzi
+ */
+public class ParallelProjector_Test implements PlugIn {
+
+	// the phantom attenuation, per pixel
+	static final float MU = 0.01f;
+	// the accepted |sum ratio - 1|, rms and largest difference, the last two
+	// relative to the reference maximum
+	static final double SUM_TOLERANCE = 0.005, RMS_TOLERANCE = 0.01, MAX_TOLERANCE = 0.05;
+
+	@Override
+	public void run(String arg) {
+		GenericDialog gd = new GenericDialog("Parallel Projector Test");
+		gd.addNumericField("Width", 256, 0);
+		gd.addNumericField("Views", 403, 0);
+		gd.showDialog();
+		if (gd.wasCanceled()) return;
+		int width = (int) gd.getNextNumber();
+		int numAng = (int) gd.getNextNumber();
+		if (width < 16 || numAng < 1) {
+			IJ.error("Parallel Projector Test", "The width must be at least 16 and the views at least 1");
+			return;
+		}
+		if (!compare(width, numAng, true)) {
+			IJ.error("Parallel Projector Test", "The projectors differ, see the Log");
+		}
+	}
+
+	/**
+	 * Runs the comparison without ImageJ's user interface, the Log is written to
+	 * the console
+	 *
+	 * @param args optional width and view count, 256 and 403 by default
+	 */
+	public static void main(String[] args) {
+		int width = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		int numAng = args.length > 1 ? Integer.parseInt(args[1]) : 403;
+		if (!new ParallelProjector_Test().compare(width, numAng, false)) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @param width  The phantom width and height
+	 * @param numAng The number of views
+	 * @param show   true to show the difference sinogram
+	 * @return true if every comparison is within the tolerances
+	 */
+	public boolean compare(int width, int numAng, boolean show) {
+		double radius = 0.35 * width;
+		float[] disk = makeDisk(width, radius);
+		float[] inclusions = disk.clone();
+		addInclusions(inclusions, width);
+
+		float[] exact = new float[width * numAng];
+		for (int ang = 0; ang < numAng; ang++) {
+			for (int j = 0; j < width; j++) {
+				double t = j - width / 2;
+				exact[ang * width + j] = Math.abs(t) < radius ? (float) (2 * MU * Math.sqrt(radius * radius - t * t))
+						: 0f;
+			}
+		}
+
+		ParallelProjectors jhdPrj = new ParallelProjectors();
+		ParallelProjector prj = new ParallelProjector();
+		float[] jhdDisk = jhdPrj.imageToParallelSinogram(disk.clone(), width, width, numAng);
+		float[] newDisk = prj.imageToParallelSinogram(disk, width, width, numAng);
+		float[] jhdIncl = jhdPrj.imageToParallelSinogram(inclusions.clone(), width, width, numAng);
+		float[] newIncl = prj.imageToParallelSinogram(inclusions, width, width, numAng);
+
+		IJ.log("Parallel Projector Test, " + width + " pixels, " + numAng + " views, tolerances: sum ratio "
+				+ SUM_TOLERANCE + ", rms " + RMS_TOLERANCE + ", max " + MAX_TOLERANCE);
+		IJ.log("Disk radius " + IJ.d2s(radius, 1) + " pixels, inside 0.9 radius:");
+		boolean pass = logDifference("ParallelProjector   - exact", newDisk, exact, width, radius);
+		if (jhdDisk == null || jhdIncl == null || jhdDisk.length != exact.length || jhdIncl.length != exact.length) {
+			IJ.log("  FAIL ParallelProjectors did not return a " + width + "x" + numAng + " sinogram");
+			IJ.log("Parallel Projector Test FAILED");
+			return false;
+		}
+		pass &= logDifference("ParallelProjectors  - exact", jhdDisk, exact, width, radius);
+		pass &= logDifference("ParallelProjector   - ParallelProjectors", newDisk, jhdDisk, width, radius);
+		IJ.log("Disk with inclusions, all rays:");
+		pass &= logDifference("ParallelProjector   - ParallelProjectors", newIncl, jhdIncl, width, Double.MAX_VALUE);
+		IJ.log("Parallel Projector Test " + (pass ? "passed" : "FAILED"));
+
+		if (show) {
+			float[] diff = new float[newIncl.length];
+			for (int i = 0; i < diff.length; i++) {
+				diff[i] = newIncl[i] - jhdIncl[i];
+			}
+			new ImagePlus("ParallelProjector - ParallelProjectors", new FloatProcessor(width, numAng, diff)).show();
+		}
+		return pass;
+	}
+
+	// logs the sum ratio and the largest and rms differences of the rays within
+	// 0.9 radius of the center, returns true if they are within the tolerances
+	private boolean logDifference(String label, float[] sino, float[] ref, int width, double radius) {
+		double sum = 0, refSum = 0, maxDiff = 0, sqDiff = 0, refMax = 0;
+		int n = 0;
+		for (int i = 0; i < sino.length; i++) {
+			double t = i % width - width / 2;
+			if (Math.abs(t) >= 0.9 * radius) continue;
+			double d = sino[i] - ref[i];
+			sum += sino[i];
+			refSum += ref[i];
+			maxDiff = Math.max(maxDiff, Math.abs(d));
+			sqDiff += d * d;
+			refMax = Math.max(refMax, Math.abs(ref[i]));
+			n++;
+		}
+		double sumRatio = sum / refSum, relMax = maxDiff / refMax, relRms = Math.sqrt(sqDiff / n) / refMax;
+		boolean ok = Math.abs(sumRatio - 1) <= SUM_TOLERANCE && relRms <= RMS_TOLERANCE && relMax <= MAX_TOLERANCE;
+		IJ.log((ok ? "  pass " : "  FAIL ") + label + ": sum ratio " + IJ.d2s(sumRatio, 5) + ", max |diff| "
+				+ IJ.d2s(relMax, 5) + ", rms diff " + IJ.d2s(relRms, 5) + " of the reference maximum");
+		return ok;
+	}
+
+	// a disk at the image center, 4x4 supersampled at the edge
+	private float[] makeDisk(int width, double radius) {
+		float[] img = new float[width * width];
+		double c = width / 2;
+		for (int y = 0; y < width; y++) {
+			for (int x = 0; x < width; x++) {
+				int inside = 0;
+				for (int sy = 0; sy < 4; sy++) {
+					for (int sx = 0; sx < 4; sx++) {
+						double dx = x - 0.375 + 0.25 * sx - c;
+						double dy = y - 0.375 + 0.25 * sy - c;
+						if (dx * dx + dy * dy < radius * radius) inside++;
+					}
+				}
+				img[y * width + x] = MU * inside / 16f;
+			}
+		}
+		return img;
+	}
+
+	// off-center rectangles that show flips, transposes and shifts
+	private void addInclusions(float[] img, int width) {
+		int s = width / 16;
+		for (int y = 3 * s; y < 5 * s; y++) {
+			for (int x = 5 * s; x < 6 * s; x++) {
+				img[y * width + x] += 5 * MU;
+			}
+		}
+		for (int y = 9 * s; y < 12 * s; y++) {
+			for (int x = 10 * s; x < 11 * s; x++) {
+				img[y * width + x] += 3 * MU;
+			}
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package CT_Tools;
+
+import java.util.stream.IntStream;
+
+/**
+ * Linear least squares polynomial fits of y vs x, degree 1 to MAX_DEGREE.<br>
+ * The sums of x^k, k = 0 to 2*MAX_DEGREE, and of x^k*y, k = 0 to MAX_DEGREE,
+ * are accumulated in one parallel pass over the data. Every degree is then
+ * solved from those shared sums by a Cholesky decomposition of the normal
+ * equations. x is centered and scaled to -1 to 1 before the sums are taken to
+ * keep the normal equations well conditioned, the returned coefficients are in
+ * the original x.<br>
+ * The residuals of several fits are found together in one more pass, see
+ * getSumSqResiduals.
+ *
+ * @author LazzyIzzi
+ */
+public class PolynomialFitter {
+
+	/** The highest polynomial degree that can be fitted */
+	public static final int MAX_DEGREE = 6;
+
+	// the number of points summed by one task
+	private static final int CHUNK_SIZE = 16384;
+
+	private final double[] x, y;
+	private final double xCenter, xScale;
+	private final double yShift;
+	private final double[] xPowSum = new double[2 * MAX_DEGREE + 1];
+	private final double[] xPowYSum = new double[MAX_DEGREE + 1];
+	private final double sumSqMeanDiff;
+
+	/**
+	 * Accumulates the sums for the fits
+	 *
+	 * @param x The independent values
+	 * @param y The dependent values, the same length as x
+	 */
+	public PolynomialFitter(double[] x, double[] y) {
+		this.x = x;
+		this.y = y;
+		int n = x.length;
+		int nChunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+		double xMin = Double.POSITIVE_INFINITY, xMax = Double.NEGATIVE_INFINITY;
+		for (double v : x) {
+			if (v < xMin) xMin = v;
+			if (v > xMax) xMax = v;
+		}
+		xCenter = n > 0 ? (xMin + xMax) / 2 : 0;
+		xScale = xMax > xMin ? (xMax - xMin) / 2 : 1;
+		// y is summed relative to one of its values to limit the cancellation in
+		// the sum of squared differences from the mean
+		yShift = n > 0 ? y[0] : 0;
+
+		// [chunk][xPowSum, xPowYSum, sum of y, sum of y^2]
+		double[][][] partial = new double[nChunks][][];
+		IntStream.range(0, nChunks).parallel().forEach(c -> {
+			double[] pSum = new double[2 * MAX_DEGREE + 1];
+			double[] pySum = new double[MAX_DEGREE + 1];
+			double ySum = 0, yySum = 0;
+			double invScale = 1 / xScale;
+			int end = Math.min(n, (c + 1) * CHUNK_SIZE);
+			for (int i = c * CHUNK_SIZE; i < end; i++) {
+				double xs = (x[i] - xCenter) * invScale;
+				double yv = y[i];
+				double p = 1;
+				for (int k = 0; k <= MAX_DEGREE; k++) {
+					pSum[k] += p;
+					pySum[k] += p * yv;
+					p *= xs;
+				}
+				for (int k = MAX_DEGREE + 1; k <= 2 * MAX_DEGREE; k++) {
+					pSum[k] += p;
+					p *= xs;
+				}
+				double yd = yv - yShift;
+				ySum += yd;
+				yySum += yd * yd;
+			}
+			partial[c] = new double[][] { pSum, pySum, { ySum, yySum } };
+		});
+
+		double ySum = 0, yySum = 0;
+		for (double[][] p : partial) {
+			for (int k = 0; k < xPowSum.length; k++) xPowSum[k] += p[0][k];
+			for (int k = 0; k < xPowYSum.length; k++) xPowYSum[k] += p[1][k];
+			ySum += p[2][0];
+			yySum += p[2][1];
+		}
+		sumSqMeanDiff = n > 0 ? yySum - ySum * ySum / n : 0;
+	}
+
+	/**
+	 * @param degree The polynomial degree, 1 to MAX_DEGREE
+	 * @return The coefficients a0 to a[degree] of y = a0 + a1*x + a2*x^2..., or
+	 *         null if there are too few distinct x values for the degree
+	 */
+	public double[] fit(int degree) {
+		if (degree < 1 || degree > MAX_DEGREE) {
+			throw new IllegalArgumentException("Polynomial Fitter: degree must be 1 to " + MAX_DEGREE);
+		}
+		int m = degree + 1;
+
+		// Cholesky decomposition of the normal matrix, L*Lt = A, A[i][j] = xPowSum[i+j]
+		double[][] l = new double[m][m];
+		for (int i = 0; i < m; i++) {
+			for (int j = 0; j <= i; j++) {
+				double sum = xPowSum[i + j];
+				for (int k = 0; k < j; k++) {
+					sum -= l[i][k] * l[j][k];
+				}
+				if (i == j) {
+					// a pivot near round off means the matrix is singular
+					if (!(sum > 1e-12 * xPowSum[2 * i])) {
+						return null;
+					}
+					l[i][i] = Math.sqrt(sum);
+				} else {
+					l[i][j] = sum / l[j][j];
+				}
+			}
+		}
+
+		// solve L*z = b then Lt*a = z
+		double[] a = new double[m];
+		for (int i = 0; i < m; i++) {
+			double sum = xPowYSum[i];
+			for (int k = 0; k < i; k++) {
+				sum -= l[i][k] * a[k];
+			}
+			a[i] = sum / l[i][i];
+		}
+		for (int i = m - 1; i >= 0; i--) {
+			double sum = a[i];
+			for (int k = i + 1; k < m; k++) {
+				sum -= l[k][i] * a[k];
+			}
+			a[i] = sum / l[i][i];
+		}
+		return unscale(a);
+	}
+
+	/**
+	 * Finds the sum of squared residuals of several fits in one pass over the data
+	 *
+	 * @param coefs The coefficients of each fit as returned by fit
+	 * @return The sum of squared residuals of each fit
+	 */
+	public double[] getSumSqResiduals(double[][] coefs) {
+		int n = x.length;
+		int nFits = coefs.length;
+		int nChunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		double[][] partial = new double[nChunks][];
+		IntStream.range(0, nChunks).parallel().forEach(c -> {
+			double[] sse = new double[nFits];
+			int end = Math.min(n, (c + 1) * CHUNK_SIZE);
+			for (int i = c * CHUNK_SIZE; i < end; i++) {
+				double xv = x[i];
+				for (int f = 0; f < nFits; f++) {
+					double[] a = coefs[f];
+					double fx = a[a.length - 1];
+					for (int k = a.length - 2; k >= 0; k--) {
+						fx = fx * xv + a[k];
+					}
+					double r = y[i] - fx;
+					sse[f] += r * r;
+				}
+			}
+			partial[c] = sse;
+		});
+
+		double[] sse = new double[nFits];
+		for (double[] p : partial) {
+			for (int f = 0; f < nFits; f++) sse[f] += p[f];
+		}
+		return sse;
+	}
+
+	/**
+	 * @param sumSqResiduals The sum of squared residuals of a fit
+	 * @return The coefficient of determination, as ImageJ's CurveFitter
+	 */
+	public double getRSquared(double sumSqResiduals) {
+		return sumSqMeanDiff > 0 ? 1 - sumSqResiduals / sumSqMeanDiff : Double.NaN;
+	}
+
+	// converts the coefficients of the scaled x, (x-xCenter)/xScale, to x
+	private double[] unscale(double[] a) {
+		int m = a.length;
+		double[] coef = new double[m];
+		double invScale = 1 / xScale;
+		// binomial expansion of ((x-c)/s)^k, binom is C(k,j)
+		double[] binom = new double[m];
+		double sPow = 1;
+		for (int k = 0; k < m; k++) {
+			for (int j = k; j > 0; j--) {
+				binom[j] += binom[j - 1];
+			}
+			binom[0] = 1;
+			double cPow = 1;
+			for (int j = k; j >= 0; j--) {
+				coef[j] += a[k] * sPow * binom[j] * cPow;
+				cPow *= -xCenter;
+			}
+			sPow *= invScale;
+		}
+		return coef;
+	}
+}
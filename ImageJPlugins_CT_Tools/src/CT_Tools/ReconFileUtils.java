@@ -0,0 +1,241 @@
+package CT_Tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * A memory-mapped .rcon reader and a .sino writer for the files used by
+ * Base_Recon.exe.<br>
+ * .sino, little-endian: a 100 byte header with the slice count at 0, the width
+ * at 4, 1 at 8, the height at 12 and the float pixel width at 20, followed by
+ * the 16-bit unsigned sinogram slices.<br>
+ * .rcon: a 184 byte header with the 'RECO' key that sets the byte order, the
+ * float pixel size, the slice count, the data format 'B' or 'F', three pad
+ * bytes, the image height and the image width, followed by the slices. The
+ * .rcon layout follows the reader by Guy Williams, gbw1000@wbic.cam.ac.uk.<br>
+ * The reader returns a VirtualStack, a slice is mapped and copied from the file
+ * only when ImageJ asks for it so large files open without loading them.
+ *
+ * @author LazzyIzzi
+ */
+public class ReconFileUtils {
+
+	static final int SINO_HEADER_BYTES = 100;
+	static final int RCON_HEADER_BYTES = 184;
+	static final int RCON_KEY = 1380270927; // 'RECO'
+
+	/**
+	 * A VirtualStack of 8, 16 or 32-bit slices stored one after the other in a
+	 * file. Each call to getProcessor maps the slice and copies it into a new
+	 * processor, the file is never loaded as a whole.
+	 */
+	public class MappedVirtualStack extends VirtualStack {
+		final String filePath;
+		final long offset;
+		final int nSlices, bitDepth;
+		final ByteOrder byteOrder;
+		double scale = 1;
+
+		/**
+		 * @param filePath  The path to the file
+		 * @param offset    The position of the first slice in the file
+		 * @param width     The slice width
+		 * @param height    The slice height
+		 * @param nSlices   The number of slices
+		 * @param bitDepth  8, 16 or 32
+		 * @param byteOrder The byte order of the 16 and 32-bit slices
+		 */
+		public MappedVirtualStack(String filePath, long offset, int width, int height, int nSlices, int bitDepth,
+				ByteOrder byteOrder) {
+			super(width, height, null, null);
+			setBitDepth(bitDepth);
+			this.filePath = filePath;
+			this.offset = offset;
+			this.nSlices = nSlices;
+			this.bitDepth = bitDepth;
+			this.byteOrder = byteOrder;
+		}
+
+		/**
+		 * Multiplies the 32-bit pixels as they are read, e.g. to convert a
+		 * reconstruction from 1/pixel to 1/cm without touching the file.
+		 *
+		 * @param scale the pixel multiplier
+		 */
+		public void setScale(double scale) {
+			this.scale = scale;
+		}
+
+		@Override
+		public ImageProcessor getProcessor(int n) {
+			int width = getWidth();
+			int height = getHeight();
+			int pixCnt = width * height;
+			int sliceBytes = pixCnt * (bitDepth / 8);
+			long pos = offset + (long) (n - 1) * sliceBytes;
+
+			try (RandomAccessFile raf = new RandomAccessFile(filePath, "r"); FileChannel fc = raf.getChannel()) {
+				MappedByteBuffer mbb = fc.map(FileChannel.MapMode.READ_ONLY, pos, sliceBytes);
+				mbb.order(byteOrder);
+				switch (bitDepth) {
+				case 8:
+					byte[] bytePix = new byte[pixCnt];
+					mbb.get(bytePix);
+					return new ByteProcessor(width, height, bytePix);
+				case 16:
+					short[] shortPix = new short[pixCnt];
+					mbb.asShortBuffer().get(shortPix);
+					return new ShortProcessor(width, height, shortPix, null);
+				default:
+					float[] floatPix = new float[pixCnt];
+					mbb.asFloatBuffer().get(floatPix);
+					if (scale != 1) {
+						for (int i = 0; i < pixCnt; i++) {
+							floatPix[i] = (float) (floatPix[i] * scale);
+						}
+					}
+					return new FloatProcessor(width, height, floatPix);
+				}
+			} catch (IOException e) {
+				IJ.log("Recon Reader: Slice " + n + ": " + e.getMessage());
+				return new FloatProcessor(width, height);
+			}
+		}
+
+		@Override
+		public Object getPixels(int n) {
+			return getProcessor(n).getPixels();
+		}
+
+		@Override
+		public int getSize() {
+			return nSlices;
+		}
+
+		@Override
+		public int size() {
+			return getSize();
+		}
+
+		@Override
+		public String getSliceLabel(int n) {
+			return null;
+		}
+	}
+
+	/**
+	 * Opens a Base_Recon .rcon file as a virtual stack. The byte order is taken
+	 * from the 'RECO' key.
+	 *
+	 * @param path The path to the .rcon file
+	 * @return The reconstruction, pixel size in cm, null if the file can't be read
+	 */
+	public ImagePlus openRecon(String path) {
+		try (RandomAccessFile raf = new RandomAccessFile(path, "r"); FileChannel fc = raf.getChannel()) {
+			MappedByteBuffer hdr = fc.map(FileChannel.MapMode.READ_ONLY, 0, RCON_HEADER_BYTES);
+			hdr.order(ByteOrder.LITTLE_ENDIAN);
+			if (hdr.getInt(0) != RCON_KEY) {
+				hdr.order(ByteOrder.BIG_ENDIAN);
+			}
+			float pixSize = hdr.getFloat(4); // Size of pixels
+			int nviews = hdr.getInt(8); // Number of Slices
+			char dataFormat = (char) hdr.get(12); // data format, Byte or Float
+			int xsize = hdr.getInt(16);
+			int ysize = hdr.getInt(20); // Dimensions of image
+			int bitDepth = dataFormat == 'F' ? 32 : 8;
+
+			long dataBytes = (long) xsize * ysize * nviews * (bitDepth / 8);
+			if (fc.size() < RCON_HEADER_BYTES + dataBytes) {
+				IJ.log("Recon Reader: " + path + " is shorter than its header describes");
+				return null;
+			}
+			MappedVirtualStack stk = new MappedVirtualStack(path, RCON_HEADER_BYTES, ysize, xsize, nviews, bitDepth,
+					hdr.order());
+			ImagePlus imp = new ImagePlus(new File(path).getName(), stk);
+			imp.getCalibration().setUnit("cm");
+			imp.getCalibration().pixelWidth = pixSize;
+			imp.getCalibration().pixelHeight = pixSize;
+			imp.getCalibration().pixelDepth = pixSize;
+			return imp;
+		} catch (IOException e) {
+			IJ.log("Recon Reader: Header: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Writes a 16 or 32-bit sinogram stack in 16-bit unsigned .sino format in a
+	 * single pass. Each slice is converted into one reusable little-endian buffer
+	 * and written through a FileChannel, no 16-bit copy of the stack is made.<br>
+	 * 32-bit pixels p are stored as (int)(p*scaleFactor+0.5) clipped to 0-65535,
+	 * 16-bit pixels are stored unchanged.
+	 *
+	 * @param sinoStk     A 16 or 32-bit sinogram stack
+	 * @param scaleFactor The 32-bit to 16-bit multiplier, e.g. 6000
+	 * @param pixelWidth  The sinogram pixel width
+	 * @param path        The path to the .sino file, overwritten if it exists
+	 * @return true if the file was written
+	 */
+	public boolean writeSino(ImageStack sinoStk, double scaleFactor, double pixelWidth, String path) {
+		int width = sinoStk.getWidth();
+		int height = sinoStk.getHeight();
+		int nSlices = sinoStk.getSize();
+		int pixCnt = width * height;
+		float scale = (float) scaleFactor;
+
+		try (RandomAccessFile raf = new RandomAccessFile(path, "rw"); FileChannel fc = raf.getChannel()) {
+			raf.setLength(0);
+			ByteBuffer hdr = ByteBuffer.allocate(SINO_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			hdr.putInt(0, nSlices);
+			hdr.putInt(4, width);
+			hdr.putInt(8, 1);
+			hdr.putInt(12, height);
+			hdr.putFloat(20, (float) pixelWidth);
+			writeFully(fc, hdr);
+
+			ByteBuffer buf = ByteBuffer.allocateDirect(pixCnt * 2).order(ByteOrder.LITTLE_ENDIAN);
+			for (int slice = 1; slice <= nSlices; slice++) {
+				Object pixels = sinoStk.getPixels(slice);
+				buf.clear();
+				if (pixels instanceof float[]) {
+					float[] floatPix = (float[]) pixels;
+					for (int i = 0; i < pixCnt; i++) {
+						float value = floatPix[i] * scale + 0.5f;
+						if (value < 0f) value = 0f;
+						if (value > 65535f) value = 65535f;
+						buf.putShort(2 * i, (short) value);
+					}
+				} else {
+					buf.asShortBuffer().put((short[]) pixels);
+				}
+				writeFully(fc, buf);
+				IJ.showProgress(slice, nSlices);
+			}
+		} catch (IOException e) {
+			IJ.error("An error occured while writing the file. " + path);
+			return false;
+		}
+		return true;
+	}
+
+	private void writeFully(FileChannel fc, ByteBuffer buf) throws IOException {
+		buf.position(0);
+		while (buf.hasRemaining()) {
+			fc.write(buf);
+		}
+	}
+}
@@ -4,6 +4,7 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
 import java.util.Arrays;
+import java.util.stream.IntStream;
 //import java.util.Vector;
 
 //import DocumentReader.DocumentReader;
@@ -57,6 +58,9 @@ public class Scanner_Setup implements PlugIn, DialogListener, ActionListener
 	// paths less than 1 pixel will be dominated by partial voxel effects
 	final double gThin = .001;
 	
+	// The number of points on the attenuation vs thickness curve
+	final int tauPathCount = 2001;
+	
 	//A bunch of constants
 	final String mySettingsTitle = "Scanner_Setup";
 	final String dialogTitle = "Scanner Setup";	
@@ -523,49 +527,46 @@ public class Scanner_Setup implements PlugIn, DialogListener, ActionListener
 	}
 		
 	//This method calculates tau vs thickness
+	//The detected spectrum with no sample, src*filter transmission*detector absorption,
+	//is the same at every path, so each path is one exp weighted sum over the energies
+	//I(path) = sum(w[j]*exp(-sampleMuLin[j]*path)), tau = -ln(I(path)/I(0))
 	private TauData getTauData()
 	{
-		final double pathStep = 0.1;
-		int size = (int)Math.ceil((bhSet.matlCM)/pathStep) + 1;
+		final int size = tauPathCount;
+		final double pathStep = bhSet.matlCM/(size-1);
 		TauData td = new TauData();
 		td.tau = new double[size];
 		td.path = new double[size];
 
-		double src;//The source
-		double filterTau,sampleTau,detTau;//The Scanner absorbances
-		double srcFilt,srcFiltDet,srcFiltSamp,srcFiltSampDet;//The Spectra
-		double srcFiltDetIntg,srcFiltSampDetIntg;//Integration
-		double keV,meV;
-		double path=0;
-		for( int i = 0; i < size; i++)
+		//The tables do not depend on the path, look them up once
+		double[] meV = getMeVGrid();
+		double[] src = SpectralTableCache.getKramers(bhSet.kv, bhSet.ma, bhSet.target, meV);
+		double[] filterMuLin = SpectralTableCache.getMuLin(bhSet.filter, bhSet.filterGmPerCC, meV);
+		double[] detMuLin = SpectralTableCache.getMuLin(bhSet.detFormula, bhSet.detGmPerCC, meV);
+		double[] sampleMuLin = SpectralTableCache.getMuLin(bhSet.matlFormula, bhSet.matlGmPerCC, meV);
+
+		//The filtered source detected
+		final int nE = meV.length;
+		final double[] weight = new double[nE];
+		double srcFiltDetIntg = 0;
+		for(int j = 0; j < nE; j++)
+		{
+			weight[j] = src[j] * Math.exp(-filterMuLin[j] * bhSet.filterCM) * (1 - Math.exp(-detMuLin[j] * bhSet.detCM));
+			srcFiltDetIntg += weight[j];
+		}
+		final double io = srcFiltDetIntg;
+
+		IntStream.range(0, size).parallel().forEach(i ->
 		{
-			srcFiltDetIntg = 0;
-			srcFiltSampDetIntg =0;
-			for(keV = bhSet.kv; keV >= bhSet.kvMin; keV-= bhSet.kvInc)
+			double path = i * pathStep;
+			double srcFiltSampDetIntg = 0;
+			for(int j = 0; j < nE; j++)
 			{
-				//The Source Intensity at meV
-				meV = keV / 1000;
-				src = mmc.spectrumKramers(bhSet.kv, bhSet.ma, bhSet.target, meV);	
-
-				//The component attenuations
-				filterTau = mmc.getMuMass(bhSet.filter, meV, "TotAttn") * bhSet.filterCM * bhSet.filterGmPerCC;           
-				detTau = mmc.getMuMass(bhSet.detFormula, meV, "TotAttn") * bhSet.detCM * bhSet.detGmPerCC;
-				sampleTau = mmc.getMuMass(bhSet.matlFormula, meV, "TotAttn") * path * bhSet.matlGmPerCC;
-
-				//The intensities
-				srcFilt = src * Math.exp(-filterTau);            //The filtered source
-				srcFiltDet = srcFilt * (1 - Math.exp(-detTau));  //The filtered source detected
-				srcFiltSamp = srcFilt * Math.exp(-sampleTau);    //The source attenuated by the bhSet.filter and the sample
-				srcFiltSampDet = srcFiltSamp * (1 - Math.exp(-detTau));  //The source attenuated by the bhSet.filter and the sample detected
-
-				//Integrate
-				srcFiltDetIntg += srcFiltDet;
-				srcFiltSampDetIntg += srcFiltSampDet;
+				srcFiltSampDetIntg += weight[j] * Math.exp(-sampleMuLin[j] * path);
 			}
-			td.tau[i] = -Math.log(srcFiltSampDetIntg / srcFiltDetIntg);
+			td.tau[i] = -Math.log(srcFiltSampDetIntg / io);
 			td.path[i] = path;
-			path += pathStep;
-		}
+		});
 		return td;
 	}
 	
@@ -630,7 +631,8 @@ public class Scanner_Setup implements PlugIn, DialogListener, ActionListener
 	private XraySpectra getXraySpectra()
 	{
 		XraySpectra xrs = new XraySpectra();
-		int size = (int)((bhSet.kv-bhSet.kvMin)/bhSet.kvInc) +1;
+		double[] meV = getMeVGrid();
+		int size = meV.length;
 		xrs.size = size;
 		//The source
 		xrs.src = new double[size];
@@ -652,21 +654,21 @@ public class Scanner_Setup implements PlugIn, DialogListener, ActionListener
 		xrs.srcFiltSampDet = new double[size];
 		xrs.srcFiltThinSampDet = new double[size];
 
-		double meV;
-		int i=0;
-		//for(double keV = bhSet.kvMin; keV <= bhSet.kv; keV+= bhSet.kvInc)
-		for(double keV = bhSet.kv; keV >= bhSet.kvMin; keV-= bhSet.kvInc)
+		double[] src = SpectralTableCache.getKramers(bhSet.kv, bhSet.ma, bhSet.target, meV);//get the source continuum intensity spectrum
+		double[] filterMuLin = SpectralTableCache.getMuLin(bhSet.filter, bhSet.filterGmPerCC, meV);
+		double[] detMuLin = SpectralTableCache.getMuLin(bhSet.detFormula, bhSet.detGmPerCC, meV);
+		double[] sampleMuLin = SpectralTableCache.getMuLin(bhSet.matlFormula, bhSet.matlGmPerCC, meV);
+		for(int i = 0; i < size; i++)
 		{
 			//The Source Spectrum
-			meV = keV / 1000;
-			xrs.kevList[i] = keV;			
-			xrs.src[i] = mmc.spectrumKramers(bhSet.kv, bhSet.ma, bhSet.target, meV);//get the source continuum intensity spectrum			
+			xrs.kevList[i] = meV[i] * 1000;			
+			xrs.src[i] = src[i];
 
             //The component attenuations
-			xrs.filterTau[i] = mmc.getMuMass(bhSet.filter, meV, "TotAttn") * bhSet.filterCM * bhSet.filterGmPerCC;           
-			xrs.detTau[i] = mmc.getMuMass(bhSet.detFormula, meV, "TotAttn") * bhSet.detCM * bhSet.detGmPerCC;
-			xrs.sampleTau[i] = mmc.getMuMass(bhSet.matlFormula, meV, "TotAttn") * bhSet.matlCM * bhSet.matlGmPerCC;
-			xrs.thinSampleTau[i] = mmc.getMuMass(bhSet.matlFormula, meV, "TotAttn") * gThin * bhSet.matlCM * bhSet.matlGmPerCC; // 0.001 = approximately 1 pixel
+			xrs.filterTau[i] = filterMuLin[i] * bhSet.filterCM;           
+			xrs.detTau[i] = detMuLin[i] * bhSet.detCM;
+			xrs.sampleTau[i] = sampleMuLin[i] * bhSet.matlCM;
+			xrs.thinSampleTau[i] = sampleMuLin[i] * gThin * bhSet.matlCM; // 0.001 = approximately 1 pixel
             
             //The intensity spectra
             //srcNoFiltDet[i] = src[i] * (1 - Math.exp(-detTau[i]))    //The unfiltered source Currently unused
@@ -677,12 +679,23 @@ public class Scanner_Setup implements PlugIn, DialogListener, ActionListener
 			xrs.srcFiltThinSamp[i] = xrs.srcFilt[i] * Math.exp(-xrs.thinSampleTau[i]);    //The source attenuated by the bhSet.filter and a arbitrary very thin part of the sample
 			xrs.srcFiltSampDet[i] = xrs.srcFiltSamp[i] * (1 - Math.exp(-xrs.detTau[i]));  //The source attenuated by the bhSet.filter and the sample detected
 			xrs.srcFiltThinSampDet[i] = xrs.srcFiltThinSamp[i] * (1 - Math.exp(-xrs.detTau[i])); //The source attenuated by the bhSet.filter and the thin sample detected
-
- 			i++;
 		}		
 		return xrs;		
 	}
 	
+	//The spectrum energies in MeV from kv down to kvMin in kvInc steps
+	private double[] getMeVGrid()
+	{
+		int size = (int)((bhSet.kv-bhSet.kvMin)/bhSet.kvInc) +1;
+		double[] meV = new double[size];
+		int i=0;
+		for(double keV = bhSet.kv; keV >= bhSet.kvMin && i < size; keV-= bhSet.kvInc)
+		{
+			meV[i++] = keV / 1000;
+		}
+		return i < size ? Arrays.copyOf(meV, i) : meV;
+	}
+	
 	//Called if ReadSerializedObject fails
 	private void initializeSettings()
 	{
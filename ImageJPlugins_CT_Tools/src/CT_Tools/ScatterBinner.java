@@ -0,0 +1,129 @@
+package CT_Tools;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import ij.Prefs;
+
+/**
+ * Reduces a large set of (x, y) points to the centroids of a gridSize by
+ * gridSize 2D histogram spanning the data. Each non-empty bin becomes one
+ * point weighted by its count, so a weighted fit to the centroids
+ * approximates the fit to all of the points at a fraction of the cost.<br>
+ * Also picks a capped subsample of the points for plotting.
+ *
+ * @author LazzyIzzi
+ */
+public class ScatterBinner {
+
+	private final double[] binX, binY, binCount;
+
+	/**
+	 * @param x        The x values
+	 * @param y        The y values, the same length as x
+	 * @param gridSize The number of bins along each axis
+	 */
+	public ScatterBinner(double[] x, double[] y, int gridSize) {
+		int n = x.length;
+		double xMin = Double.POSITIVE_INFINITY, xMax = Double.NEGATIVE_INFINITY;
+		double yMin = Double.POSITIVE_INFINITY, yMax = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			if (x[i] < xMin) xMin = x[i];
+			if (x[i] > xMax) xMax = x[i];
+			if (y[i] < yMin) yMin = y[i];
+			if (y[i] > yMax) yMax = y[i];
+		}
+		final double x0 = xMin, y0 = yMin;
+		final double xBinScale = xMax > xMin ? gridSize / (xMax - xMin) : 0;
+		final double yBinScale = yMax > yMin ? gridSize / (yMax - yMin) : 0;
+		final int last = gridSize - 1;
+		final int nBins = gridSize * gridSize;
+
+		// each task fills its own histogram, the histograms are summed after
+		int nTasks = Math.max(1, Math.min(Prefs.getThreads(), n / 4096));
+		double[][][] partial = new double[nTasks][][];
+		IntStream.range(0, nTasks).parallel().forEach(t -> {
+			double[] sx = new double[nBins], sy = new double[nBins], cnt = new double[nBins];
+			int end = (int) ((long) n * (t + 1) / nTasks);
+			for (int i = (int) ((long) n * t / nTasks); i < end; i++) {
+				int bx = Math.min(last, (int) ((x[i] - x0) * xBinScale));
+				int by = Math.min(last, (int) ((y[i] - y0) * yBinScale));
+				int b = by * gridSize + bx;
+				sx[b] += x[i];
+				sy[b] += y[i];
+				cnt[b]++;
+			}
+			partial[t] = new double[][] { sx, sy, cnt };
+		});
+
+		double[] sx = partial[0][0], sy = partial[0][1], cnt = partial[0][2];
+		for (int t = 1; t < nTasks; t++) {
+			for (int b = 0; b < nBins; b++) {
+				sx[b] += partial[t][0][b];
+				sy[b] += partial[t][1][b];
+				cnt[b] += partial[t][2][b];
+			}
+		}
+
+		int nFilled = 0;
+		for (int b = 0; b < nBins; b++) {
+			if (cnt[b] > 0) nFilled++;
+		}
+		binX = new double[nFilled];
+		binY = new double[nFilled];
+		binCount = new double[nFilled];
+		for (int b = 0, j = 0; b < nBins; b++) {
+			if (cnt[b] > 0) {
+				binX[j] = sx[b] / cnt[b];
+				binY[j] = sy[b] / cnt[b];
+				binCount[j] = cnt[b];
+				j++;
+			}
+		}
+	}
+
+	/**
+	 * @return The x centroids of the non-empty bins
+	 */
+	public double[] getX() {
+		return binX;
+	}
+
+	/**
+	 * @return The y centroids of the non-empty bins
+	 */
+	public double[] getY() {
+		return binY;
+	}
+
+	/**
+	 * @return The number of points in each non-empty bin
+	 */
+	public double[] getWeights() {
+		return binCount;
+	}
+
+	/**
+	 * Picks one random point from each of maxCount equal runs of the point list,
+	 * so the sample covers the whole list
+	 *
+	 * @param n        The number of points
+	 * @param maxCount The largest sample size
+	 * @param seed     The random seed, the same seed gives the same sample
+	 * @return The indices of the sample points in increasing order, or all
+	 *         indices if n is not more than maxCount
+	 */
+	public static int[] sampleIndices(int n, int maxCount, long seed) {
+		if (n <= maxCount) {
+			return IntStream.range(0, n).toArray();
+		}
+		Random rand = new Random(seed);
+		int[] index = new int[maxCount];
+		for (int j = 0; j < maxCount; j++) {
+			int start = (int) ((long) n * j / maxCount);
+			int end = (int) ((long) n * (j + 1) / maxCount);
+			index[j] = start + rand.nextInt(end - start);
+		}
+		return index;
+	}
+}
@@ -0,0 +1,154 @@
+package CT_Tools;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+
+/**
+ * Receives projected sinograms in slice order and stores each one as soon as
+ * it arrives, either as a new slice of an in-memory stack or appended to a
+ * little-endian raw file. The float sinogram is released right away so the
+ * extra memory does not grow with the number of slices.<br>
+ * A raw file holds every slice received before a failure or cancel, it can be
+ * opened with File&gt;Import&gt;Raw using the parameters written to the Log
+ * window.
+ *
+ * @author LazzyIzzi
+ */
+public class SinogramSink implements SliceProjector.SinogramConsumer {
+
+	private final int height;
+	private final boolean scale16;
+	private final double scaleFactor, pixelFactor;
+	private final String rawPath;
+
+	private ImageStack sinoStk;
+	private RandomAccessFile raf;
+	private FileChannel fc;
+	private ByteBuffer buf;
+	private int width, slicesDone;
+
+	/**
+	 * @param numAng      The number of view angles, the sinogram height
+	 * @param scale16     true to store unsigned 16-bit sinograms
+	 * @param scaleFactor The 16-bit multiplier, negative values are stored as 0
+	 * @param pixelFactor The per pixel to per unit multiplier applied to every
+	 *                    sinogram, e.g. the pixel size in cm or 1
+	 * @param rawPath     The raw file to stream to, null to keep the slices in
+	 *                    memory
+	 */
+	public SinogramSink(int numAng, boolean scale16, double scaleFactor, double pixelFactor, String rawPath) {
+		this.height = numAng;
+		this.scale16 = scale16;
+		this.scaleFactor = scaleFactor;
+		this.pixelFactor = pixelFactor;
+		this.rawPath = rawPath;
+	}
+
+	@Override
+	public void accept(int slice, float[] sinogram) {
+		if (slicesDone == 0) {
+			start(sinogram.length / height);
+		}
+		Object pixels;
+		if (scale16) {
+			short[] sino16 = new short[sinogram.length];
+			for (int j = 0; j < sinogram.length; j++) {
+				float v = sinogram[j] < 0 ? 0 : sinogram[j];
+				sino16[j] = (short) (v * scaleFactor * pixelFactor);
+			}
+			pixels = sino16;
+		} else {
+			if (pixelFactor != 1) {
+				for (int j = 0; j < sinogram.length; j++) {
+					sinogram[j] *= pixelFactor;
+				}
+			}
+			pixels = sinogram;
+		}
+
+		if (fc == null) {
+			sinoStk.addSlice(null, pixels);
+		} else {
+			writeSlice(pixels);
+		}
+		slicesDone++;
+	}
+
+	/**
+	 * @return The number of slices stored so far
+	 */
+	public int getSlicesDone() {
+		return slicesDone;
+	}
+
+	/**
+	 * Closes the raw file and returns the slices stored so far. A streamed
+	 * sinogram is returned as a virtual stack read from the raw file.
+	 *
+	 * @param title The title of the sinogram ImagePlus
+	 * @return The sinogram ImagePlus or null if no slices were stored
+	 */
+	public ImagePlus finish(String title) {
+		if (raf != null) {
+			try {
+				raf.close();
+			} catch (IOException e) {
+				IJ.log("Sinogram Sink: " + e.getMessage());
+			}
+			raf = null;
+			fc = null;
+			IJ.log(rawPath + ": " + slicesDone + " slices, " + (scale16 ? "16-bit Unsigned" : "32-bit Real")
+					+ ", width=" + width + ", height=" + height + ", offset=0, little-endian");
+		}
+		if (slicesDone == 0) {
+			return null;
+		}
+		if (rawPath == null) {
+			return new ImagePlus(title, sinoStk);
+		}
+		ReconFileUtils rfu = new ReconFileUtils();
+		ImageStack rawStk = rfu.new MappedVirtualStack(rawPath, 0, width, height, slicesDone, scale16 ? 16 : 32,
+				ByteOrder.LITTLE_ENDIAN);
+		return new ImagePlus(title, rawStk);
+	}
+
+	private void start(int sinoWidth) {
+		width = sinoWidth;
+		if (rawPath == null) {
+			sinoStk = new ImageStack(width, height);
+			return;
+		}
+		try {
+			raf = new RandomAccessFile(rawPath, "rw");
+			raf.setLength(0);
+			fc = raf.getChannel();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		buf = ByteBuffer.allocateDirect(width * height * (scale16 ? 2 : 4)).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private void writeSlice(Object pixels) {
+		buf.clear();
+		if (scale16) {
+			buf.asShortBuffer().put((short[]) pixels);
+		} else {
+			buf.asFloatBuffer().put((float[]) pixels);
+		}
+		try {
+			while (buf.hasRemaining()) {
+				fc.write(buf);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
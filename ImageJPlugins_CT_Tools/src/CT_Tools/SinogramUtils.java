@@ -14,6 +14,212 @@ import ij.process.ImageProcessor;
  *
  */
 public class SinogramUtils {
+
+	/**
+	 * Fused sinogram preconditioning, one row at a time.<br>
+	 * Does the same work as profileExtend, axisShift,
+	 * applyBeamHardeningCorrection and padSinogram called in that order, but
+	 * writes each extended, shifted, corrected and zero padded row straight into
+	 * the caller's buffer so the padded sinogram is never built. The axis shift
+	 * uses the same Catmull-Rom kernel as ImageJ's bicubic translate, with its
+	 * linear fallback at the left and right edges and in the first and last two
+	 * rows.<br>
+	 * The tables are computed once by the constructor and never changed, so one
+	 * SinoPreconditioner may be shared by several threads.
+	 */
+	public class SinoPreconditioner {
+		final int sinoWidth, extensionWidth, extendedWidth, paddedWidth, padOffset;
+		final float beamHardeningFactor;
+		final float[] ext;
+		// the four source columns and weights of each shifted column,
+		// null when there is no shift
+		final int[] shiftBase;
+		final double[] shiftWeights;
+		// the two source columns and weights of the linear interpolation used by
+		// ImageJ in the edge rows, null when there is no fractional shift
+		final int[] linearBase;
+		final double[] linearWeights;
+
+		/**
+		 * @param sinoWidth           The width of the unmodified sinogram
+		 * @param extensionWidth      The profile extension width, 0 for none
+		 * @param axisShift           Move axis of rotation "-" left "+" to the right
+		 * @param beamHardeningFactor The beam hardening correction factor, 0 for none
+		 * @param padFactor           padFactor*the extended sinogram width gives the
+		 *                            padded width
+		 */
+		public SinoPreconditioner(int sinoWidth, int extensionWidth, float axisShift, float beamHardeningFactor,
+				int padFactor) {
+			this(sinoWidth, getLinearExtension(extensionWidth), axisShift, beamHardeningFactor, padFactor);
+		}
+
+		/**
+		 * @param sinoWidth           The width of the unmodified sinogram
+		 * @param ext                 The 1 to 0 profile extension ramp, e.g. from
+		 *                            getExtension, its length is the extension width
+		 * @param axisShift           Move axis of rotation "-" left "+" to the right
+		 * @param beamHardeningFactor The beam hardening correction factor, 0 for none
+		 * @param padFactor           padFactor*the extended sinogram width gives the
+		 *                            padded width
+		 */
+		public SinoPreconditioner(int sinoWidth, float[] ext, float axisShift, float beamHardeningFactor,
+				int padFactor) {
+			int extensionWidth = ext.length;
+			this.sinoWidth = sinoWidth;
+			this.extensionWidth = extensionWidth;
+			this.beamHardeningFactor = beamHardeningFactor;
+			extendedWidth = sinoWidth + 2 * extensionWidth;
+			paddedWidth = extendedWidth * padFactor;
+			padOffset = (extendedWidth * (padFactor - 1)) / 2;
+			this.ext = ext;
+
+			if (axisShift == 0) {
+				shiftBase = null;
+				shiftWeights = null;
+				linearBase = null;
+				linearWeights = null;
+			} else if (axisShift == (int) axisShift) {
+				shiftBase = new int[extendedWidth];
+				shiftWeights = new double[4 * extendedWidth];
+				linearBase = null;
+				linearWeights = null;
+				for (int x = 0; x < extendedWidth; x++) {
+					shiftBase[x] = x - (int) axisShift;
+					shiftWeights[4 * x] = 1;
+				}
+			} else {
+				shiftBase = new int[extendedWidth];
+				shiftWeights = new double[4 * extendedWidth];
+				linearBase = new int[extendedWidth];
+				linearWeights = new double[2 * extendedWidth];
+				for (int x = 0; x < extendedWidth; x++) {
+					double xs = x - axisShift;
+					// ImageJ's bilinear value, 0 outside -1 to the width
+					linearBase[x] = (int) Math.floor(xs);
+					if (xs >= -1 && xs < extendedWidth) {
+						double xc = Math.min(Math.max(xs, 0), extendedWidth - 1.001);
+						int xb = (int) xc;
+						double frac = xc - xb;
+						linearBase[x] = xb;
+						linearWeights[2 * x] = 1 - frac;
+						linearWeights[2 * x + 1] = frac;
+					}
+					int u0 = (int) Math.floor(xs);
+					int w = 4 * x;
+					if (u0 <= 0 || u0 >= extendedWidth - 2) {
+						// ImageJ falls back to linear interpolation at the edges
+						shiftBase[x] = linearBase[x];
+						shiftWeights[w] = linearWeights[2 * x];
+						shiftWeights[w + 1] = linearWeights[2 * x + 1];
+					} else {
+						shiftBase[x] = u0 - 1;
+						for (int i = 0; i < 4; i++) {
+							shiftWeights[w + i] = ImageProcessor.cubic(xs - (u0 - 1 + i));
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return The width of the padded rows written by conditionRow
+		 */
+		public int getPaddedWidth() {
+			return paddedWidth;
+		}
+
+		/**
+		 * @return The width of the unmodified sinogram rows read by conditionRow
+		 */
+		public int getSinoWidth() {
+			return sinoWidth;
+		}
+
+		/**
+		 * Writes one preconditioned, zero padded sinogram row
+		 * 
+		 * @param sino       The unmodified 32-bit sinogram pixels
+		 * @param row        The sinogram row to precondition
+		 * @param dest       The destination buffer, e.g. an interleaved FFT row
+		 * @param destStart  The index of the first padded pixel in dest
+		 * @param destStride The spacing of the padded pixels in dest, 2 to fill one
+		 *                   half of an interleaved complex row
+		 */
+		public void conditionRow(float[] sino, int row, float[] dest, int destStart, int destStride) {
+			int height = sino.length / sinoWidth;
+			int rowStart = row * sinoWidth;
+			for (int x = 0; x < padOffset; x++) {
+				dest[destStart + x * destStride] = 0;
+			}
+			for (int x = padOffset + extendedWidth; x < paddedWidth; x++) {
+				dest[destStart + x * destStride] = 0;
+			}
+			// ImageJ's bicubic translate is linear in the rows that lack two
+			// neighbors, the last row is clamped to height-1.001 and so takes a
+			// little of the row above
+			boolean linearRow = linearBase != null && (row <= 0 || row >= height - 2);
+			double rowFrac = 0;
+			if (linearRow && row == height - 1 && height > 1) {
+				rowStart -= sinoWidth;
+				rowFrac = (height - 1.001) - (height - 2);
+			}
+			int d = destStart + padOffset * destStride;
+			for (int x = 0; x < extendedWidth; x++, d += destStride) {
+				float val;
+				if (shiftBase == null) {
+					val = extendedValue(sino, rowStart, x);
+				} else if (linearRow) {
+					double lower = linearValue(sino, rowStart, x);
+					if (rowFrac != 0) {
+						double upper = linearValue(sino, rowStart + sinoWidth, x);
+						lower += rowFrac * (upper - lower);
+					}
+					val = (float) lower;
+				} else {
+					int u = shiftBase[x];
+					int w = 4 * x;
+					double sum = 0;
+					for (int i = 0; i < 4; i++) {
+						if (shiftWeights[w + i] != 0) {
+							sum += extendedValue(sino, rowStart, u + i) * shiftWeights[w + i];
+						}
+					}
+					val = (float) sum;
+				}
+				if (beamHardeningFactor > 0) {
+					val = val * (1 - beamHardeningFactor) + beamHardeningFactor * (val * val);
+				}
+				dest[d] = val;
+			}
+		}
+
+		// the linearly interpolated value of shifted column x
+		private double linearValue(float[] sino, int rowStart, int x) {
+			int u = linearBase[x];
+			double sum = 0;
+			if (linearWeights[2 * x] != 0) {
+				sum += extendedValue(sino, rowStart, u) * linearWeights[2 * x];
+			}
+			if (linearWeights[2 * x + 1] != 0) {
+				sum += extendedValue(sino, rowStart, u + 1) * linearWeights[2 * x + 1];
+			}
+			return sum;
+		}
+
+		// the value of column x of the profile extended row, 0 outside the row
+		private float extendedValue(float[] sino, int rowStart, int x) {
+			if (x < 0 || x >= extendedWidth) {
+				return 0;
+			} else if (x < extensionWidth) {
+				return sino[rowStart] * ext[extensionWidth - 1 - x];
+			} else if (x < extensionWidth + sinoWidth) {
+				return sino[rowStart + x - extensionWidth];
+			} else {
+				return sino[rowStart + sinoWidth - 1] * ext[x - extensionWidth - sinoWidth];
+			}
+		}
+	}
+
 	/**
 	 * Calls ImageJ's Translate to shift the position of the sinogram center of
 	 * rotation
@@ -219,6 +425,95 @@ public class SinogramUtils {
 	}
 
 
+	/**
+	 * Builds a 1 to 0 profile extension ramp of the named shape. With t running
+	 * from 1/extensionWidth to 1 the shapes are Half Sine cos(&pi;t/2), Linear
+	 * 1-t, Half Gaussian exp(-4.5t<sup>2</sup>), Exponential exp(-5t), 1 over r
+	 * 1/(1+9t) and 1 over r sq 1/(1+9t)<sup>2</sup>.<br>
+	 * The names are CT_Recon_ParallelBeam's Extension_Shape choices, the shapes
+	 * only approximate Base_Recon.exe's extensions, whose formulas are not known.
+	 * 
+	 * @param extensionWidth the width of the ramp
+	 * @param shape          "Half Sine","Linear","Half Gaussian","Exponential","1
+	 *                       over r" or "1 over r sq", unknown shapes are linear
+	 * @return the ramp
+	 */
+	public float[] getExtension(int extensionWidth, String shape) {
+		float[] extension = new float[extensionWidth];
+		for (int i = 0; i < extensionWidth; i++) {
+			double t = (i + 1.0) / extensionWidth;
+			double val;
+			switch (shape) {
+			case "Half Sine":
+				val = Math.cos(Math.PI * t / 2);
+				break;
+			case "Half Gaussian":
+				val = Math.exp(-4.5 * t * t);
+				break;
+			case "Exponential":
+				val = Math.exp(-5 * t);
+				break;
+			case "1 over r":
+				val = 1 / (1 + 9 * t);
+				break;
+			case "1 over r sq":
+				val = 1 / ((1 + 9 * t) * (1 + 9 * t));
+				break;
+			default:
+				return getLinearExtension(extensionWidth);
+			}
+			extension[i] = (float) Math.max(val, 0);
+		}
+		return extension;
+	}
+
+	/**
+	 * Suppresses ring artifacts by removing column offsets from a sinogram. Each
+	 * column mean is compared with the median of it and its two neighbors, the
+	 * difference is subtracted from the column. With a threshold of 0 every
+	 * column is corrected, otherwise only columns whose difference is more than
+	 * threshold times the average difference.<br>
+	 * An in-process stand-in for Base_Recon.exe's Fix_severe_rings option, the
+	 * results have not been compared with it.
+	 * 
+	 * @param sino      The 32-bit sinogram pixels, corrected in place
+	 * @param width     The sinogram width
+	 * @param height    The sinogram height
+	 * @param threshold 0 to correct all columns or e.g. 2 for columns more than
+	 *                  twice the average difference
+	 */
+	public void fixRings(float[] sino, int width, int height, double threshold) {
+		double[] colMean = new double[width];
+		for (int row = 0; row < height; row++) {
+			int rowStart = row * width;
+			for (int col = 0; col < width; col++) {
+				colMean[col] += sino[rowStart + col];
+			}
+		}
+		for (int col = 0; col < width; col++) {
+			colMean[col] /= height;
+		}
+
+		double[] diff = new double[width];
+		double avgDiff = 0;
+		for (int col = 1; col < width - 1; col++) {
+			double a = colMean[col - 1], b = colMean[col], c = colMean[col + 1];
+			double median = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+			diff[col] = b - median;
+			avgDiff += Math.abs(diff[col]);
+		}
+		avgDiff /= Math.max(width - 2, 1);
+
+		for (int col = 1; col < width - 1; col++) {
+			if (threshold == 0 || Math.abs(diff[col]) > threshold * avgDiff) {
+				float offset = (float) diff[col];
+				for (int row = 0; row < height; row++) {
+					sino[row * width + col] -= offset;
+				}
+			}
+		}
+	}
+
 	/**
 	 * builds a simple linear 1 to 0 ramp
 	 * 
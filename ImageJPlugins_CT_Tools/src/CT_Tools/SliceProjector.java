@@ -0,0 +1,159 @@
+package CT_Tools;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import ij.IJ;
+import ij.ImageStack;
+import ij.Prefs;
+import ij.plugin.CanvasResizer;
+import ij.process.ImageProcessor;
+
+/**
+ * Projects the slices of an image stack to sinograms using a pool of worker
+ * threads. Used by the MuLin and Tag image to sinogram plugins.<br>
+ * Each slice is padded to the detector size and projected by a worker, each
+ * worker has its own projector. The sinograms are handed back in slice order on
+ * the calling thread so the consumer does not need to be thread safe.<br>
+ * The number of slices in flight, padded, projecting or waiting to be
+ * consumed, is limited by the thread count and by the free heap. Pressing Esc
+ * stops the projection, the slices already consumed are kept.<br>
+ * The jhd projectors are not known to be thread safe with respect to their
+ * parameter objects, each worker should pass its own copy, e.g. from a
+ * ThreadLocal.
+ *
+ * @author LazzyIzzi
+ * @param <P> The projector class, e.g. ParallelProjectors or FanProjectors
+ */
+public class SliceProjector<P> {
+
+	/**
+	 * Projects one padded slice
+	 *
+	 * @param <P> The projector class
+	 */
+	public interface Projection<P> {
+		/**
+		 * @param projector The calling worker's projector
+		 * @param image     The padded slice pixels, do not modify
+		 * @param width     The padded slice width
+		 * @param height    The padded slice height
+		 * @return The sinogram
+		 */
+		float[] project(P projector, float[] image, int width, int height);
+	}
+
+	/**
+	 * Receives the sinograms in slice order on the thread that called projectStack
+	 */
+	public interface SinogramConsumer {
+		/**
+		 * @param slice    The slice number, 1 to nSlices
+		 * @param sinogram The sinogram of the slice
+		 */
+		void accept(int slice, float[] sinogram);
+	}
+
+	private final int paddedWidth, paddedHeight;
+	private final int maxInFlight;
+
+	/**
+	 * @param paddedWidth        The width of the slices passed to the projector
+	 * @param paddedHeight       The height of the slices passed to the projector
+	 * @param sinoPixelsPerSlice An estimate of the pixel count of one sinogram
+	 */
+	public SliceProjector(int paddedWidth, int paddedHeight, long sinoPixelsPerSlice) {
+		this.paddedWidth = paddedWidth;
+		this.paddedHeight = paddedHeight;
+
+		// each slice in flight holds a padded copy, the sinogram and
+		// projector workspace about the size of the sinogram
+		long bytesPerSlice = 4L * paddedWidth * paddedHeight + 8 * sinoPixelsPerSlice;
+		long freeBytes = IJ.maxMemory() - IJ.currentMemory();
+		long budgetSlices = Math.max(1, freeBytes / 2 / bytesPerSlice);
+		maxInFlight = (int) Math.min(budgetSlices, 2 * Prefs.getThreads());
+	}
+
+	/**
+	 * @return The number of slices that may be in flight at once
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * Pads and projects every slice of the stack
+	 *
+	 * @param imageStk         The 32-bit stack of slices to project, not modified
+	 * @param projectorFactory Creates one projector per worker thread
+	 * @param projection       Projects one padded slice
+	 * @param consumer         Receives the sinograms in slice order
+	 * @return false if a projection or the consumer failed or the user pressed
+	 *         Esc
+	 */
+	public boolean projectStack(ImageStack imageStk, Supplier<P> projectorFactory, Projection<P> projection,
+			SinogramConsumer consumer) {
+		int nSlices = imageStk.getSize();
+		int threadCount = Math.max(1, Math.min(Prefs.getThreads(), Math.min(maxInFlight, nSlices)));
+		ThreadLocal<P> threadProjector = ThreadLocal.withInitial(projectorFactory);
+		AtomicInteger slicesDone = new AtomicInteger();
+		ArrayDeque<Future<float[]>> futures = new ArrayDeque<Future<float[]>>();
+		ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+
+		int nextSlice = 1;
+		IJ.resetEscape();
+		try {
+			for (int slice = 1; slice <= nSlices; slice++) {
+				if (IJ.escapePressed()) {
+					return cancel(pool, nextSlice - 1);
+				}
+				// the stack may be virtual, read the slices on this thread
+				final ImageProcessor sliceIp = imageStk.getProcessor(slice);
+				futures.add(pool.submit(() -> {
+					float[] sinogram = projection.project(threadProjector.get(), padSlice(sliceIp), paddedWidth,
+							paddedHeight);
+					IJ.showProgress(slicesDone.incrementAndGet(), nSlices);
+					return sinogram;
+				}));
+				if (futures.size() >= maxInFlight) {
+					consumer.accept(nextSlice++, futures.poll().get());
+				}
+			}
+			while (!futures.isEmpty()) {
+				if (IJ.escapePressed()) {
+					return cancel(pool, nextSlice - 1);
+				}
+				consumer.accept(nextSlice++, futures.poll().get());
+			}
+		} catch (InterruptedException | ExecutionException | RuntimeException e) {
+			pool.shutdownNow();
+			IJ.log("Slice Projector: " + e.getMessage());
+			return false;
+		} finally {
+			pool.shutdown();
+		}
+		return true;
+	}
+
+	private boolean cancel(ExecutorService pool, int slicesConsumed) {
+		pool.shutdownNow();
+		IJ.log("Slice Projector: cancelled after " + slicesConsumed + " slices");
+		return false;
+	}
+
+	private float[] padSlice(ImageProcessor sliceIp) {
+		int width = sliceIp.getWidth();
+		int height = sliceIp.getHeight();
+		if (width == paddedWidth && height == paddedHeight) {
+			return (float[]) sliceIp.getPixels();
+		}
+		ImageProcessor padIp = new CanvasResizer().expandImage(sliceIp, paddedWidth, paddedHeight,
+				(paddedWidth - width) / 2, (paddedHeight - height) / 2);
+		return (float[]) padIp.getPixels();
+	}
+}
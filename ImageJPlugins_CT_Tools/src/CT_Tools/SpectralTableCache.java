@@ -0,0 +1,145 @@
+package CT_Tools;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jhd.MuMassCalculator.MuMassCalculator;
+
+/**
+ * A cache of attenuation and source spectra tabulated on an energy grid.<br>
+ * MuMassCalculator.getMuMass parses the formula and interpolates the NIST
+ * tables on every call. The spectrum plugins ask for the same formula on the
+ * same energy grid each time a dialog value changes, so the tables are kept in
+ * a least recently used cache of at most MAX_ENTRIES arrays.<br>
+ * The returned arrays are shared between callers, do not modify them.<br>
+ * Macro access:<br>
+ * call("CT_Tools.SpectralTableCache.clear");
+ *
+ * @author LazzyIzzi
+ */
+public class SpectralTableCache {
+
+	private static final int MAX_ENTRIES = 256;
+
+	private static final MuMassCalculator mmc = new MuMassCalculator();
+	private static final LinkedHashMap<TableKey, double[]> tableMap = new LinkedHashMap<TableKey, double[]>(64, 0.75f,
+			true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<TableKey, double[]> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	/**
+	 * Identifies a table by what it is computed from
+	 */
+	private static class TableKey {
+		final String name, type;
+		final double scale1, scale2;
+		final double[] meV;
+		final int hash;
+
+		TableKey(String name, String type, double scale1, double scale2, double[] meV) {
+			this.name = name;
+			this.type = type;
+			this.scale1 = scale1;
+			this.scale2 = scale2;
+			this.meV = meV;
+			hash = 31 * (31 * (31 * name.hashCode() + type.hashCode()) + Double.hashCode(scale1 + 3 * scale2))
+					+ Arrays.hashCode(meV);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof TableKey)) {
+				return false;
+			}
+			TableKey k = (TableKey) o;
+			return hash == k.hash && scale1 == k.scale1 && scale2 == k.scale2 && name.equals(k.name)
+					&& type.equals(k.type) && Arrays.equals(meV, k.meV);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	/**
+	 * @param formula The formula as Atom1:Count1:Atom2:Count2...
+	 * @param type    The MuMassCalculator attenuation type, e.g. "TotAttn"
+	 * @param meV     The energy grid in MeV
+	 * @return The mass attenuation in cm2/gm at each energy, shared, do not
+	 *         modify
+	 */
+	public static double[] getMuMass(String formula, String type, double[] meV) {
+		return getMuLin(formula, type, 1, meV);
+	}
+
+	/**
+	 * @param formula The formula as Atom1:Count1:Atom2:Count2...
+	 * @param gmPerCC The density in gm/cc
+	 * @param meV     The energy grid in MeV
+	 * @return The total linear attenuation in 1/cm at each energy, shared, do not
+	 *         modify
+	 */
+	public static double[] getMuLin(String formula, double gmPerCC, double[] meV) {
+		return getMuLin(formula, "TotAttn", gmPerCC, meV);
+	}
+
+	/**
+	 * @param formula The formula as Atom1:Count1:Atom2:Count2...
+	 * @param type    The MuMassCalculator attenuation type, e.g. "TotAttn"
+	 * @param gmPerCC The density in gm/cc
+	 * @param meV     The energy grid in MeV
+	 * @return The linear attenuation in 1/cm at each energy, shared, do not
+	 *         modify
+	 */
+	public static synchronized double[] getMuLin(String formula, String type, double gmPerCC, double[] meV) {
+		TableKey key = new TableKey(formula, type, gmPerCC, 0, meV);
+		double[] table = tableMap.get(key);
+		if (table == null) {
+			table = new double[meV.length];
+			for (int i = 0; i < meV.length; i++) {
+				table[i] = mmc.getMuMass(formula, meV[i], type) * gmPerCC;
+			}
+			tableMap.put(new TableKey(formula, type, gmPerCC, 0, meV.clone()), table);
+		}
+		return table;
+	}
+
+	/**
+	 * @param kv     The source accelerating voltage
+	 * @param ma     The source current
+	 * @param target The source target element symbol
+	 * @param meV    The energy grid in MeV
+	 * @return The Kramers continuum intensity at each energy, shared, do not
+	 *         modify
+	 */
+	public static synchronized double[] getKramers(double kv, double ma, String target, double[] meV) {
+		TableKey key = new TableKey(target, "Kramers", kv, ma, meV);
+		double[] table = tableMap.get(key);
+		if (table == null) {
+			table = new double[meV.length];
+			for (int i = 0; i < meV.length; i++) {
+				table[i] = mmc.spectrumKramers(kv, ma, target, meV[i]);
+			}
+			tableMap.put(new TableKey(target, "Kramers", kv, ma, meV.clone()), table);
+		}
+		return table;
+	}
+
+	/**
+	 * Macro callable, empties the cache
+	 *
+	 * @return A message with the number of tables removed
+	 */
+	public static synchronized String clear() {
+		int size = tableMap.size();
+		tableMap.clear();
+		return "Removed " + size + " spectral tables";
+	}
+}
@@ -0,0 +1,147 @@
+package CT_Tools;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import ij.IJ;
+import ij.ImageStack;
+
+/**
+ * Combines a 32-bit data stack with a tag stack pixel by pixel, optionally
+ * followed by a 3x3 cross median, in one pass.<br>
+ * The slices are split into bands of rows and the bands are processed in
+ * parallel. Each band computes its rows plus one row above and below into a
+ * small buffer and takes the median from the buffer, so the unfiltered result
+ * is never stored as a whole image.<br>
+ * The tag image may be offset in x, e.g. CT_Recon reconstructions are shifted
+ * -1 pixel with respect to the tag image they were projected from. Pixels
+ * whose tag falls outside the tag image get tag 0, as ImageJ's Translate fills
+ * with 0.
+ *
+ * @author LazzyIzzi
+ */
+public class TagPixelMapper {
+
+	/**
+	 * Computes one output pixel
+	 */
+	public interface PixelFunction {
+		/**
+		 * @param data The data pixel value
+		 * @param tag  The tag at the pixel
+		 * @return The output pixel value
+		 */
+		float apply(float data, int tag);
+	}
+
+	// the rows processed by one task
+	private static final int BAND_HEIGHT = 64;
+
+	/**
+	 * @param dataStk The 32-bit data stack, a virtual stack is read into memory
+	 * @param tagStk  The 32-bit tag stack, one slice applies to every data slice,
+	 *                otherwise the same number of slices as dataStk
+	 * @param shiftX  The tag offset in x, the tag at x is read from x - shiftX
+	 * @param f       The pixel function
+	 * @param median  true to apply a radius 0.5 median, the center pixel and its
+	 *                4 nearest neighbors with the nearest edge pixel beyond the
+	 *                image, as ImageJ's Median...
+	 * @return The output stack, or null if the stacks do not match
+	 */
+	public static ImageStack map(ImageStack dataStk, ImageStack tagStk, int shiftX, PixelFunction f,
+			boolean median) {
+		final int w = dataStk.getWidth(), h = dataStk.getHeight();
+		final int nSlices = dataStk.getSize();
+		if (tagStk.getWidth() != w || tagStk.getHeight() != h
+				|| (tagStk.getSize() != 1 && tagStk.getSize() != nSlices)) {
+			return null;
+		}
+
+		final float[][] dataPix = new float[nSlices][];
+		final float[][] tagPix = new float[tagStk.getSize()][];
+		final float[][] outPix = new float[nSlices][];
+		for (int s = 0; s < nSlices; s++) {
+			dataPix[s] = (float[]) dataStk.getPixels(s + 1);
+			outPix[s] = new float[w * h];
+		}
+		for (int s = 0; s < tagPix.length; s++) {
+			tagPix[s] = (float[]) tagStk.getPixels(s + 1);
+		}
+
+		final int nBands = (h + BAND_HEIGHT - 1) / BAND_HEIGHT;
+		final int nTasks = nSlices * nBands;
+		AtomicInteger tasksDone = new AtomicInteger();
+		IntStream.range(0, nTasks).parallel().forEach(t -> {
+			int s = t / nBands;
+			int y0 = (t % nBands) * BAND_HEIGHT;
+			int y1 = Math.min(h, y0 + BAND_HEIGHT);
+			float[] data = dataPix[s];
+			float[] tags = tagPix.length == 1 ? tagPix[0] : tagPix[s];
+			float[] out = outPix[s];
+			if (median) {
+				// the band's rows plus the clamped rows above and below
+				int r0 = Math.max(0, y0 - 1), r1 = Math.min(h, y1 + 1);
+				float[] buf = new float[(r1 - r0) * w];
+				for (int y = r0; y < r1; y++) {
+					mapRow(data, tags, buf, y, (y - r0) * w, w, shiftX, f);
+				}
+				for (int y = y0; y < y1; y++) {
+					int row = (y - r0) * w;
+					int up = y > 0 ? row - w : row;
+					int down = y < h - 1 ? row + w : row;
+					int o = y * w;
+					for (int x = 0; x < w; x++) {
+						int left = x > 0 ? x - 1 : x;
+						int right = x < w - 1 ? x + 1 : x;
+						out[o + x] = median5(buf[row + x], buf[row + left], buf[row + right], buf[up + x],
+								buf[down + x]);
+					}
+				}
+			} else {
+				for (int y = y0; y < y1; y++) {
+					mapRow(data, tags, out, y, y * w, w, shiftX, f);
+				}
+			}
+			IJ.showProgress(tasksDone.incrementAndGet(), nTasks);
+		});
+
+		ImageStack outStk = new ImageStack(w, h);
+		for (int s = 0; s < nSlices; s++) {
+			outStk.addSlice(dataStk.getSliceLabel(s + 1), outPix[s]);
+		}
+		return outStk;
+	}
+
+	// maps image row y to dest starting at destIndex
+	private static void mapRow(float[] data, float[] tags, float[] dest, int y, int destIndex, int w, int shiftX,
+			PixelFunction f) {
+		int row = y * w;
+		for (int x = 0; x < w; x++) {
+			int tx = x - shiftX;
+			int tag = tx >= 0 && tx < w ? (int) tags[row + tx] : 0;
+			dest[destIndex + x] = f.apply(data[row + x], tag);
+		}
+	}
+
+	// the median of 5 values by discarding values that are below at least 3
+	// others, 6 comparisons
+	private static float median5(float a, float b, float c, float d, float e) {
+		float t;
+		if (a > b) { t = a; a = b; b = t; }
+		if (c > d) { t = c; c = d; d = t; }
+		// drop the smallest of a and c, it is below 3 others
+		if (a < c) {
+			a = e;
+			if (a > b) { t = a; a = b; b = t; }
+		} else {
+			c = e;
+			if (c > d) { t = c; c = d; d = t; }
+		}
+		// drop the smallest of a and c again, the median is the smaller of the rest
+		if (a < c) {
+			return Math.min(b, c);
+		} else {
+			return Math.min(a, d);
+		}
+	}
+}
@@ -44,7 +44,7 @@ import ij.IJ;
 
 import ij.ImagePlus;
 import ij.WindowManager;
-import ij.plugin.CanvasResizer;
+import ij.io.SaveDialog;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.ImageProcessor;
 import ij.process.ImageStatistics;
@@ -77,8 +77,6 @@ public class Tag_Image_To_Fan_Brems_Sinogram implements PlugInFilter , DialogLis
 	final Font myFont = new Font(Font.DIALOG, Font.BOLD, 12);
 	final String settingsPath = IJ.getDirectory("plugins") + "DialogSettings" + File.separator + mySettingsTitle + ".ser";
 
-	//The class that does fan projection
-	FanProjectors fanPrj = new FanProjectors();
 	//The nested class containing the simulator's user supplied parameters
 	FanProjectors.BremFanParams bfpSet =  new FanProjectors.BremFanParams();	
 
@@ -115,7 +113,7 @@ public class Tag_Image_To_Fan_Brems_Sinogram implements PlugInFilter , DialogLis
 	String[] filterSymb = Arrays.copyOf(mmc.getAtomSymbols(),mmc.getAtomSymbols().length);
 
 	//GLOBALS
-	boolean scale16;
+	boolean scale16,streamToDisk,decompose;
 	String padOption;
 	ImagePlus imageImp;
 	int originalWidth,originalHeight;
@@ -191,13 +189,8 @@ public class Tag_Image_To_Fan_Brems_Sinogram implements PlugInFilter , DialogLis
 						
 						//the detector material name is not recorded in the bhSet
 						//retrieve it from the tagSet.
-						String detName=null;
-						for(int i=0;i<tagSet.tagData.size();i++) {
-							if(tagSet.tagData.get(i).matlFormula.equals(bhSet.detFormula)) {
-								detName = tagSet.tagData.get(i).matlName;
-								break;
-							}							
-						}
+						int detRow = mlt.getFormulaIndex(bhSet.detFormula, tagSet);
+						String detName = detRow<0 ? null : tagSet.tagData.get(detRow).matlName;
 						if (detName == null) {
 							IJ.showMessage("Custom detector material applied");
 						} 
@@ -448,6 +441,10 @@ public class Tag_Image_To_Fan_Brems_Sinogram implements PlugInFilter , DialogLis
 		detDensityNF = gda.getNumericField(gd, null, "detectorDensity");
 		gd.addCheckbox("Scale to 16-bit proj", scale16);
 		gd.addNumericField("Scale Factor", scaleFactor);
+		gd.addCheckbox("Stream_to_disk", false);
+		gd.addCheckbox("Material_decomposed", false);
+		gd.addMessage("Material_decomposed is experimental, its spectrum model is not\n"
+				+ "the jhd projector's, results may differ.");
 
 		gd.setInsets(10, 140, 0);
 		gd.addButton("Get Setup Selections", gd);
@@ -482,36 +479,7 @@ public class Tag_Image_To_Fan_Brems_Sinogram implements PlugInFilter , DialogLis
 	private void doRoutine(FanProjectors.BremFanParams bfpSet)
 	{
 
-		float[] sinogram = null;
 		ImagePlus sinoImp;				
-		Object image;		
-		CanvasResizer resizer= new CanvasResizer();
-
-		int nslices = imageImp.getNSlices();
-
-		ArrayList<float[]> sinograms = new ArrayList<float[]>();
-
-
-		for(int i=1;i<=nslices;i++)
-		{
-			IJ.showProgress((double)i/(double)nslices);
-			imageImp.setSlice(i);
-
-			if(paddedWidth>originalWidth || paddedWidth>originalHeight)
-			{ //to conserve memory the stack slices are individually copied, padded, projected and disposed
-				ImagePlus sliceImp = imageImp.crop();
-				ImageProcessor padIp = resizer.expandImage(sliceImp.getProcessor(), paddedWidth, paddedWidth,(paddedWidth-originalWidth)/2, (paddedWidth-originalHeight)/2);
-				image = padIp.getPixels();
-				sinogram = fanPrj.imageToBremsstrahlungFanBeamSinogram2(bfpSet,(float [])image,paddedWidth,paddedWidth);
-				sinograms.add(sinogram);
-			}
-			else
-			{
-				image = imageImp.getProcessor().getPixels();
-				sinogram = fanPrj.imageToBremsstrahlungFanBeamSinogram2(bfpSet,(float [])image,originalWidth,originalWidth);
-				sinograms.add(sinogram);
-			}
-		}
 
 		String title;
 		String name = imageImp.getTitle();
@@ -521,36 +489,54 @@ public class Tag_Image_To_Fan_Brems_Sinogram implements PlugInFilter , DialogLis
 		title += "_FanBremSino";
 		title = WindowManager.getUniqueName(title);
 
-		int length = sinogram.length;
-		int width = length/bfpSet.numAng;
-		int height = bfpSet.numAng;
-		if(scale16)
+		//Each sinogram is stored as soon as it is projected, in memory or appended to a raw file
+		String rawPath = null;
+		if(streamToDisk)
 		{
-			sinoImp = IJ.createImage(title, width, height, nslices, 16);
-			short[] pixels = (short[])sinoImp.getProcessor().getPixels();
-			for(int i=1;i<= nslices;i++)
-			{
-				float[] temp = sinograms.get(i-1);
-				for(int j=0;j<pixels.length;j++)
-				{
-					if(temp[j]<0) temp[j]=0;
-					pixels[j]= (short) (temp[j]*scaleFactor);
-				}
-				sinoImp.getProcessor().setPixels(pixels);
-			}
+			SaveDialog sd = new SaveDialog("Save Sinogram", title, ".raw");
+			if(sd.getFileName() == null) return;
+			rawPath = sd.getDirectory() + sd.getFileName();
+		}
+		SinogramSink sink = new SinogramSink(bfpSet.numAng, scale16, scaleFactor, 1, rawPath);
+
+		//to conserve memory the stack slices are individually copied, padded, projected and disposed
+		//by the slice projector's worker threads
+		int prjWidth = originalWidth, prjHeight = originalHeight;
+		if(paddedWidth>originalWidth || paddedWidth>originalHeight)
+		{
+			prjWidth = paddedWidth;
+			prjHeight = paddedWidth;
+		}
+		boolean ok;
+		long sinoPixCnt = (long)(prjWidth*bfpSet.magnification)*bfpSet.numAng;
+		//each worker passes its own copy of the parameters to its projector
+		ThreadLocal<FanProjectors.BremFanParams> workerParams = ThreadLocal.withInitial(() -> copySettings(bfpSet));
+		if(decompose)
+		{
+			//Project each material once and sum the energy bins per ray
+			SliceProjector<BremsDecomposedProjector> slicePrj = new SliceProjector<BremsDecomposedProjector>(prjWidth, prjHeight, sinoPixCnt);
+			ok = slicePrj.projectStack(imageImp.getStack(), BremsDecomposedProjector::new,
+					(prj, image, width, height) -> prj.imageToBremsstrahlungFanBeamSinogram(workerParams.get(),image,width,height),
+					sink);
 		}
 		else
 		{
-			sinoImp = IJ.createImage(title, width, height, nslices, 32);
-			for(int i=1;i<=nslices;i++)
-			{
-				sinoImp.setSlice(i);
-				sinoImp.getProcessor().setPixels(sinograms.get(i-1));
-			}
+			SliceProjector<FanProjectors> slicePrj = new SliceProjector<FanProjectors>(prjWidth, prjHeight, sinoPixCnt);
+			ok = slicePrj.projectStack(imageImp.getStack(), FanProjectors::new,
+					(prj, image, width, height) -> prj.imageToBremsstrahlungFanBeamSinogram2(workerParams.get(),image,width,height),
+					sink);
+		}
+		//keep the slices projected before a failure or cancel
+		sinoImp = sink.finish(title);
+		if(sinoImp == null)
+		{
+			IJ.error(myDialogTitle, "The projection failed, see the Log window.");
+			return;
 		}
+		if(!ok) IJ.log(title + ": " + sink.getSlicesDone() + " of " + imageImp.getNSlices() + " slices projected");
 
 		//these properties are preserved in the files tiff header
-		String[] props = new String[30];
+		String[] props = new String[32];
 		props[0]="Geometry"; 
 		props[1]="Fan Beam"; 
 		props[2]="Source";
@@ -582,6 +568,8 @@ public class Tag_Image_To_Fan_Brems_Sinogram implements PlugInFilter , DialogLis
 		props[28]="ScaleFactor";
 		if(scale16) props[29]=Double.toString(scaleFactor);
 		else props[29]="Not Scaled";
+		props[30]="Projection";
+		props[31]=decompose ? "Material decomposed" : "Per energy bin";
 		sinoImp.setProperties(props);
 
 		// Set the sinogram X,Y units
@@ -622,6 +610,35 @@ public class Tag_Image_To_Fan_Brems_Sinogram implements PlugInFilter , DialogLis
 	//	}
 	//*******************************************************************************
 
+	//A copy of the settings for one projector worker, the jhd projectors are not
+	//known to leave their parameter object unchanged
+	private static FanProjectors.BremFanParams copySettings(FanProjectors.BremFanParams src)
+	{
+		FanProjectors.BremFanParams dest = new FanProjectors.BremFanParams();
+		dest.target = src.target;
+		dest.kv = src.kv;
+		dest.ma = src.ma;
+		dest.nBins = src.nBins;
+		dest.minKV = src.minKV;
+		dest.filter = src.filter;
+		dest.filterCM = src.filterCM;
+		dest.filterGmPerCC = src.filterGmPerCC;
+		dest.detFormula = src.detFormula;
+		dest.detCM = src.detCM;
+		dest.detGmPerCC = src.detGmPerCC;
+		dest.pixSizeCM = src.pixSizeCM;
+		dest.numAng = src.numAng;
+		dest.matlTag = src.matlTag==null ? null : src.matlTag.clone();
+		dest.matlName = src.matlName==null ? null : src.matlName.clone();
+		dest.matlFormula = src.matlFormula==null ? null : src.matlFormula.clone();
+		dest.matlGmPerCC = src.matlGmPerCC==null ? null : src.matlGmPerCC.clone();
+		dest.srcToDetCM = src.srcToDetCM;
+		dest.magnification = src.magnification;
+		return dest;
+	}
+	
+	//*******************************************************************************
+
 	private FanProjectors.BremFanParams getDialogDefaultSettings()
 	{
 		FanProjectors.BremFanParams dlogSet = new FanProjectors.BremFanParams();
@@ -738,6 +755,8 @@ public class Tag_Image_To_Fan_Brems_Sinogram implements PlugInFilter , DialogLis
 		bfpSet.detGmPerCC =	(float)gd.getNextNumber();
 		scale16= gd.getNextBoolean();
 		scaleFactor =gd.getNextNumber();
+		streamToDisk = gd.getNextBoolean();
+		decompose = gd.getNextBoolean();
 	}
 
 	//*******************************************************************************
@@ -111,12 +111,7 @@ public class Tag_Image_To_MuLin implements PlugInFilter, DialogListener
 						
 				title = WindowManager.getUniqueName(title);
 				tauImp.setTitle(title);
-				for(int i=1;i<=tauImp.getNSlices();i++)
-				{
-					tauImp.setSlice(i);
-					float[] tauPix = (float[])tauImp.getProcessor().getPixels();
-					tlit.tagsToLinearAttn(tauPix, myTagSet, keV);
-				}
+				tlit.tagsToLinearAttn(tauImp.getStack(), myTagSet, keV);
 				
 				tauImp.show();
 				//IJ.run(tauImp, "Grays", "");
@@ -24,8 +24,8 @@ package CT_Tools;
 import ij.IJ;
 
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.WindowManager;
-import ij.plugin.CanvasResizer;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.ImageProcessor;
 import ij.process.ImageStatistics;
@@ -61,8 +61,6 @@ public class Tag_Image_To_Parallel_Brems_Sinogram implements PlugInFilter , Dial
 	final Color white = new Color(255,255,255);
 	final Font myFont = new Font(Font.DIALOG, Font.BOLD, 12);
 	
-	//The methods that do the projections
-	ParallelProjectors parPrj = new ParallelProjectors();		
 	//A serializable class for storing the  user supplied parameters
 	BremParallelParams bppSet = new  BremParallelParams();
 		
@@ -100,7 +98,7 @@ public class Tag_Image_To_Parallel_Brems_Sinogram implements PlugInFilter , Dial
 	String[] filterSymb = Arrays.copyOf(mmc.getAtomSymbols(),mmc.getAtomSymbols().length);
 
 	String padOption;
-	boolean scale16;//,padImage;
+	boolean scale16,decompose;//,padImage;
 	ImagePlus imageImp;
 	int originalWidth,originalHeight;
 	double pixelSize;
@@ -170,13 +168,8 @@ public class Tag_Image_To_Parallel_Brems_Sinogram implements PlugInFilter , Dial
 						
 						//the detector material name is not recorded in the bhSet
 						//retrieve it from the tagSet.
-						String detName=null;
-						for(int i=0;i<tagSet.tagData.size();i++) {
-							if(tagSet.tagData.get(i).matlFormula.equals(bhSet.detFormula)) {
-								detName = tagSet.tagData.get(i).matlName;
-								break;
-							}							
-						}							
+						int detRow = mlt.getFormulaIndex(bhSet.detFormula, tagSet);
+						String detName = detRow<0 ? null : tagSet.tagData.get(detRow).matlName;
 						if (detName == null) {
 							IJ.showMessage("Custom detector material applied");
 						} 
@@ -403,6 +396,9 @@ public class Tag_Image_To_Parallel_Brems_Sinogram implements PlugInFilter , Dial
 		//scale16CBF = gda.getCheckboxField(gd, "scale16");
 		gd.addNumericField("Scale_Factor", scaleFactor);
 		scaleFactorNF = gda.getNumericField(gd, null, "scaleFactor");
+		gd.addCheckbox("Material_decomposed", false);
+		gd.addMessage("Material_decomposed is experimental, its spectrum model is not\n"
+				+ "the jhd projector's, results may differ.");
 		gd.setInsets(10, 140, 0);
 		gd.addButton("Get Setup Selections", gd);
 		getSetupBF = gda.getButtonField(gd, "getSetup")
@@ -434,11 +430,8 @@ public class Tag_Image_To_Parallel_Brems_Sinogram implements PlugInFilter , Dial
 	
 	private void DoRoutine(ParallelProjectors.BremParallelParams bppSet)
 	{
-		float[] sinogram;
 		ImagePlus sinoImp;
-		ImageProcessor sinoIp;
-		Object image;
-		CanvasResizer resizer= new CanvasResizer();
+		ImageStack sinoStk;
 
 		int nslices = imageImp.getNSlices();
 
@@ -454,44 +447,53 @@ public class Tag_Image_To_Parallel_Brems_Sinogram implements PlugInFilter , Dial
 		if(scale16)sinoImp = IJ.createImage(title, detPixCnt, bppSet.numAng, nslices, 16);				
 		else sinoImp = IJ.createImage(title, detPixCnt, bppSet.numAng, nslices, 32);
 
-		sinoIp = sinoImp.getProcessor();
+		sinoStk = sinoImp.getStack();
 
-		for(int i=1;i<=nslices;i++)
+		SliceProjector.SinogramConsumer consumer = (slice, sinogram) ->
 		{
-			IJ.showProgress((double)i/(double)nslices);				
-			sinoImp.setSlice(i);
-			imageImp.setSlice(i);
-			if(detPixCnt>originalWidth)
-			{ //to conserve memory the stack slices are individually padded projected and disposed
-				ImagePlus sliceImp = imageImp.crop();
-				ImageProcessor padIp = resizer.expandImage(sliceImp.getProcessor(), detPixCnt, detPixCnt,(detPixCnt-originalWidth)/2, (detPixCnt-originalHeight)/2);
-				sliceImp.setProcessor(padIp);
-				image = sliceImp.getProcessor().getPixels();
-				sinogram = parPrj.imageToBremsstrahlungParallelSinogram2(bppSet, (float [])image, detPixCnt, detPixCnt);
-				sliceImp.close();
-			}
-			else
-			{
-				image = imageImp.getProcessor().getPixels();
-				sinogram = parPrj.imageToBremsstrahlungParallelSinogram2(bppSet, (float [])image, detPixCnt, detPixCnt);					
-			}				
 			if(scale16)
 			{
-				short[] sino16 = new short[sinogram.length];
+				short[] sino16 = (short[])sinoStk.getPixels(slice);
 				for(int j = 0; j<sinogram.length;j++)
 				{
 					sino16[j] = (short) (sinogram[j]*scaleFactor);
 				}
-				sinoIp.setPixels(sino16);
 			}
 			else
 			{
-				sinoIp.setPixels(sinogram);
+				sinoStk.setPixels(sinogram, slice);
 			}
+		};
+
+		//to conserve memory the stack slices are individually padded, projected and disposed
+		//by the slice projector's worker threads
+		boolean ok;
+		long sinoPixCnt = (long)detPixCnt*bppSet.numAng;
+		if(decompose)
+		{
+			//Project each material once and sum the energy bins per ray
+			SliceProjector<BremsDecomposedProjector> slicePrj = new SliceProjector<BremsDecomposedProjector>(detPixCnt, detPixCnt, sinoPixCnt);
+			ok = slicePrj.projectStack(imageImp.getStack(), BremsDecomposedProjector::new,
+					(prj, image, width, height) -> prj.imageToBremsstrahlungParallelSinogram(bppSet, image, width, height),
+					consumer);
+		}
+		else
+		{
+			//each worker passes its own copy of the parameters to its projector
+			ThreadLocal<BremParallelParams> workerParams = ThreadLocal.withInitial(() -> copySettings(bppSet));
+			SliceProjector<ParallelProjectors> slicePrj = new SliceProjector<ParallelProjectors>(detPixCnt, detPixCnt, sinoPixCnt);
+			ok = slicePrj.projectStack(imageImp.getStack(), ParallelProjectors::new,
+					(prj, image, width, height) -> prj.imageToBremsstrahlungParallelSinogram2(workerParams.get(), image, width, height),
+					consumer);
+		}
+		if(!ok)
+		{
+			IJ.error(myDialogTitle, "The projection failed, see the Log window.");
+			return;
 		}
 
 		//these properties are preserved in the images tiff file header
-		String[] props = new String[26];
+		String[] props = new String[28];
 		props[0]="Geometry"; 
 		props[1]="Parallel";
 		props[2]="Source";
@@ -519,6 +521,8 @@ public class Tag_Image_To_Parallel_Brems_Sinogram implements PlugInFilter , Dial
 		props[24]="ScaleFactor";
 		if(scale16) props[25]=Double.toString(scaleFactor);
 		else props[25]="Not Scaled";
+		props[26]="Projection";
+		props[27]=decompose ? "Material decomposed" : "Per energy bin";
 		sinoImp.setProperties(props);
 
 		Calibration sinoCal = sinoImp.getCalibration();
@@ -528,7 +532,7 @@ public class Tag_Image_To_Parallel_Brems_Sinogram implements PlugInFilter , Dial
 		sinoCal.pixelHeight = 180.0/bppSet.numAng;
 
 		ImageStatistics stats = sinoImp.getStatistics();
-		sinoIp.setMinAndMax(stats.min, stats.max);
+		sinoImp.getProcessor().setMinAndMax(stats.min, stats.max);
 		imageImp.setSlice(1);
 		sinoImp.setSlice(1);
 		sinoImp.show();			
@@ -537,6 +541,33 @@ public class Tag_Image_To_Parallel_Brems_Sinogram implements PlugInFilter , Dial
 	
 	//*******************************************************************************
 
+	//A copy of the settings for one projector worker, the jhd projectors are not
+	//known to leave their parameter object unchanged
+	private static BremParallelParams copySettings(BremParallelParams src)
+	{
+		BremParallelParams dest = new BremParallelParams();
+		dest.target = src.target;
+		dest.kv = src.kv;
+		dest.ma = src.ma;
+		dest.nBins = src.nBins;
+		dest.minKV = src.minKV;
+		dest.filter = src.filter;
+		dest.filterCM = src.filterCM;
+		dest.filterGmPerCC = src.filterGmPerCC;
+		dest.detFormula = src.detFormula;
+		dest.detCM = src.detCM;
+		dest.detGmPerCC = src.detGmPerCC;
+		dest.pixSizeCM = src.pixSizeCM;
+		dest.numAng = src.numAng;
+		dest.matlTag = src.matlTag==null ? null : src.matlTag.clone();
+		dest.matlName = src.matlName==null ? null : src.matlName.clone();
+		dest.matlFormula = src.matlFormula==null ? null : src.matlFormula.clone();
+		dest.matlGmPerCC = src.matlGmPerCC==null ? null : src.matlGmPerCC.clone();
+		return dest;
+	}
+	
+	//*******************************************************************************
+
 	private ParallelProjectors.BremParallelParams getDialogDefaultSettings()
 	{
 		ParallelProjectors.BremParallelParams dlogSet = new ParallelProjectors.BremParallelParams();
@@ -601,6 +632,7 @@ public class Tag_Image_To_Parallel_Brems_Sinogram implements PlugInFilter , Dial
 		bppSet.detGmPerCC =  gd.getNextNumber();
 		scale16 = gd.getNextBoolean();
 		scaleFactor =  gd.getNextNumber();
+		decompose = gd.getNextBoolean();
 	}
 	
 	//*******************************************************************************
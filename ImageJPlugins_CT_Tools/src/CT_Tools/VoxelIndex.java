@@ -0,0 +1,188 @@
+package CT_Tools;
+
+import java.util.stream.IntStream;
+
+import ij.ImageStack;
+
+/**
+ * An index of the voxels of a 32-bit stack by gray value, for thresholding
+ * large volumes many times.<br>
+ * The gray range of the stack is divided into nBuckets equal buckets and the
+ * pixels of each slice are counting sorted by bucket once. A [low, high] query
+ * then visits only the voxels in the buckets spanned by the range, and only the
+ * two end buckets need their gray values compared. The number of voxels in the
+ * range is found from the bucket offsets without visiting the interior
+ * buckets.<br>
+ * The index holds one int per voxel plus nBuckets+1 ints per slice. NaN voxels
+ * are not indexed and are never in range.
+ *
+ * @author LazzyIzzi
+ */
+public class VoxelIndex {
+
+	/** The bucket count used by the plugins, the end buckets hold about 1/2000 of the voxels */
+	public static final int DEFAULT_BUCKETS = 4096;
+
+	private final int nBuckets;
+	private final double min, max, bucketScale;
+	// the gray pixels, the pixel indices of each slice in bucket order and the
+	// start of each bucket in sliceOrder, sliceStart[s][nBuckets] is the end
+	private final float[][] grayPix;
+	private final int[][] sliceOrder;
+	private final int[][] sliceStart;
+
+	/**
+	 * Indexes the stack, the slices are sorted in parallel
+	 *
+	 * @param stack    A 32-bit stack, a virtual stack is read into memory
+	 * @param nBuckets The number of gray value buckets
+	 */
+	public VoxelIndex(ImageStack stack, int nBuckets) {
+		this.nBuckets = nBuckets;
+		int nSlices = stack.getSize();
+		grayPix = new float[nSlices][];
+		for (int s = 0; s < nSlices; s++) {
+			grayPix[s] = (float[]) stack.getPixels(s + 1);
+		}
+
+		// the finite gray range
+		double[][] sliceRange = new double[nSlices][];
+		IntStream.range(0, nSlices).parallel().forEach(s -> {
+			float sMin = Float.POSITIVE_INFINITY, sMax = Float.NEGATIVE_INFINITY;
+			for (float v : grayPix[s]) {
+				if (v < sMin && v != Float.NEGATIVE_INFINITY) sMin = v;
+				if (v > sMax && v != Float.POSITIVE_INFINITY) sMax = v;
+			}
+			sliceRange[s] = new double[] { sMin, sMax };
+		});
+		double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+		for (double[] r : sliceRange) {
+			lo = Math.min(lo, r[0]);
+			hi = Math.max(hi, r[1]);
+		}
+		if (lo > hi) {
+			lo = hi = 0;
+		}
+		min = lo;
+		max = hi;
+		bucketScale = max > min ? nBuckets / (max - min) : 0;
+
+		sliceOrder = new int[nSlices][];
+		sliceStart = new int[nSlices][];
+		IntStream.range(0, nSlices).parallel().forEach(s -> {
+			float[] pix = grayPix[s];
+			int[] start = new int[nBuckets + 1];
+			for (float v : pix) {
+				if (v == v) start[bucket(v) + 1]++;
+			}
+			for (int b = 0; b < nBuckets; b++) {
+				start[b + 1] += start[b];
+			}
+			int[] next = new int[nBuckets];
+			System.arraycopy(start, 0, next, 0, nBuckets);
+			int[] order = new int[start[nBuckets]];
+			for (int i = 0; i < pix.length; i++) {
+				float v = pix[i];
+				if (v == v) order[next[bucket(v)]++] = i;
+			}
+			sliceOrder[s] = order;
+			sliceStart[s] = start;
+		});
+	}
+
+	/**
+	 * @return The smallest finite gray value
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * @return The largest finite gray value
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * @param low  The lowest gray value in the range
+	 * @param high The highest gray value in the range
+	 * @return The number of voxels with low &lt;= gray &lt;= high
+	 */
+	public long count(double low, double high) {
+		if (!(low <= high)) {
+			return 0;
+		}
+		int bLo = bucket(low), bHi = bucket(high);
+		return IntStream.range(0, grayPix.length).parallel().mapToLong(s -> {
+			float[] pix = grayPix[s];
+			int[] order = sliceOrder[s], start = sliceStart[s];
+			long cnt = 0;
+			for (int k = start[bLo]; k < start[bLo + 1]; k++) {
+				float v = pix[order[k]];
+				if (v >= low && v <= high) cnt++;
+			}
+			if (bHi > bLo) {
+				cnt += start[bHi] - start[bLo + 1];
+				for (int k = start[bHi]; k < start[bHi + 1]; k++) {
+					if (pix[order[k]] <= high) cnt++;
+				}
+			}
+			return cnt;
+		}).sum();
+	}
+
+	/**
+	 * Sets the voxels of dest whose gray value is in range, the slices are filled
+	 * in parallel directly in the stack's pixel arrays
+	 *
+	 * @param low   The lowest gray value in the range
+	 * @param high  The highest gray value in the range
+	 * @param dest  A 32-bit stack the size of the indexed stack, not virtual
+	 * @param value The value to set
+	 * @return The number of voxels set
+	 */
+	public long fill(double low, double high, ImageStack dest, float value) {
+		if (!(low <= high)) {
+			return 0;
+		}
+		int bLo = bucket(low), bHi = bucket(high);
+		return IntStream.range(0, grayPix.length).parallel().mapToLong(s -> {
+			float[] pix = grayPix[s];
+			float[] out = (float[]) dest.getPixels(s + 1);
+			int[] order = sliceOrder[s], start = sliceStart[s];
+			long cnt = 0;
+			for (int k = start[bLo]; k < start[bLo + 1]; k++) {
+				int i = order[k];
+				if (pix[i] >= low && pix[i] <= high) {
+					out[i] = value;
+					cnt++;
+				}
+			}
+			if (bHi > bLo) {
+				// the gray values of the interior buckets are all in range
+				for (int k = start[bLo + 1]; k < start[bHi]; k++) {
+					out[order[k]] = value;
+				}
+				cnt += start[bHi] - start[bLo + 1];
+				for (int k = start[bHi]; k < start[bHi + 1]; k++) {
+					int i = order[k];
+					if (pix[i] <= high) {
+						out[i] = value;
+						cnt++;
+					}
+				}
+			}
+			return cnt;
+		}).sum();
+	}
+
+	// Monotone in v, so a voxel in a bucket above bucket(low) is above low and
+	// one in a bucket below bucket(high) is below high
+	private int bucket(double v) {
+		double b = (v - min) * bucketScale;
+		if (b <= 0) return 0;
+		if (b >= nBuckets - 1) return nBuckets - 1;
+		return (int) b;
+	}
+}
@@ -472,16 +472,14 @@ public class Xray_SpectrumPlotter implements PlugIn, DialogListener, ActionListe
 		}
 
 		// create a 2D array to hold each spectrum
-		double[][] muMass = new double[cnt][meVArr.length];
+		double[][] muMass = new double[cnt][];
 
 		// Get the mass attenuation coefficients of the formula++++++++++++++
-		// for each checked flag and for each meV
+		// for each checked flag, copied because the MuLin scaling below changes them
 		String legend = "";
 		for (i = 0, cnt = 0; i < ds.muMassSelections.length; i++) {
 			if (ds.muMassSelections[i]) {
-				for (j = 0; j < meVArr.length; j++) {
-					muMass[cnt][j] = mmc.getMuMass(ds.formula, meVArr[j], mmTypes[i]);
-				}
+				muMass[cnt] = SpectralTableCache.getMuMass(ds.formula, mmTypes[i], meVArr).clone();
 				legend += mmTypes[i] + "\t";
 				cnt++;
 			}
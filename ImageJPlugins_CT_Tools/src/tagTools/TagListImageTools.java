@@ -1,13 +1,22 @@
 package tagTools;
 
 import java.awt.Dimension;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
 
 //import ij.IJ;
+import ij.ImageStack;
 import jhd.MuMassCalculator.MuMassCalculator;
 import tagTools.TagListTools.*;
 
@@ -17,6 +26,14 @@ public class TagListImageTools {
 	public TagListImageTools() {
 		// TODO Auto-generated constructor stub
 	}
+	// the largest tag found by a bit set, larger or negative tags use a hash set
+	private static final int MAX_INDEXED_TAG = 65535;
+	// the muLin to MeV table size, about 500 energies per decade for 1keV to 100GeV
+	private static final int INVERSE_TABLE_SIZE = 4096;
+	// the pixels processed between progress checks and the least time between updates
+	private static final int PROGRESS_CHUNK = 4096;
+	private static final long PROGRESS_MSEC = 250;
+
 	TagListTools mt = new TagListTools();
 	MuMassCalculator mmc = new MuMassCalculator();
 	
@@ -25,38 +42,95 @@ public class TagListImageTools {
 	 * @return a list of integer tag values used in the image
 	 */
 	public int[] getUniqueTags(float[] imageData) {
-		// from https://www.javatpoint.com/find-unique-elements-in-array-java
+		return getUniqueTags(new float[][] { imageData });
+	}
+
+	/**Scans the slices of a 32-bit stack for unique pixel tag values, the slices are scanned in parallel
+	 * @param stack a 32-bit stack, not virtual
+	 * @return a list of integer tag values used in the stack in increasing order
+	 */
+	public int[] getUniqueTags(ImageStack stack) {
+		return getUniqueTags(getSlicePixels(stack));
+	}
 
-		HashSet<Float> hashset = new HashSet<>();
-		for (int i = 0; i < imageData.length; i++) {
-			if (!hashset.contains(imageData[i])) {
-				hashset.add(imageData[i]);
+	private int[] getUniqueTags(float[][] slices) {
+		// tags 0 to MAX_INDEXED_TAG are marked in a bit set, any others in a hash set
+		BitSet[] sliceBits = new BitSet[slices.length];
+		@SuppressWarnings("unchecked")
+		HashSet<Integer>[] sliceOthers = new HashSet[slices.length];
+		IntStream.range(0, slices.length).parallel().forEach(s -> {
+			BitSet bits = new BitSet();
+			HashSet<Integer> others = new HashSet<>();
+			float[] pix = slices[s];
+			for (int i = 0; i < pix.length; i++) {
+				int tag = (int) pix[i];
+				if (tag >= 0 && tag <= MAX_INDEXED_TAG)
+					bits.set(tag);
+				else
+					others.add(tag);
 			}
-		}
+			sliceBits[s] = bits;
+			sliceOthers[s] = others;
+		});
 
-		// Convert hash to float array
-		Float[] tagList = hashset.toArray(new Float[hashset.size()]);
-		int[] tagArr = new int[hashset.size()];
+		BitSet bits = new BitSet();
+		TreeSet<Integer> others = new TreeSet<>();
+		for (int s = 0; s < slices.length; s++) {
+			bits.or(sliceBits[s]);
+			others.addAll(sliceOthers[s]);
+		}
+		int[] tagArr = new int[bits.cardinality() + others.size()];
 		int i = 0;
-		// Convert to primitive array
-		for (Float fObj : tagList) {
-			tagArr[i] = fObj.intValue();
-			i++;
+		for (int tag : others) {
+			if (tag < 0)
+				tagArr[i++] = tag;
+		}
+		for (int tag = bits.nextSetBit(0); tag >= 0; tag = bits.nextSetBit(tag + 1)) {
+			tagArr[i++] = tag;
+		}
+		for (int tag : others) {
+			if (tag > 0)
+				tagArr[i++] = tag;
 		}
-
-		// print hash set that contains distinct element
 		return tagArr;
 	}
+
+	private float[][] getSlicePixels(ImageStack stack) {
+		float[][] slices = new float[stack.getSize()][];
+		for (int s = 0; s < slices.length; s++) {
+			slices[s] = (float[]) stack.getPixels(s + 1);
+		}
+		return slices;
+	}
 	
 	/**Computes the effective x-ray energy at each image pixel using <br>
 	 * the reconstructed linear attenuation and known composition(tag image)<br>
-	 * Images must be the same size.
+	 * Images must be the same size. Every pixel is solved with MuMassCalculator.getMeVfromMuLin,
+	 * see the exact option for the faster inverse tables.
 	 * 
 	 * @param dataImagePixels  a 1D array of pixels from a beam hardened reconstructed image
 	 * @param tagImagePixels a 1D array of pixels from a model "tag" image
 	 * @return a 1D array of effective x-ray energies.
 	 */
 	public float[] muLinandTagsToMevImage(float[] dataImagePixels, float[] tagImagePixels, TagSet tagSet) {
+		return muLinandTagsToMevImage(dataImagePixels, tagImagePixels, tagSet, true);
+	}
+
+	/**Computes the effective x-ray energy at each image pixel using <br>
+	 * the reconstructed linear attenuation and known composition(tag image)<br>
+	 * Images must be the same size.<br>
+	 * The exact option solves every pixel with MuMassCalculator.getMeVfromMuLin. Otherwise
+	 * a muLin to MeV table is built once for each tag in the image and the pixels are
+	 * interpolated from it in parallel, see MuLinInverse. The tables are approximate,
+	 * MuLinInverse_Test measures their error against getMeVfromMuLin.
+	 * 
+	 * @param dataImagePixels  a 1D array of pixels from a beam hardened reconstructed image
+	 * @param tagImagePixels a 1D array of pixels from a model "tag" image
+	 * @param tagSet the materials list
+	 * @param exact true to solve every pixel, false to use the inverse tables
+	 * @return a 1D array of effective x-ray energies.
+	 */
+	public float[] muLinandTagsToMevImage(float[] dataImagePixels, float[] tagImagePixels, TagSet tagSet, boolean exact) {
 		if (dataImagePixels.length != tagImagePixels.length) {
 			return null;
 			
@@ -97,34 +171,135 @@ public class TagListImageTools {
 			gmPerCcLUT[tags[i]] = matlGmPerCC[i];
 		}
 
-		String formula;
-		double gmPerCC;
-		float[] effPix = new float[tagImagePixels.length];
-		double[] effArr;
-
-		for (int i = 0; i < tagImagePixels.length; i++) {
-			prgBar.setValue(i);
-			if (tagImagePixels[i] != 0)// 0 is empty space
-			{
-				formula = formulaLUT[(int) tagImagePixels[i]];
-				gmPerCC = gmPerCcLUT[(int) tagImagePixels[i]];
-				if (formula != null) {
-					effArr = mmc.getMeVfromMuLin(formula, dataImagePixels[i], gmPerCC, "TotAttn");
-					// take the first effective energy solution.
-					// This may cause issues if absorption edges are present near the effective
-					// energy
-					if (effArr != null)
-						effPix[i] = (float) effArr[0];
-					else
-						effPix[i] = 0;
-				} else
-					effPix[i] = 0;
+		final int pixCount = tagImagePixels.length;
+		final int lastTag = maxTag;
+		final int nChunks = (pixCount + PROGRESS_CHUNK - 1) / PROGRESS_CHUNK;
+		float[] effPix = new float[pixCount];
+		AtomicInteger pixDone = new AtomicInteger();
+		AtomicLong lastUpdate = new AtomicLong(System.currentTimeMillis());
+
+		if (exact) {
+			for (int c = 0; c < nChunks; c++) {
+				int end = Math.min(pixCount, (c + 1) * PROGRESS_CHUNK);
+				for (int i = c * PROGRESS_CHUNK; i < end; i++) {
+					int tag = (int) tagImagePixels[i];
+					// 0 is empty space
+					if (tag > 0 && tag <= lastTag && formulaLUT[tag] != null) {
+						double[] effArr = mmc.getMeVfromMuLin(formulaLUT[tag], dataImagePixels[i], gmPerCcLUT[tag], "TotAttn");
+						// take the first effective energy solution.
+						// This may cause issues if absorption edges are present near the effective
+						// energy
+						if (effArr != null)
+							effPix[i] = (float) effArr[0];
+					}
+				}
+				showProgress(prgBar, pixDone.addAndGet(end - c * PROGRESS_CHUNK), lastUpdate);
 			}
+		} else {
+			// one inverse table for each material in the image
+			MuLinInverse[] inverseLUT = getMuLinInverseTable(getUniqueTags(tagImagePixels), tagSet);
+			IntStream.range(0, nChunks).parallel().forEach(c -> {
+				int end = Math.min(pixCount, (c + 1) * PROGRESS_CHUNK);
+				for (int i = c * PROGRESS_CHUNK; i < end; i++) {
+					int tag = (int) tagImagePixels[i];
+					MuLinInverse inverse = tag > 0 && tag <= lastTag ? inverseLUT[tag] : null;
+					if (inverse != null)
+						effPix[i] = (float) inverse.getMeV(dataImagePixels[i]);
+				}
+				showProgress(prgBar, pixDone.addAndGet(end - c * PROGRESS_CHUNK), lastUpdate);
+			});
 		}
 		frame.dispose();
 		return effPix;
 	}
 
+	// Updates the progress bar at most every PROGRESS_MSEC from any thread
+	private void showProgress(JProgressBar prgBar, int value, AtomicLong lastUpdate) {
+		long now = System.currentTimeMillis();
+		long last = lastUpdate.get();
+		if (now - last >= PROGRESS_MSEC && lastUpdate.compareAndSet(last, now)) {
+			SwingUtilities.invokeLater(() -> prgBar.setValue(value));
+		}
+	}
+
+	/**A muLin to MeV inverse table for one material.<br>
+	 * The material's muLin is tabulated at INVERSE_TABLE_SIZE log spaced energies over the
+	 * range of its attenuation data. muLin falls with energy except for the jumps at
+	 * absorption edges, so the table is split into runs where muLin only falls or only rises.
+	 * A muLin value is found in the lowest energy run that spans it by binary search and
+	 * the energy is interpolated log-log, as the first getMeVfromMuLin solution.
+	 */
+	public class MuLinInverse {
+		private final double[] logMeV, logMuLin;
+		// the first table index of each run and the last table index
+		private final int[] runStart;
+
+		MuLinInverse(String formula, double gmPerCC) {
+			double[] mevArr = mmc.getMevArray(formula);
+			if (mevArr == null || mevArr.length < 2) {
+				logMeV = logMuLin = new double[0];
+				runStart = new int[0];
+				return;
+			}
+			double logMin = Math.log(mevArr[0]), logMax = Math.log(mevArr[0]);
+			for (double meV : mevArr) {
+				logMin = Math.min(logMin, Math.log(meV));
+				logMax = Math.max(logMax, Math.log(meV));
+			}
+
+			logMeV = new double[INVERSE_TABLE_SIZE];
+			logMuLin = new double[INVERSE_TABLE_SIZE];
+			for (int k = 0; k < INVERSE_TABLE_SIZE; k++) {
+				logMeV[k] = logMin + (logMax - logMin) * k / (INVERSE_TABLE_SIZE - 1);
+				logMuLin[k] = Math.log(mmc.getMuMass(formula, Math.exp(logMeV[k]), "TotAttn") * gmPerCC);
+			}
+
+			int[] starts = new int[INVERSE_TABLE_SIZE];
+			int nRuns = 0;
+			starts[nRuns++] = 0;
+			for (int k = 1; k < INVERSE_TABLE_SIZE - 1; k++) {
+				boolean falling = logMuLin[k] <= logMuLin[k - 1];
+				boolean nextFalling = logMuLin[k + 1] <= logMuLin[k];
+				if (falling != nextFalling) {
+					starts[nRuns++] = k;
+				}
+			}
+			starts[nRuns++] = INVERSE_TABLE_SIZE - 1;
+			runStart = Arrays.copyOf(starts, nRuns);
+		}
+
+		/**
+		 * @param muLin the linear attenuation
+		 * @return the lowest energy in MeV with this attenuation or 0 if there is none
+		 */
+		public double getMeV(double muLin) {
+			if (!(muLin > 0))
+				return 0;
+			double lm = Math.log(muLin);
+			for (int r = 0; r < runStart.length - 1; r++) {
+				int lo = runStart[r], hi = runStart[r + 1];
+				boolean falling = logMuLin[hi] <= logMuLin[lo];
+				double top = falling ? logMuLin[lo] : logMuLin[hi];
+				double bottom = falling ? logMuLin[hi] : logMuLin[lo];
+				if (lm > top || lm < bottom)
+					continue;
+
+				// the interval k, k+1 that spans lm
+				while (hi - lo > 1) {
+					int mid = (lo + hi) >>> 1;
+					if ((logMuLin[mid] >= lm) == falling)
+						lo = mid;
+					else
+						hi = mid;
+				}
+				double span = logMuLin[hi] - logMuLin[lo];
+				double t = span == 0 ? 0 : (lm - logMuLin[lo]) / span;
+				return Math.exp(logMeV[lo] + t * (logMeV[hi] - logMeV[lo]));
+			}
+			return 0;
+		}
+	}
+
 	/**Converts in-place a tag image to linear attenuation at a selected energy	 * 
 	 * @param imageData a 1D array of a tag image
 	 * @param tagSet    a class contain tagID, Name, Formula and density
@@ -132,62 +307,119 @@ public class TagListImageTools {
 	 * @return true if successfully converted.
 	 */
 	public boolean tagsToLinearAttn(float[] imageData, TagSet tagSet, double keV) {
-		// tagsToMuLin(pixels,myTags,keV);
-		int[] tagArr = getUniqueTags(imageData);
+		return tagsToLinearAttn(new float[][] { imageData }, tagSet, keV);
+	}
+
+	/**Converts in-place a tag stack to linear attenuation at a selected energy.<br>
+	 * The tags are found and the attenuation table is built once for the whole stack,
+	 * the slices are converted in parallel. Tags that are not in the materials list
+	 * are set to 0 and listed in one message.
+	 * @param stack  a 32-bit tag stack, not virtual
+	 * @param tagSet a class contain tagID, Name, Formula and density
+	 * @param keV    the x-ray energy
+	 * @return true if successfully converted.
+	 */
+	public boolean tagsToLinearAttn(ImageStack stack, TagSet tagSet, double keV) {
+		return tagsToLinearAttn(getSlicePixels(stack), tagSet, keV);
+	}
+
+	private boolean tagsToLinearAttn(float[][] slices, TagSet tagSet, double keV) {
+		final float[] muLinArr = getMuLinTable(getUniqueTags(slices), tagSet, keV);
+		if (muLinArr == null)
+			return false;
+
+		final int lastTag = muLinArr.length - 1;
+		IntStream.range(0, slices.length).parallel().forEach(s -> {
+			float[] pix = slices[s];
+			for (int i = 0; i < pix.length; i++) {
+				int tag = (int) pix[i];
+				pix[i] = tag >= 0 && tag <= lastTag ? muLinArr[tag] : 0f;
+			}
+		});
+		return true;
+	}
 
+	/**Builds a tag indexed table of linear attenuation at a selected energy.<br>
+	 * Tags that are not in the materials list are 0 in the table and listed in one message.
+	 * @param tagArr the tags to convert, e.g. from getUniqueTags
+	 * @param tagSet a class contain tagID, Name, Formula and density
+	 * @param keV    the x-ray energy
+	 * @return the linear attenuation of each tag 0 to the largest known tag in tagArr,
+	 * or null if there are more tags than materials
+	 */
+	public float[] getMuLinTable(int[] tagArr, TagSet tagSet, double keV) {
 		// check if tagArr is bigger than the tagList
 		// if it is, it is probably not a tag image
 		if (tagArr.length > tagSet.tagData.size()) {
 			JOptionPane.showMessageDialog(null, "There are more tags in the input image than\n" + "there are tags in the materials list.");
-			return false;
+			return null;
 		}
 
-		// Find the position of each tag in the TagData list
-		int[] tagIndex = new int[tagArr.length];
+		// Find the TagData of each tag, the last match in the list is used
+		TagData[] tagData = new TagData[tagArr.length];
+		int maxTag = -1;
+		StringBuilder missing = new StringBuilder();
 		for (int j = 0; j < tagArr.length; j++) {
-			tagIndex[j] = -1;// -1 indicates a match was not found, zero is a valid tag index
-			int i = 0;
 			for (TagData td : tagSet.tagData) {
 				if (tagArr[j] == td.matlTag) {
-					tagIndex[j] = i;
+					tagData[j] = td;
 				}
-				i++;
+			}
+			if (tagData[j] == null || tagArr[j] < 0) {
+				missing.append(missing.length() == 0 ? "" : ", ").append(tagArr[j]);
+			} else if (tagArr[j] > maxTag) {
+				maxTag = tagArr[j];
 			}
 		}
 
-		// Get biggest matlTag
-		int maxTag = Integer.MIN_VALUE;
-		for (int i = 0; i < tagArr.length; i++) {
-			if (tagArr[i] > maxTag)
-				maxTag = tagArr[i];
-		}
-
-		// Create an array to hold the muMass values
-		float[] muMassArr = new float[maxTag + 1];
-
-		// Set the muMass values for each tag
-		for (int i = 0; i < tagIndex.length; i++) {
-			if (tagIndex[i] >= 0) {
-				String formula = tagSet.tagData.get(tagIndex[i]).matlFormula;
-				double gmPerCC = tagSet.tagData.get(tagIndex[i]).matlGmPerCC;
-				double muLin = mmc.getMuMass(formula, keV / 1000, "TotAttn") * gmPerCC;
-				mmc.getFormulaWeight(formula);
-				muMassArr[tagArr[i]] = (float) muLin;
-				// System.out.println("formula="+ formula+", gmPerCC =" + gmPerCC + ",
-				// muLin="+muLin);
-			} else {
-				JOptionPane.showMessageDialog(null, "Tag " + tagArr[i] + " was not found in the materials list");
+		// The linear attenuation of each tag, unknown tags are 0
+		final float[] muLinArr = new float[maxTag + 1];
+		for (int j = 0; j < tagArr.length; j++) {
+			if (tagData[j] != null && tagArr[j] >= 0) {
+				double muLin = mmc.getMuMass(tagData[j].matlFormula, keV / 1000, "TotAttn") * tagData[j].matlGmPerCC;
+				muLinArr[tagArr[j]] = (float) muLin;
 			}
 		}
 
-		for (int i = 0; i < imageData.length; i++) {
-			try {
-				imageData[i] = muMassArr[(int) imageData[i]];
-			} catch (Exception e) {
-				e.printStackTrace();
+		if (missing.length() > 0) {
+			JOptionPane.showMessageDialog(null, "Tags " + missing + " were not found in the materials list.\n" + "They were set to 0.");
+		}
+		return muLinArr;
+	}
+
+	/**Builds a tag indexed table of muLin to MeV inverses, see MuLinInverse.<br>
+	 * Tag 0 is empty space and has no inverse, neither do tags that are not in the materials list.
+	 * @param tagArr the tags to invert, e.g. from getUniqueTags
+	 * @param tagSet the materials list
+	 * @return the inverse of each tag 0 to the largest tag in the materials list, null for none
+	 */
+	public MuLinInverse[] getMuLinInverseTable(int[] tagArr, TagSet tagSet) {
+		String[] matlFormulas = mt.getTagSetMatlFormulasAsArray(tagSet);
+		double[] matlGmPerCC = mt.getTagSetMatlGmPerccAsArray(tagSet);
+		int[] tags = mt.getTagSetMatlTagAsArray(tagSet);
+
+		int maxTag = -1;
+		for (int i = 0; i < tags.length; i++) {
+			if (tags[i] > maxTag)
+				maxTag = tags[i];
+		}
+
+		String[] formulaLUT = new String[maxTag + 1];
+		double[] gmPerCcLUT = new double[maxTag + 1];
+		for (int i = 0; i < tags.length; i++) {
+			if (tags[i] >= 0) {
+				formulaLUT[tags[i]] = matlFormulas[i];
+				gmPerCcLUT[tags[i]] = matlGmPerCC[i];
 			}
 		}
-		return true;
+
+		MuLinInverse[] inverseLUT = new MuLinInverse[maxTag + 1];
+		for (int tag : tagArr) {
+			if (tag > 0 && tag <= maxTag && formulaLUT[tag] != null) {
+				inverseLUT[tag] = new MuLinInverse(formulaLUT[tag], gmPerCcLUT[tag]);
+			}
+		}
+		return inverseLUT;
 	}
 
 }
@@ -2,6 +2,8 @@ package tagTools;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import javax.swing.JOptionPane;
 
 import CT_Tools.ResourceReader;
@@ -9,13 +11,44 @@ import CT_Tools.ResourceReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.charset.StandardCharsets;
 
-/**TagSet definition and assorted getters and setters*/
+/**TagSet definition and assorted getters and setters.<br>
+ * Materials files are parsed once into columns and cached for the session, a file is
+ * parsed again when its modification time or size changes. Each readTagSetFile call
+ * returns a new TagSet so callers may edit it.
+ */
 public class TagListTools {
 	/**Default Constructor*/
 	public TagListTools() {
 	}
+
+	// the largest tag in a TagSet's direct lookup table, larger or negative tags use a hash map
+	private static final int MAX_INDEXED_TAG = 65535;
+
+	// the parsed materials files by absolute path
+	private static final HashMap<String, TagColumns> fileCache = new HashMap<String, TagColumns>();
+
+	/**A parsed materials file and the file state it was parsed from*/
+	private static class TagColumns {
+		final long modified, size;
+		final String[] colHdr;
+		final int[] matlTag;
+		final String[] matlName, matlFormula;
+		final double[] matlGmPerCC;
+
+		TagColumns(long modified, long size, String[] colHdr, int[] matlTag, String[] matlName, String[] matlFormula,
+				double[] matlGmPerCC) {
+			this.modified = modified;
+			this.size = size;
+			this.colHdr = colHdr;
+			this.matlTag = matlTag;
+			this.matlName = matlName;
+			this.matlFormula = matlFormula;
+			this.matlGmPerCC = matlGmPerCC;
+		}
+	}
 	/**Contains a TagSet column header and Column values*/
 	public class TagData {
 		public int matlTag;
@@ -49,11 +82,23 @@ public class TagListTools {
 
 	}
 
-	/**Contains a TagSet column data*/
+	/**Contains a TagSet column data.<br>
+	 * Lookups by tag, name and formula use an index built on first use. The index is
+	 * rebuilt when tagData is replaced, changes size or no longer matches a lookup,
+	 * call invalidateIndex after changing a name or formula in tagData directly.
+	 */
 	public class TagSet {
 		public TagHdr tagHdr;
 		public ArrayList<TagData> tagData;;
 
+		// the first row of each tag 0 to MAX_INDEXED_TAG, -1 for none, and of the other tags, names and formulas
+		private int[] tagRow;
+		private HashMap<Integer, Integer> otherTagRow;
+		private HashMap<String, Integer> nameRow, formulaRow;
+		// the list and size the index was built from
+		private ArrayList<TagData> indexedData;
+		private int indexedSize;
+
 		// Default constructor
 		public TagSet() {
 		}
@@ -62,6 +107,112 @@ public class TagListTools {
 			this.tagHdr = tagHdr;
 			this.tagData = tagData;
 		}
+
+		/**Discards the lookup index, it is rebuilt on the next lookup*/
+		public synchronized void invalidateIndex() {
+			indexedData = null;
+		}
+
+		/**@param theTag
+		 * @return the first row with this tag or -1
+		 */
+		public synchronized int getTagRow(int theTag) {
+			for (int pass = 0; pass < 2; pass++) {
+				if (!isIndexed()) {
+					buildIndex();
+				}
+				Integer row;
+				if (theTag >= 0 && theTag < tagRow.length) {
+					row = tagRow[theTag];
+				} else {
+					row = otherTagRow.get(theTag);
+				}
+				if (row == null || row < 0) {
+					return -1;
+				}
+				if (tagData.get(row).matlTag == theTag) {
+					return row;
+				}
+				invalidateIndex();
+			}
+			return -1;
+		}
+
+		/**@param name
+		 * @return the first row with this material name or -1
+		 */
+		public synchronized int getNameRow(String name) {
+			for (int pass = 0; pass < 2; pass++) {
+				if (!isIndexed()) {
+					buildIndex();
+				}
+				Integer row = nameRow.get(name);
+				if (row == null) {
+					return -1;
+				}
+				if (name.equals(tagData.get(row).matlName)) {
+					return row;
+				}
+				invalidateIndex();
+			}
+			return -1;
+		}
+
+		/**@param formula
+		 * @return the first row with this formula or -1
+		 */
+		public synchronized int getFormulaRow(String formula) {
+			for (int pass = 0; pass < 2; pass++) {
+				if (!isIndexed()) {
+					buildIndex();
+				}
+				Integer row = formulaRow.get(formula);
+				if (row == null) {
+					return -1;
+				}
+				if (formula.equals(tagData.get(row).matlFormula)) {
+					return row;
+				}
+				invalidateIndex();
+			}
+			return -1;
+		}
+
+		private boolean isIndexed() {
+			return indexedData != null && indexedData == tagData && indexedSize == tagData.size();
+		}
+
+		private void buildIndex() {
+			int maxTag = -1;
+			for (TagData td : tagData) {
+				if (td.matlTag > maxTag && td.matlTag <= MAX_INDEXED_TAG) {
+					maxTag = td.matlTag;
+				}
+			}
+			tagRow = new int[maxTag + 1];
+			Arrays.fill(tagRow, -1);
+			otherTagRow = new HashMap<Integer, Integer>();
+			nameRow = new HashMap<String, Integer>();
+			formulaRow = new HashMap<String, Integer>();
+			for (int row = 0; row < tagData.size(); row++) {
+				TagData td = tagData.get(row);
+				if (td.matlTag >= 0 && td.matlTag <= maxTag) {
+					if (tagRow[td.matlTag] < 0) {
+						tagRow[td.matlTag] = row;
+					}
+				} else {
+					otherTagRow.putIfAbsent(td.matlTag, row);
+				}
+				if (td.matlName != null) {
+					nameRow.putIfAbsent(td.matlName, row);
+				}
+				if (td.matlFormula != null) {
+					formulaRow.putIfAbsent(td.matlFormula, row);
+				}
+			}
+			indexedData = tagData;
+			indexedSize = tagData.size();
+		}
 	}
 
 
@@ -94,16 +245,8 @@ public class TagListTools {
 	 * @return the formula
 	 */
 	public String getTagMatlFormula(int theTag, TagSet tagSet) {
-		String formula = null;
-		String[] formulas = getTagSetMatlFormulasAsArray(tagSet);
-		int[] tags = getTagSetMatlTagAsArray(tagSet);
-		for (int i = 0; i < tags.length; i++) {
-			if (tags[i] == theTag) {
-				formula = formulas[i];
-				break;
-			}
-		}
-		return formula;
+		int index = getTagIndex(theTag, tagSet);
+		return index < 0 ? null : tagSet.tagData.get(index).matlFormula;
 	}
 
 	/**Gets the density for a particular tag from a TagSet
@@ -112,16 +255,8 @@ public class TagListTools {
 	 * @return the density
 	 */
 	public double getTagMatlGmPerCC(int theTag, TagSet tagSet) {
-		double gmPerCC = -1;
-		double[] densities = getTagSetMatlGmPerccAsArray(tagSet);
-		int[] tags = getTagSetMatlTagAsArray(tagSet);
-		for (int i = 0; i < tags.length; i++) {
-			if (tags[i] == theTag) {
-				gmPerCC = densities[i];
-				break;
-			}
-		}
-		return gmPerCC;
+		int index = getTagIndex(theTag, tagSet);
+		return index < 0 ? -1 : tagSet.tagData.get(index).matlGmPerCC;
 	}
 
 	/**Gets the name for a particular tag from a TagSet
@@ -130,16 +265,8 @@ public class TagListTools {
 	 * @return the name
 	 */
 	public String getTagMatlName(int theTag, TagSet tagSet) {
-		String name = null;
-		String[] names = getTagSetMatlNamesAsArray(tagSet);
-		int[] tags = getTagSetMatlTagAsArray(tagSet);
-		for (int i = 0; i < tags.length; i++) {
-			if (tags[i] == theTag) {
-				name = names[i];
-				break;
-			}
-		}
-		return name;
+		int index = getTagIndex(theTag, tagSet);
+		return index < 0 ? null : tagSet.tagData.get(index).matlName;
 	}
 
 	/**Converts the TagSet Formula column to an Array
@@ -228,30 +355,14 @@ public class TagListTools {
 		}
 
 		if (fileOk) {
-
-			matlStr = fileToString(path);
-
-			// Split materials at newline
-			String[] rowArr = matlStr.split("\n");
-			// copy the first four items into the tagSet header
-			String[] hdrItems = rowArr[0].split(",");
-
-			if (hdrItems[0].equals("Tag")) {
-
-				try {
-					TagHdr tagHdr = new TagHdr(hdrItems);
-					ArrayList<TagData> tagData = new ArrayList<TagData>();
-					// copy the remaining rows into the tagSet
-					for (int i = 1; i < rowArr.length; i++) {
-						String[] rowItems = rowArr[i].split(",");
-						tagData.add(new TagData(Integer.parseInt(rowItems[0]), rowItems[1], rowItems[2],
-								Double.parseDouble(rowItems[3])));
-					}
-					tagSet = new TagSet(tagHdr, tagData);
-				} catch (NumberFormatException e) {
-					JOptionPane.showMessageDialog(null, e.getMessage());
-					e.printStackTrace();
+			TagColumns cols = getTagColumns(path);
+			if (cols != null) {
+				TagHdr tagHdr = new TagHdr(cols.colHdr.clone());
+				ArrayList<TagData> tagData = new ArrayList<TagData>(cols.matlTag.length);
+				for (int i = 0; i < cols.matlTag.length; i++) {
+					tagData.add(new TagData(cols.matlTag[i], cols.matlName[i], cols.matlFormula[i], cols.matlGmPerCC[i]));
 				}
+				tagSet = new TagSet(tagHdr, tagData);
 			}
 		}
 		return tagSet;
@@ -265,6 +376,7 @@ public class TagListTools {
 	public void setTagMatlFormula(int theTag, String newFormula, TagSet tagSet) {
 		int index = getTagIndex(theTag,tagSet);		
 		tagSet.tagData.get(index).matlFormula = newFormula;
+		tagSet.invalidateIndex();
 	}
 
 	/**Changes the Density associated with a Tag
@@ -285,6 +397,7 @@ public class TagListTools {
 	public void setTagMatlName(int theTag, String newName, TagSet tagSet) {
 		int index = getTagIndex(theTag,tagSet);		
 		tagSet.tagData.get(index).matlName = newName;
+		tagSet.invalidateIndex();
 	}
 	
 	/**Finds the location (row) of a tag in the list
@@ -293,15 +406,25 @@ public class TagListTools {
 	 * @return
 	 */
 	public int getTagIndex(int theTag, TagSet tagSet) {
-		int index = -1;
-		int[] tags = getTagSetMatlTagAsArray(tagSet);
-		for (int i = 0; i < tags.length; i++) {
-			if (tags[i] == theTag) {
-				index = i;
-				break;
-			}
-		}
-		return index;
+		return tagSet.getTagRow(theTag);
+	}
+
+	/**Finds the location (row) of a material name in the list
+	 * @param name 
+	 * @param tagSet search this tagSet
+	 * @return the first row with this name or -1
+	 */
+	public int getNameIndex(String name, TagSet tagSet) {
+		return tagSet.getNameRow(name);
+	}
+
+	/**Finds the location (row) of a formula in the list
+	 * @param formula 
+	 * @param tagSet search this tagSet
+	 * @return the first row with this formula or -1
+	 */
+	public int getFormulaIndex(String formula, TagSet tagSet) {
+		return tagSet.getFormulaRow(formula);
 	}
 
 	/**Writes a tagSet to ImageJ plugins/DialogData/DefaultMaterials.csv
@@ -314,10 +437,109 @@ public class TagListTools {
 		boolean result = false;
 		if (tagStr != null) {
 			result = stringToFile(tagStr, path);
+			synchronized (fileCache) {
+				fileCache.remove(Paths.get(path).toAbsolutePath().normalize().toString());
+			}
 		}
 		return result;
 	}
 
+	/**Gets the parsed columns of a materials file from the cache, parsing the file if it is
+	 * not cached or has changed since it was parsed
+	 * @param path the materials file
+	 * @return the columns or null if the file cannot be read or is not a materials file
+	 */
+	private TagColumns getTagColumns(String path) {
+		Path thePath = Paths.get(path).toAbsolutePath().normalize();
+		String key = thePath.toString();
+		long modified, size;
+		try {
+			BasicFileAttributes attr = Files.readAttributes(thePath, BasicFileAttributes.class);
+			modified = attr.lastModifiedTime().toMillis();
+			size = attr.size();
+		} catch (IOException e) {
+			JOptionPane.showMessageDialog(null, e.getMessage());
+			e.printStackTrace();
+			return null;
+		}
+
+		synchronized (fileCache) {
+			TagColumns cols = fileCache.get(key);
+			if (cols != null && cols.modified == modified && cols.size == size) {
+				return cols;
+			}
+			String matlStr = fileToString(path);
+			cols = matlStr == null ? null : parseTagColumns(matlStr, modified, size);
+			if (cols != null) {
+				fileCache.put(key, cols);
+			} else {
+				fileCache.remove(key);
+			}
+			return cols;
+		}
+	}
+
+	/**Parses a materials csv into columns, rows are scanned for their first four fields
+	 * without splitting the whole file
+	 * @return the columns or null if the first header item is not "Tag" or a number is bad
+	 */
+	private TagColumns parseTagColumns(String matlStr, long modified, long size) {
+		int len = matlStr.length();
+		int hdrEnd = matlStr.indexOf('\n');
+		if (hdrEnd < 0) {
+			hdrEnd = len;
+		}
+		String[] hdrItems = matlStr.substring(0, hdrEnd).split(",");
+		if (!hdrItems[0].equals("Tag")) {
+			return null;
+		}
+
+		int maxRows = 0;
+		for (int i = hdrEnd; i < len; i++) {
+			if (matlStr.charAt(i) == '\n') {
+				maxRows++;
+			}
+		}
+		int[] tag = new int[maxRows + 1];
+		String[] name = new String[maxRows + 1];
+		String[] formula = new String[maxRows + 1];
+		double[] gmPerCC = new double[maxRows + 1];
+		int nRows = 0;
+		int[] fieldEnd = new int[4];
+		try {
+			for (int start = hdrEnd + 1; start < len;) {
+				int end = matlStr.indexOf('\n', start);
+				if (end < 0) {
+					end = len;
+				}
+				// skip blank lines
+				if (matlStr.substring(start, end).trim().length() > 0) {
+					int pos = start;
+					for (int f = 0; f < 4; f++) {
+						int comma = matlStr.indexOf(',', pos);
+						fieldEnd[f] = comma < 0 || comma > end ? end : comma;
+						if (f < 3 && fieldEnd[f] == end) {
+							throw new NumberFormatException("Materials row " + (nRows + 1) + " has fewer than 4 items");
+						}
+						pos = fieldEnd[f] + 1;
+					}
+					tag[nRows] = Integer.parseInt(matlStr.substring(start, fieldEnd[0]));
+					name[nRows] = matlStr.substring(fieldEnd[0] + 1, fieldEnd[1]);
+					formula[nRows] = matlStr.substring(fieldEnd[1] + 1, fieldEnd[2]);
+					gmPerCC[nRows] = Double.parseDouble(matlStr.substring(fieldEnd[2] + 1, fieldEnd[3]));
+					nRows++;
+				}
+				start = end + 1;
+			}
+		} catch (NumberFormatException e) {
+			JOptionPane.showMessageDialog(null, e.getMessage());
+			e.printStackTrace();
+			return null;
+		}
+		return new TagColumns(modified, size, hdrItems, Arrays.copyOf(tag, nRows), Arrays.copyOf(name, nRows),
+				Arrays.copyOf(formula, nRows), Arrays.copyOf(gmPerCC, nRows));
+	}
+
 	private String fileToString(String path) {
 		String content = null;
 		Path thePath = Paths.get(path);